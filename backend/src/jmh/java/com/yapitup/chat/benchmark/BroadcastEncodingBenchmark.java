@@ -0,0 +1,135 @@
+package com.yapitup.chat.benchmark;
+
+import com.corundumstudio.socketio.Configuration;
+import com.corundumstudio.socketio.protocol.EngineIOVersion;
+import com.corundumstudio.socketio.protocol.JacksonJsonSupport;
+import com.corundumstudio.socketio.protocol.Packet;
+import com.corundumstudio.socketio.protocol.PacketEncoder;
+import com.corundumstudio.socketio.protocol.PacketType;
+import com.yapitup.chat.dto.MessageDTO;
+import com.yapitup.chat.websocket.MessageBroadcaster;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of fanning one chat message out to a room, through netty-socketio's own
+ * packet encoder. Each benchmark encodes the message_received packet for every
+ * recipient the way the server does:
+ * <ul>
+ *   <li>dtoPerRecipient - the old path, the DTO is serialized again per recipient</li>
+ *   <li>jsonEncodedOnce - MessageBroadcaster's pre-serialized JSON</li>
+ *   <li>msgpackEncodedOnce - MessageBroadcaster's MessagePack binary attachment</li>
+ * </ul>
+ * Time is per fan-out; bytes on the wire per fan-out are printed at setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BroadcastEncodingBenchmark {
+
+    private static final String EVENT = "message_received";
+
+    @Param({"10", "100", "1000"})
+    private int recipients;
+
+    private final ByteBufAllocator allocator = UnpooledByteBufAllocator.DEFAULT;
+
+    private final MessageBroadcaster broadcaster = new MessageBroadcaster();
+
+    private PacketEncoder encoder;
+
+    private MessageDTO message;
+
+    @Setup
+    public void setup() throws IOException {
+        encoder = new PacketEncoder(new Configuration(), new JacksonJsonSupport());
+        message = new MessageDTO(
+                1_234_567L,
+                42L,
+                7L,
+                "alice",
+                "Did everyone see the deploy notes? The new build goes out at five.",
+                "2024-06-01T17:04:12.345678");
+
+        // Wire size does not vary between runs, so report it once per trial
+        System.out.printf("%nBytes on the wire per fan-out to %d recipients: dto=%d json=%d msgpack=%d%n",
+                recipients,
+                encode(message) * recipients,
+                encode(broadcaster.encodeJson(message)) * recipients,
+                encode(broadcaster.encodeMsgpack(message)) * recipients);
+    }
+
+    @Benchmark
+    public long dtoPerRecipient() throws IOException {
+        long bytes = 0;
+        for (int i = 0; i < recipients; i++) {
+            bytes += encode(message);
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public long jsonEncodedOnce() throws IOException {
+        Object json = broadcaster.encodeJson(message);
+        long bytes = 0;
+        for (int i = 0; i < recipients; i++) {
+            bytes += encode(json);
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public long msgpackEncodedOnce() throws IOException {
+        byte[] msgpack = broadcaster.encodeMsgpack(message);
+        long bytes = 0;
+        for (int i = 0; i < recipients; i++) {
+            bytes += encode(msgpack);
+        }
+        return bytes;
+    }
+
+    /**
+     * Encode one event packet as NamespaceClient.sendEvent builds it and
+     * return its size, binary attachments included
+     */
+    private long encode(Object payload) throws IOException {
+        Packet packet = new Packet(PacketType.MESSAGE, EngineIOVersion.V4);
+        packet.setSubType(PacketType.EVENT);
+        packet.setName(EVENT);
+        packet.setData(List.of(payload));
+        packet.setNsp("");
+
+        ByteBuf out = allocator.heapBuffer();
+        try {
+            encoder.encodePacket(packet, out, allocator, false);
+            long bytes = out.readableBytes();
+            if (packet.hasAttachments()) {
+                for (ByteBuf attachment : packet.getAttachments()) {
+                    bytes += attachment.readableBytes();
+                }
+            }
+            return bytes;
+        } finally {
+            out.release();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.yapitup.chat.benchmark;
+
+import com.yapitup.chat.dto.ChatRoomDTO;
+import com.yapitup.chat.dto.MessageDTO;
+import com.yapitup.chat.model.ChatRoom;
+import com.yapitup.chat.model.Message;
+import com.yapitup.chat.model.User;
+import com.yapitup.chat.service.ChatRoomService;
+import com.yapitup.chat.service.MessageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity-to-DTO conversion in the services, on every history page and room listing:
+ * <ul>
+ *   <li>messageToDto - MessageService.convertToDTO</li>
+ *   <li>roomToDto - ChatRoomService.convertToDTO for a room with 50 loaded members</li>
+ * </ul>
+ * Both methods are private, so they are called through method handles.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DtoConversionBenchmark {
+
+    private final MessageService messageService = new MessageService();
+
+    private final ChatRoomService chatRoomService = new ChatRoomService();
+
+    private MethodHandle messageToDto;
+
+    private MethodHandle roomToDto;
+
+    private Message message;
+
+    private ChatRoom room;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        messageToDto = MethodHandles.privateLookupIn(MessageService.class, MethodHandles.lookup())
+                .findVirtual(MessageService.class, "convertToDTO", MethodType.methodType(MessageDTO.class, Message.class));
+        roomToDto = MethodHandles.privateLookupIn(ChatRoomService.class, MethodHandles.lookup())
+                .findVirtual(ChatRoomService.class, "convertToDTO", MethodType.methodType(ChatRoomDTO.class, ChatRoom.class));
+
+        User author = user(7L, "alice");
+        room = new ChatRoom(42L, "general", "Company-wide announcements and chatter",
+                LocalDateTime.of(2024, 5, 1, 9, 0), author);
+        for (long id = 1; id <= 50; id++) {
+            room.getMembers().add(user(id, "user" + id));
+        }
+        message = new Message(123456L, room, author,
+                "Hey everyone, the deploy finished and the dashboards look healthy.",
+                LocalDateTime.of(2024, 5, 14, 12, 30, 15, 123_000_000));
+    }
+
+    @Benchmark
+    public MessageDTO messageToDto() throws Throwable {
+        return (MessageDTO) messageToDto.invokeExact(messageService, message);
+    }
+
+    @Benchmark
+    public ChatRoomDTO roomToDto() throws Throwable {
+        return (ChatRoomDTO) roomToDto.invokeExact(chatRoomService, room);
+    }
+
+    private static User user(Long id, String username) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        return user;
+    }
+}
@@ -0,0 +1,100 @@
+package com.yapitup.chat.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.yapitup.chat.dto.ChatRoomDTO;
+import com.yapitup.chat.dto.MessageDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson (de)serialization of the DTOs the REST API and socket events carry,
+ * with an ObjectMapper configured the way Spring Boot configures the server's:
+ * <ul>
+ *   <li>writeMessage / readMessage - one MessageDTO, as sent and as received on send_message</li>
+ *   <li>writeRoom - one ChatRoomDTO</li>
+ *   <li>writeRoomList - GET /api/rooms with 100 rooms</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class JacksonBenchmark {
+
+    private ObjectMapper objectMapper;
+
+    private ObjectWriter writer;
+
+    private ObjectReader messageReader;
+
+    private MessageDTO message;
+
+    private byte[] messageJson;
+
+    private ChatRoomDTO room;
+
+    private List<ChatRoomDTO> rooms;
+
+    @Setup
+    public void setup() throws JsonProcessingException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        writer = objectMapper.writer();
+        messageReader = objectMapper.readerFor(MessageDTO.class);
+
+        message = new MessageDTO(123456L, 42L, 7L, "alice",
+                "Hey everyone, the deploy finished and the dashboards look healthy.",
+                "2024-05-14T12:30:15.123");
+        messageJson = writer.writeValueAsBytes(message);
+
+        room = room(42L);
+        rooms = new ArrayList<>();
+        for (long id = 1; id <= 100; id++) {
+            rooms.add(room(id));
+        }
+    }
+
+    @Benchmark
+    public byte[] writeMessage() throws JsonProcessingException {
+        return writer.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public MessageDTO readMessage() throws IOException {
+        return messageReader.readValue(messageJson);
+    }
+
+    @Benchmark
+    public byte[] writeRoom() throws JsonProcessingException {
+        return writer.writeValueAsBytes(room);
+    }
+
+    @Benchmark
+    public byte[] writeRoomList() throws JsonProcessingException {
+        return writer.writeValueAsBytes(rooms);
+    }
+
+    private static ChatRoomDTO room(Long id) {
+        return new ChatRoomDTO(id, "room-" + id, "Discussion room number " + id,
+                LocalDateTime.of(2024, 5, 1, 9, 0), 7L, "alice", 50);
+    }
+}
@@ -0,0 +1,73 @@
+package com.yapitup.chat.benchmark;
+
+import com.yapitup.chat.util.JwtPrincipal;
+import com.yapitup.chat.util.JwtUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JwtUtil on the request and socket-connect paths:
+ * <ul>
+ *   <li>generateToken - signing a new token at login</li>
+ *   <li>verifyCached - JwtUtil.verify for a token seen before (the filter's common case)</li>
+ *   <li>parseAndValidate - a full signature check and claims parse, as on a cache miss</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class JwtBenchmark {
+
+    private JwtUtil jwtUtil;
+
+    private String token;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        jwtUtil = new JwtUtil();
+        set("secret", "benchmark-secret-key-that-is-long-enough-for-hs256");
+        set("expiration", 86_400_000L);
+        set("cacheMaxSize", 50_000);
+        jwtUtil.init();
+
+        token = jwtUtil.generateToken("alice", 7L);
+        jwtUtil.verify(token);
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return jwtUtil.generateToken("alice", 7L);
+    }
+
+    @Benchmark
+    public Optional<JwtPrincipal> verifyCached() {
+        return jwtUtil.verify(token);
+    }
+
+    @Benchmark
+    public Long parseAndValidate() {
+        // Always parses: signature check, base64 and JSON decode of the claims
+        return jwtUtil.extractUserId(token);
+    }
+
+    private void set(String name, Object value) throws ReflectiveOperationException {
+        Field field = JwtUtil.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(jwtUtil, value);
+    }
+}
@@ -0,0 +1,257 @@
+package com.yapitup.chat.benchmark;
+
+import com.corundumstudio.socketio.BroadcastOperations;
+import com.corundumstudio.socketio.Configuration;
+import com.corundumstudio.socketio.SocketIOClient;
+import com.corundumstudio.socketio.SocketIONamespace;
+import com.corundumstudio.socketio.SocketIOServer;
+import com.yapitup.chat.archive.MessageArchive;
+import com.yapitup.chat.cluster.ClusterNode;
+import com.yapitup.chat.cluster.ClusterRoomDirectory;
+import com.yapitup.chat.datasource.ReplicaReads;
+import com.yapitup.chat.metrics.ChatMetrics;
+import com.yapitup.chat.repository.ChatRoomRepository;
+import com.yapitup.chat.repository.UserRepository;
+import com.yapitup.chat.search.MessageSearchIndex;
+import com.yapitup.chat.service.ChatCacheService;
+import com.yapitup.chat.service.MessageIdGenerator;
+import com.yapitup.chat.service.MessageWriteBehindService;
+import com.yapitup.chat.service.PresenceService;
+import com.yapitup.chat.service.RoomHistoryCache;
+import com.yapitup.chat.service.RoomMembershipService;
+import com.yapitup.chat.util.JwtUtil;
+import com.yapitup.chat.websocket.MessageBroadcaster;
+import com.yapitup.chat.websocket.OutboundFlowControl;
+import com.yapitup.chat.websocket.RoomMessageBatcher;
+import com.yapitup.chat.websocket.RoomSubscriptionRegistry;
+import com.yapitup.chat.websocket.SocketEventDispatcher;
+import com.yapitup.chat.websocket.SocketIOEventHandler;
+import com.yapitup.chat.websocket.TypingStateTracker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.util.FileSystemUtils;
+
+import javax.sql.DataSource;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * One send_message event through SocketIOEventHandler, on the real services
+ * wired by Spring: membership check, write-behind enqueue, history cache,
+ * search indexing and the broadcast to every client in the room.
+ * <p>
+ * The database and network are stubbed out: repositories and JdbcTemplate do
+ * nothing, and clients accept every event. The handler runs on the benchmark
+ * thread rather than the virtual-thread dispatcher, so time is the handler's
+ * own, metrics included. Logging is raised to WARN: the sampled INFO lines go
+ * through an asynchronous appender in the application, not the benchmark thread.
+ * The application context is rebuilt for each iteration so the search index
+ * does not grow without bound.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SendMessageBenchmark {
+
+    private static final long USER_ID = 7L;
+
+    private static final long ROOM_ID = 42L;
+
+    @Param({"1", "100"})
+    private int recipients;
+
+    private Path indexDir;
+
+    private AnnotationConfigApplicationContext context;
+
+    private SocketIOEventHandler handler;
+
+    private MethodHandle handleSendMessage;
+
+    private SocketIOClient sender;
+
+    private Map<String, Object> event;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws ReflectiveOperationException, IOException {
+        indexDir = Files.createTempDirectory("search-index-bench");
+        handleSendMessage = MethodHandles.privateLookupIn(SocketIOEventHandler.class, MethodHandles.lookup())
+                .findVirtual(SocketIOEventHandler.class, "handleSendMessage",
+                        MethodType.methodType(void.class, SocketIOClient.class, Map.class));
+
+        // The sender is in the room too, as in a real broadcast
+        List<SocketIOClient> roomClients = new ArrayList<>();
+        BroadcastOperations roomOps = Stubs.of(BroadcastOperations.class,
+                Map.of("getClients", args -> roomClients));
+        SocketIONamespace namespace = Stubs.of(SocketIONamespace.class,
+                Map.of("getRoomOperations", args -> roomOps));
+        sender = client(namespace);
+        roomClients.add(sender);
+        for (int i = 1; i < recipients; i++) {
+            roomClients.add(client(namespace));
+        }
+
+        event = new HashMap<>();
+        event.put("roomId", ROOM_ID);
+        event.put("content", "Hey everyone, the deploy finished and the dashboards look healthy.");
+        event.put("clientMessageId", "c-1");
+
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+                .setLevel(ch.qos.logback.classic.Level.WARN);
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        context = new AnnotationConfigApplicationContext();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("jwt.secret", "benchmark-secret-key-that-is-long-enough-for-hs256");
+        properties.put("jwt.expiration", "86400000");
+        properties.put("chat.search.index-dir", indexDir.toString());
+        properties.put("chat.persistence.queue-capacity", "1000000");
+        // Measure the immediate fan-out, not a batching window
+        properties.put("chat.batching.enabled", "false");
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+
+        Map<String, Function<Object[], Object>> notFound = Map.of("findById", args -> Optional.empty());
+        context.registerBean("entityManagerFactory", Object.class, Object::new);
+        context.registerBean(JdbcTemplate.class, NoOpJdbcTemplate::new);
+        context.registerBean(UserRepository.class, () -> Stubs.of(UserRepository.class, notFound));
+        context.registerBean(ChatRoomRepository.class, () -> Stubs.of(ChatRoomRepository.class, notFound));
+        context.registerBean(SocketIOServer.class, OfflineSocketIOServer::new);
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        context.register(ChatMetrics.class, ClusterNode.class, ClusterRoomDirectory.class, ChatCacheService.class,
+                RoomHistoryCache.class, PresenceService.class, MessageIdGenerator.class, ReplicaReads.class,
+                MessageWriteBehindService.class, JwtUtil.class, RoomMembershipService.class,
+                MessageArchive.class, MessageSearchIndex.class, RoomSubscriptionRegistry.class, SocketEventDispatcher.class,
+                OutboundFlowControl.class, RoomMessageBatcher.class, MessageBroadcaster.class,
+                TypingStateTracker.class, SocketIOEventHandler.class);
+        context.refresh();
+
+        context.getBean(ChatCacheService.class).putUser(USER_ID, "alice");
+        context.getBean(ChatCacheService.class).putRoom(ROOM_ID, "general");
+        context.getBean(RoomMembershipService.class).recordJoined(ROOM_ID, USER_ID);
+        handler = context.getBean(SocketIOEventHandler.class);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        context.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        FileSystemUtils.deleteRecursively(indexDir);
+    }
+
+    @Benchmark
+    public void sendMessage() throws Throwable {
+        handleSendMessage.invokeExact(handler, sender, event);
+    }
+
+    private static SocketIOClient client(SocketIONamespace namespace) {
+        UUID sessionId = UUID.randomUUID();
+        Map<String, Function<Object[], Object>> answers = new HashMap<>();
+        answers.put("get", args -> "userId".equals(args[0]) ? USER_ID : null);
+        answers.put("getSessionId", args -> sessionId);
+        answers.put("getNamespace", args -> namespace);
+        answers.put("isChannelOpen", args -> true);
+        answers.put("isWritable", args -> true);
+        return Stubs.of(SocketIOClient.class, answers);
+    }
+
+    /**
+     * Every statement succeeds without touching a database; queries return nothing
+     */
+    private static final class NoOpJdbcTemplate extends JdbcTemplate {
+
+        private NoOpJdbcTemplate() {
+            // Also backs the search index's own streaming JdbcTemplate: an empty result set
+            super(emptyDataSource());
+        }
+
+        @Override
+        public <T> T queryForObject(String sql, Class<T> requiredType) {
+            return requiredType == Long.class ? requiredType.cast(0L) : null;
+        }
+
+        @Override
+        public void query(String sql, RowCallbackHandler rch) {
+        }
+
+        @Override
+        public void query(String sql, RowCallbackHandler rch, Object... args) {
+        }
+
+        @Override
+        public int update(String sql, Object... args) {
+            return 0;
+        }
+
+        @Override
+        public int update(String sql) {
+            return 0;
+        }
+    }
+
+    private static DataSource emptyDataSource() {
+        ResultSet resultSet = Stubs.of(ResultSet.class, Map.of());
+        PreparedStatement statement = Stubs.of(PreparedStatement.class, Map.of("executeQuery", args -> resultSet));
+        Connection connection = Stubs.of(Connection.class, Map.of("prepareStatement", args -> statement));
+        return Stubs.of(DataSource.class, Map.of("getConnection", args -> connection));
+    }
+
+    /**
+     * A server that never binds its port
+     */
+    private static final class OfflineSocketIOServer extends SocketIOServer {
+
+        private OfflineSocketIOServer() {
+            super(new Configuration());
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+}
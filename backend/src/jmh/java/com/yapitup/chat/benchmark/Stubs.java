@@ -0,0 +1,77 @@
+package com.yapitup.chat.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Hand-rolled stand-ins for interfaces (repositories, Socket.IO clients) so
+ * benchmarks can run real services without a database or network.
+ * Methods without an answer return null, false or zero.
+ */
+final class Stubs {
+
+    private Stubs() {
+    }
+
+    /**
+     * @param answers method name -> result computed from the call's arguments
+     */
+    static <T> T of(Class<T> type, Map<String, Function<Object[], Object>> answers) {
+        Object stub = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    if (method.getParameterCount() == 0) {
+                        return System.identityHashCode(proxy);
+                    }
+                    break;
+                case "equals":
+                    if (method.getParameterCount() == 1) {
+                        return proxy == args[0];
+                    }
+                    break;
+                case "toString":
+                    if (method.getParameterCount() == 0) {
+                        return type.getSimpleName() + " stub";
+                    }
+                    break;
+                default:
+                    break;
+            }
+            Function<Object[], Object> answer = answers.get(method.getName());
+            if (answer != null) {
+                return answer.apply(args != null ? args : new Object[0]);
+            }
+            return defaultValue(method.getReturnType());
+        });
+        return type.cast(stub);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == double.class) {
+            return 0.0;
+        }
+        if (type == float.class) {
+            return 0.0f;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        return null;
+    }
+}
@@ -0,0 +1,249 @@
+package com.yapitup.chat.loadtest;
+
+import com.yapitup.chat.YapItUpChatApplication;
+import com.yapitup.chat.dto.ChatRoomDTO;
+import com.yapitup.chat.model.User;
+import com.yapitup.chat.repository.UserRepository;
+import com.yapitup.chat.service.ChatRoomService;
+import com.yapitup.chat.util.JwtUtil;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless load test for the Socket.IO server.
+ * Starts the application in this JVM against an in-memory H2 database, seeds
+ * users and rooms through the application's own services, then opens one
+ * Socket.IO connection per simulated user (authenticated by the real
+ * onConnect handshake) and has every client send messages to its room at a
+ * fixed rate. Reports connections/sec, messages/sec and send to
+ * message_received latency percentiles. Everything runs on localhost.
+ * <p>
+ * Options are described in {@link LoadScenario}.
+ */
+public final class LoadGenerator {
+
+    // Time allowed for messages still in flight when sending stops
+    private static final long DRAIN_MS = 2000;
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadScenario scenario = LoadScenario.parse(args);
+        PrintStream console = System.out;
+        PrintStream errors = System.err;
+        Path indexDir = Files.createTempDirectory("loadtest-search-index");
+        Path appLog = Paths.get(scenario.appLogFile);
+        Files.createDirectories(appLog.toAbsolutePath().getParent());
+
+        boolean allJoined;
+        // The server logs every event to the console; keep that out of the report
+        try (PrintStream log = new PrintStream(new FileOutputStream(appLog.toFile()), true)) {
+            console.println("Load test: " + scenario);
+            System.setOut(log);
+            System.setErr(log);
+            try {
+                allJoined = run(scenario, indexDir, console);
+            } finally {
+                System.setOut(console);
+                System.setErr(errors);
+                FileSystemUtils.deleteRecursively(indexDir);
+            }
+        }
+        console.println("Server output: " + appLog.toAbsolutePath());
+        // The HTTP client keeps non-daemon threads alive for a while after the last connection
+        System.exit(allJoined ? 0 : 1);
+    }
+
+    private static boolean run(LoadScenario scenario, Path indexDir, PrintStream console) throws Exception {
+        long bootStart = System.nanoTime();
+        int socketPort = freePort();
+        // devtools would relaunch main() in a restart class loader
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        ConfigurableApplicationContext app = SpringApplication.run(YapItUpChatApplication.class,
+                "--server.port=0",
+                "--socketio.port=" + socketPort,
+                "--spring.datasource.url=jdbc:h2:mem:loadtest;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                // schema.sql is MySQL-only; Hibernate creates the tables
+                "--spring.sql.init.mode=never",
+                "--spring.jpa.hibernate.ddl-auto=create-drop",
+                "--spring.jpa.show-sql=false",
+                "--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+                "--chat.search.index-dir=" + indexDir,
+                "--logging.level.root=WARN");
+        List<SimulatedClient> clients = new ArrayList<>();
+        try {
+            console.printf(Locale.ROOT, "Server started in %.1f s (Socket.IO on port %d)%n",
+                    seconds(System.nanoTime() - bootStart), socketPort);
+
+            LoadMetrics metrics = new LoadMetrics();
+            long seedStart = System.nanoTime();
+            List<String> tokens = new ArrayList<>();
+            List<Long> roomIds = new ArrayList<>();
+            seed(app, scenario, tokens, roomIds);
+            console.printf(Locale.ROOT, "Seeded %d users and %d rooms in %.1f s%n",
+                    scenario.clients, scenario.rooms, seconds(System.nanoTime() - seedStart));
+
+            // Connect phase: every client connects and joins its room
+            CountDownLatch joined = new CountDownLatch(scenario.clients);
+            long connectStart = System.nanoTime();
+            long connectInterval = scenario.connectRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / scenario.connectRate) : 0;
+            for (int i = 0; i < scenario.clients; i++) {
+                if (connectInterval > 0) {
+                    // Paced from the start, so a slow connect does not push back the ones after it
+                    long wait = connectStart + i * connectInterval - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+                SimulatedClient client = new SimulatedClient("localhost", socketPort, tokens.get(i), roomIds.get(i % scenario.rooms), metrics);
+                clients.add(client);
+                client.connect(joined);
+            }
+            boolean allJoined = joined.await(scenario.connectTimeoutSeconds, TimeUnit.SECONDS);
+            long connectNanos = System.nanoTime() - connectStart;
+            int joinedCount = scenario.clients - (int) joined.getCount();
+            console.printf(Locale.ROOT, "Connected and joined %d/%d clients in %.2f s (%.1f connections/s)%n",
+                    joinedCount, scenario.clients, seconds(connectNanos), joinedCount / seconds(connectNanos));
+            printPercentiles(console, "  connect to room_joined", metrics.joinLatency);
+            if (!allJoined) {
+                console.println("Not every client joined within " + scenario.connectTimeoutSeconds
+                        + " s; first error: " + metrics.firstError.get());
+                return false;
+            }
+
+            // Send phase: each client sends at a fixed rate, starting at a random offset
+            ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                    Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+            long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / scenario.rate);
+            for (SimulatedClient client : clients) {
+                scheduler.scheduleAtFixedRate(() -> {
+                    if (ThreadLocalRandom.current().nextDouble() < scenario.typing) {
+                        client.startTyping();
+                        scheduler.schedule(client::sendMessage, scenario.typingMs, TimeUnit.MILLISECONDS);
+                    } else {
+                        client.sendMessage();
+                    }
+                }, ThreadLocalRandom.current().nextLong(periodNanos), periodNanos, TimeUnit.NANOSECONDS);
+            }
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(scenario.warmupSeconds));
+            metrics.reset();
+            long measureStart = System.nanoTime();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(scenario.durationSeconds));
+            scheduler.shutdownNow();
+            long measureNanos = System.nanoTime() - measureStart;
+            Thread.sleep(DRAIN_MS);
+
+            report(console, scenario, metrics, measureNanos);
+            return true;
+        } finally {
+            for (SimulatedClient client : clients) {
+                client.close();
+            }
+            app.close();
+        }
+    }
+
+    /**
+     * Create the users and rooms, and make every user a member of their room
+     * (user i belongs to room i % rooms)
+     */
+    private static void seed(ConfigurableApplicationContext app, LoadScenario scenario,
+            List<String> tokens, List<Long> roomIds) {
+        UserRepository userRepository = app.getBean(UserRepository.class);
+        ChatRoomService chatRoomService = app.getBean(ChatRoomService.class);
+        JwtUtil jwtUtil = app.getBean(JwtUtil.class);
+
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < scenario.clients; i++) {
+            // Nobody logs in with a password; tokens are issued directly
+            users.add(new User(null, "load" + i, "load" + i + "@loadtest.local", "-", LocalDateTime.now(), false));
+        }
+        users = userRepository.saveAll(users);
+
+        for (int r = 0; r < scenario.rooms; r++) {
+            ChatRoomDTO room = chatRoomService.createRoom("load-room-" + r, "Load test room", users.get(r).getId());
+            roomIds.add(room.getId());
+        }
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            chatRoomService.joinRoom(roomIds.get(i % scenario.rooms), user.getId());
+            tokens.add(jwtUtil.generateToken(user.getUsername(), user.getId()));
+        }
+    }
+
+    private static void report(PrintStream console, LoadScenario scenario, LoadMetrics metrics, long measureNanos)
+            throws IOException {
+        double elapsed = seconds(measureNanos);
+        long sent = metrics.sent.sum();
+        long delivered = metrics.delivered.sum();
+        // Every client in the room receives each message, the sender included
+        long expected = Math.round(sent * (double) scenario.clients / scenario.rooms);
+
+        console.printf(Locale.ROOT, "Sent %d messages in %.1f s (%.1f messages/s)%n", sent, elapsed, sent / elapsed);
+        console.printf(Locale.ROOT, "Delivered %d of ~%d expected (%.1f deliveries/s), %d in batches of messages_received%n",
+                delivered, expected, delivered / elapsed, metrics.batches.sum());
+        printPercentiles(console, "  send to message_received", metrics.deliveryLatency);
+        console.printf(Locale.ROOT, "typing_state %d, resync_needed %d, errors %d, disconnects %d%n",
+                metrics.typingStates.sum(), metrics.resyncs.sum(), metrics.errors.sum(), metrics.disconnects.sum());
+        if (metrics.firstError.get() != null) {
+            console.println("First error: " + metrics.firstError.get());
+        }
+
+        Path histogram = Paths.get(scenario.histogramFile);
+        Files.createDirectories(histogram.toAbsolutePath().getParent());
+        try (PrintStream out = new PrintStream(Files.newOutputStream(histogram))) {
+            // Values in milliseconds
+            metrics.deliveryLatency.outputPercentileDistribution(out, 1000.0);
+        }
+        console.println("Latency distribution: " + histogram.toAbsolutePath());
+    }
+
+    private static void printPercentiles(PrintStream console, String label, Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            console.println(label + ": no samples");
+            return;
+        }
+        console.printf(Locale.ROOT, "%s (ms): p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f  (%d samples)%n",
+                label,
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(90) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0,
+                histogram.getTotalCount());
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+}
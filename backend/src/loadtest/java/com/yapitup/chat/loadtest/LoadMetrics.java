@@ -0,0 +1,66 @@
+package com.yapitup.chat.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms shared by every simulated client.
+ * Latencies are recorded in microseconds.
+ */
+final class LoadMetrics {
+
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    // connect() to room_joined, per client
+    final Histogram joinLatency = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+
+    // send_message emitted to message_received, per recipient
+    final Histogram deliveryLatency = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+
+    final LongAdder sent = new LongAdder();
+    final LongAdder delivered = new LongAdder();
+    final LongAdder batches = new LongAdder();
+    final LongAdder typingStates = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final LongAdder resyncs = new LongAdder();
+    final LongAdder disconnects = new LongAdder();
+
+    final AtomicReference<String> firstError = new AtomicReference<>();
+
+    // Deliveries of messages sent before this are not counted
+    private volatile long measuringFrom = Long.MIN_VALUE;
+
+    void recordDelivery(long sentAtNanos) {
+        if (sentAtNanos - measuringFrom < 0) {
+            return;
+        }
+        long micros = (System.nanoTime() - sentAtNanos) / 1000;
+        deliveryLatency.recordValue(Math.min(Math.max(micros, 0), MAX_LATENCY_MICROS));
+        delivered.increment();
+    }
+
+    void recordError(String message) {
+        errors.increment();
+        firstError.compareAndSet(null, message);
+    }
+
+    /**
+     * Start measuring from now, dropping what the warmup recorded
+     */
+    void reset() {
+        measuringFrom = System.nanoTime();
+        deliveryLatency.reset();
+        sent.reset();
+        delivered.reset();
+        batches.reset();
+        typingStates.reset();
+        errors.reset();
+        resyncs.reset();
+        disconnects.reset();
+        firstError.set(null);
+    }
+}
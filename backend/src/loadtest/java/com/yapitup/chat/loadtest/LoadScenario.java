@@ -0,0 +1,74 @@
+package com.yapitup.chat.loadtest;
+
+import java.util.Locale;
+
+/**
+ * What the load generator simulates, from {@code --name=value} arguments:
+ * <ul>
+ *   <li>clients - simulated users, each with its own Socket.IO connection (200)</li>
+ *   <li>rooms - rooms the clients are spread across, round-robin (10)</li>
+ *   <li>connect-rate - new connections opened per second, 0 for all at once (0)</li>
+ *   <li>rate - messages per second sent by each client (1.0)</li>
+ *   <li>typing - fraction of messages preceded by typing_start (0.3)</li>
+ *   <li>typing-ms - how long a client types before sending (500)</li>
+ *   <li>warmup - seconds of sending before measuring (5)</li>
+ *   <li>duration - seconds measured (30)</li>
+ *   <li>connect-timeout - seconds allowed for every client to connect and join (60)</li>
+ *   <li>histogram - file the latency distribution is written to (target/loadtest-latency.hgrm)</li>
+ *   <li>app-log - file the server's console output goes to (target/loadtest-app.log)</li>
+ * </ul>
+ */
+final class LoadScenario {
+
+    int clients = 200;
+    int rooms = 10;
+    double connectRate = 0;
+    double rate = 1.0;
+    double typing = 0.3;
+    long typingMs = 500;
+    int warmupSeconds = 5;
+    int durationSeconds = 30;
+    int connectTimeoutSeconds = 60;
+    String histogramFile = "target/loadtest-latency.hgrm";
+    String appLogFile = "target/loadtest-app.log";
+
+    static LoadScenario parse(String[] args) {
+        LoadScenario scenario = new LoadScenario();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got '" + arg + "'");
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1);
+            switch (name) {
+                case "clients" -> scenario.clients = Integer.parseInt(value);
+                case "rooms" -> scenario.rooms = Integer.parseInt(value);
+                case "connect-rate" -> scenario.connectRate = Double.parseDouble(value);
+                case "rate" -> scenario.rate = Double.parseDouble(value);
+                case "typing" -> scenario.typing = Double.parseDouble(value);
+                case "typing-ms" -> scenario.typingMs = Long.parseLong(value);
+                case "warmup" -> scenario.warmupSeconds = Integer.parseInt(value);
+                case "duration" -> scenario.durationSeconds = Integer.parseInt(value);
+                case "connect-timeout" -> scenario.connectTimeoutSeconds = Integer.parseInt(value);
+                case "histogram" -> scenario.histogramFile = value;
+                case "app-log" -> scenario.appLogFile = value;
+                default -> throw new IllegalArgumentException("Unknown option --" + name);
+            }
+        }
+        if (scenario.clients < 1 || scenario.rooms < 1 || scenario.rooms > scenario.clients) {
+            throw new IllegalArgumentException("Need at least one client per room");
+        }
+        if (scenario.rate <= 0 || scenario.durationSeconds < 1) {
+            throw new IllegalArgumentException("rate and duration must be positive");
+        }
+        return scenario;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "%d clients in %d rooms, %.2f msg/s each, %.0f%% typed first (%d ms), %d s warmup + %d s measured",
+                clients, rooms, rate, typing * 100, typingMs, warmupSeconds, durationSeconds);
+    }
+}
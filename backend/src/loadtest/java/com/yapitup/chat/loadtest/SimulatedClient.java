@@ -0,0 +1,123 @@
+package com.yapitup.chat.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One simulated user: a Socket.IO connection authenticated with the user's
+ * JWT in the handshake, joined to one room.
+ * Each message it sends carries the send time in its content, so every
+ * client in the room can record how long delivery took (all clients share
+ * one JVM, and so one clock).
+ */
+final class SimulatedClient implements SocketIoConnection.Handler {
+
+    private static final String STAMP_PREFIX = "lt";
+
+    private static final String[] PHRASES = {
+            "the deploy finished and the dashboards look healthy",
+            "can someone review the pull request before lunch",
+            "standup moved to half past ten today",
+            "I pushed a fix for the flaky login test",
+            "who is on call this weekend"
+    };
+
+    private final String host;
+
+    private final int port;
+
+    private final String token;
+
+    private final long roomId;
+
+    private final LoadMetrics metrics;
+
+    private CountDownLatch joined;
+
+    private SocketIoConnection connection;
+
+    private long connectStartedAt;
+
+    private volatile boolean closing;
+
+    SimulatedClient(String host, int port, String token, long roomId, LoadMetrics metrics) {
+        this.host = host;
+        this.port = port;
+        this.token = token;
+        this.roomId = roomId;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Connect and join the room; the latch is counted down once room_joined arrives
+     */
+    void connect(CountDownLatch joined) {
+        this.joined = joined;
+        connectStartedAt = System.nanoTime();
+        connection = SocketIoConnection.open(host, port, "token=" + token, this);
+    }
+
+    void startTyping() {
+        connection.emit("typing_start", Map.of("roomId", roomId));
+    }
+
+    void sendMessage() {
+        String phrase = PHRASES[ThreadLocalRandom.current().nextInt(PHRASES.length)];
+        connection.emit("send_message", Map.of(
+                "roomId", roomId,
+                "content", STAMP_PREFIX + System.nanoTime() + " " + phrase));
+        metrics.sent.increment();
+    }
+
+    void close() {
+        closing = true;
+        connection.close();
+    }
+
+    @Override
+    public void onConnect() {
+        connection.emit("join_room", Map.of("roomId", roomId));
+    }
+
+    @Override
+    public void onEvent(String event, JsonNode data) {
+        switch (event) {
+            case "room_joined" -> {
+                metrics.joinLatency.recordValue((System.nanoTime() - connectStartedAt) / 1000);
+                joined.countDown();
+            }
+            case "message_received" -> onMessage(data);
+            case "messages_received" -> {
+                metrics.batches.increment();
+                for (JsonNode message : data) {
+                    onMessage(message);
+                }
+            }
+            case "typing_state" -> metrics.typingStates.increment();
+            case "resync_needed" -> metrics.resyncs.increment();
+            case "error" -> metrics.recordError(data.path("message").asText(data.toString()));
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public void onClose(String reason) {
+        if (!closing) {
+            metrics.disconnects.increment();
+            metrics.recordError(reason);
+        }
+    }
+
+    private void onMessage(JsonNode message) {
+        String content = message.path("content").asText();
+        int end = content.indexOf(' ');
+        if (!content.startsWith(STAMP_PREFIX) || end < 0) {
+            return;
+        }
+        metrics.recordDelivery(Long.parseLong(content.substring(STAMP_PREFIX.length(), end)));
+    }
+}
@@ -0,0 +1,139 @@
+package com.yapitup.chat.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Minimal Socket.IO client: Engine.IO v4 over a websocket, default namespace,
+ * text events only (JSON encoding).
+ * The Java Socket.IO client runs every connection's callbacks on one shared
+ * thread, which caps what a single load generator can push; the JDK client
+ * delivers each connection's frames on a thread pool instead.
+ */
+final class SocketIoConnection implements WebSocket.Listener {
+
+    interface Handler {
+
+        /** The namespace accepted the connection */
+        void onConnect();
+
+        void onEvent(String event, JsonNode data);
+
+        /** The connection failed, or closed */
+        void onClose(String reason);
+    }
+
+    private static final HttpClient HTTP = HttpClient.newHttpClient();
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final Handler handler;
+
+    private final StringBuilder partial = new StringBuilder();
+
+    // Tail of the outgoing frames; a websocket allows one send in flight
+    private CompletableFuture<WebSocket> sending;
+
+    private SocketIoConnection(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * @param query extra handshake parameters, e.g. "token=..."
+     */
+    static SocketIoConnection open(String host, int port, String query, Handler handler) {
+        SocketIoConnection connection = new SocketIoConnection(handler);
+        URI uri = URI.create("ws://" + host + ":" + port + "/socket.io/?EIO=4&transport=websocket&" + query);
+        synchronized (connection) {
+            connection.sending = HTTP.newWebSocketBuilder().buildAsync(uri, connection);
+        }
+        connection.sending.whenComplete((webSocket, error) -> {
+            if (error != null) {
+                handler.onClose("connect failed: " + error.getMessage());
+            }
+        });
+        return connection;
+    }
+
+    void emit(String event, Object data) {
+        try {
+            send("42" + JSON.writeValueAsString(List.of(event, data)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    synchronized void close() {
+        sending = sending.thenCompose(webSocket -> webSocket.sendClose(WebSocket.NORMAL_CLOSURE, ""));
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        partial.append(data);
+        if (last) {
+            String packet = partial.toString();
+            partial.setLength(0);
+            onPacket(packet);
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        handler.onClose("closed (" + statusCode + ")");
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        handler.onClose(error.toString());
+    }
+
+    private void onPacket(String packet) {
+        if (packet.isEmpty()) {
+            return;
+        }
+        switch (packet.charAt(0)) {
+            case '0' -> send("40");    // Engine.IO open: connect to the default namespace
+            case '2' -> send("3");     // ping
+            case '4' -> onMessage(packet.substring(1));
+            default -> {
+            }
+        }
+    }
+
+    private void onMessage(String message) {
+        if (message.isEmpty()) {
+            return;
+        }
+        switch (message.charAt(0)) {
+            case '0' -> handler.onConnect();
+            case '1' -> handler.onClose("disconnected by server");
+            case '4' -> handler.onClose("connect_error " + message.substring(1));
+            case '2' -> {
+                // 2[ackId]["event",data]
+                try {
+                    JsonNode event = JSON.readTree(message.substring(message.indexOf('[')));
+                    handler.onEvent(event.get(0).asText(), event.get(1));
+                } catch (JsonProcessingException e) {
+                    handler.onClose("unreadable event: " + e.getOriginalMessage());
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private synchronized void send(String text) {
+        sending = sending.thenCompose(webSocket -> webSocket.sendText(text, true));
+    }
+}
@@ -1,17 +1,23 @@
 package com.yapitup.chat;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Main entry point for the Spring Boot application
  * This annotation enables auto-configuration and component scanning
  */
 @SpringBootApplication
+@EnableScheduling
 public class YapItUpChatApplication {
 
+    private static final Logger log = LoggerFactory.getLogger(YapItUpChatApplication.class);
+
     public static void main(String[] args) {
         SpringApplication.run(YapItUpChatApplication.class, args);
-        System.out.println("🚀 YapItUp Chat Backend is running!");
+        log.info("YapItUp Chat Backend is running");
     }
 }
\ No newline at end of file
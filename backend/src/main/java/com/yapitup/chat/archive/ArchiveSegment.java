@@ -0,0 +1,331 @@
+package com.yapitup.chat.archive;
+
+import com.yapitup.chat.dto.MessageDTO;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * On-disk format of an archive segment: an immutable file of archived
+ * messages for any number of rooms, read through a memory mapping.
+ * <pre>
+ * blocks, each a zlib stream of one room's messages in ID order:
+ *   per message: varint ID (first absolute, then deltas), varint userId,
+ *                varint createdAt (epoch microseconds, 0 if unknown),
+ *                varint length + UTF-8 username, varint length + UTF-8 content
+ * index:
+ *   int roomCount
+ *   per room: long roomId, int blockCount
+ *     per block: long firstId, long lastId, int offset, int compressedLength, int rawLength, int messageCount
+ * footer: int indexOffset, long CRC32 of the index, int magic, int version
+ * </pre>
+ * The index is the sparse per-room index: one entry per block, so finding a
+ * message means one lookup and decompressing one block. Written to a
+ * temporary file and renamed into place, so a segment is either complete or
+ * absent. Offsets are ints, as a mapping is addressed by int.
+ */
+public final class ArchiveSegment {
+
+    private static final int MAGIC = 0x59534152; // "YSAR"
+    private static final int VERSION = 1;
+
+    private static final int FOOTER_BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES + Integer.BYTES;
+
+    private final Path path;
+
+    private final MappedByteBuffer mapping;
+
+    private final List<Block> blocks;
+
+    private ArchiveSegment(Path path, MappedByteBuffer mapping, List<Block> blocks) {
+        this.path = path;
+        this.mapping = mapping;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Map a segment and read its index
+     *
+     * @throws IOException if the file is unreadable or its index fails its checksum
+     */
+    public static ArchiveSegment open(Path path) throws IOException {
+        MappedByteBuffer mapping;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < FOOTER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not an archive segment: " + path);
+            }
+            // The mapping stays valid after the channel is closed
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int footer = mapping.capacity() - FOOTER_BYTES;
+        int indexOffset = mapping.getInt(footer);
+        long checksum = mapping.getLong(footer + Integer.BYTES);
+        if (mapping.getInt(footer + Integer.BYTES + Long.BYTES) != MAGIC
+                || mapping.getInt(footer + Integer.BYTES + Long.BYTES + Integer.BYTES) != VERSION
+                || indexOffset < 0 || indexOffset > footer) {
+            throw new IOException("Not a version " + VERSION + " archive segment: " + path);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(mapping.slice(indexOffset, footer - indexOffset));
+        if (crc.getValue() != checksum) {
+            throw new IOException("Checksum mismatch in archive segment " + path);
+        }
+
+        ArchiveSegment segment = new ArchiveSegment(path, mapping, new ArrayList<>());
+        ByteBuffer index = mapping.slice(indexOffset, footer - indexOffset);
+        int roomCount = index.getInt();
+        for (int r = 0; r < roomCount; r++) {
+            long roomId = index.getLong();
+            int blockCount = index.getInt();
+            for (int b = 0; b < blockCount; b++) {
+                segment.blocks.add(new Block(segment, roomId, index.getLong(), index.getLong(),
+                        index.getInt(), index.getInt(), index.getInt(), index.getInt()));
+            }
+        }
+        return segment;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public List<Block> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * A run of one room's messages, compressed together
+     */
+    public record Block(ArchiveSegment segment, long roomId, long firstId, long lastId,
+                        int offset, int compressedLength, int rawLength, int messageCount) {
+
+        /**
+         * Decompress the block's messages, oldest first
+         */
+        public List<MessageDTO> read() {
+            byte[] raw = new byte[rawLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(segment.mapping.slice(offset, compressedLength));
+                int read = 0;
+                while (read < rawLength && !inflater.finished()) {
+                    int n = inflater.inflate(raw, read, rawLength - read);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    read += n;
+                }
+                if (read != rawLength) {
+                    throw new DataFormatException("block is " + read + " bytes, expected " + rawLength);
+                }
+            } catch (DataFormatException e) {
+                throw new UncheckedIOException(new IOException(
+                        "Corrupt block in archive segment " + segment.path + ": " + e.getMessage()));
+            } finally {
+                inflater.end();
+            }
+
+            ByteBuffer in = ByteBuffer.wrap(raw);
+            List<MessageDTO> messages = new ArrayList<>(messageCount);
+            long id = 0;
+            for (int i = 0; i < messageCount; i++) {
+                id += readVarLong(in);
+                long userId = readVarLong(in);
+                long createdAt = readVarLong(in);
+                String username = readString(in);
+                String content = readString(in);
+                messages.add(new MessageDTO(id, roomId, userId, username, content,
+                        createdAt != 0 ? toLocalDateTime(createdAt).toString() : null));
+            }
+            return messages;
+        }
+    }
+
+    /**
+     * Writes a new segment one block at a time
+     */
+    public static final class Writer implements AutoCloseable {
+
+        private final Path path;
+        private final Path temp;
+        private final FileChannel channel;
+
+        // roomId -> index entries of the room's blocks, in the order written
+        private final Map<Long, List<IndexEntry>> index = new LinkedHashMap<>();
+
+        private long size;
+        private boolean finished;
+
+        public Writer(Path path) throws IOException {
+            this.path = path;
+            this.temp = path.resolveSibling(path.getFileName() + ".tmp");
+            this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        /**
+         * Append one block of a room's messages, which must be in ID order
+         * and newer than any the room already has in this segment
+         */
+        public void append(long roomId, List<MessageDTO> messages) throws IOException {
+            ByteArrayOutputStream rawBytes = new ByteArrayOutputStream();
+            DataOutputStream raw = new DataOutputStream(rawBytes);
+            long previous = 0;
+            for (MessageDTO message : messages) {
+                writeVarLong(raw, message.getId() - previous);
+                previous = message.getId();
+                writeVarLong(raw, message.getUserId());
+                writeVarLong(raw, message.getCreatedAt() != null ? toMicros(LocalDateTime.parse(message.getCreatedAt())) : 0);
+                writeString(raw, message.getUsername());
+                writeString(raw, message.getContent());
+            }
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(rawBytes.size() / 2 + 64);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater)) {
+                rawBytes.writeTo(out);
+            } finally {
+                deflater.end();
+            }
+
+            if (size + compressed.size() > Integer.MAX_VALUE - (1 << 20)) {
+                throw new IOException("Archive segment too large: " + path);
+            }
+            index.computeIfAbsent(roomId, id -> new ArrayList<>()).add(new IndexEntry(
+                    messages.get(0).getId(), previous, (int) size, compressed.size(), rawBytes.size(), messages.size()));
+            write(ByteBuffer.wrap(compressed.toByteArray()));
+        }
+
+        /**
+         * Bytes written so far
+         */
+        public long size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return index.isEmpty();
+        }
+
+        /**
+         * Write the index, sync the file and move it into place
+         */
+        public ArchiveSegment finish() throws IOException {
+            ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(indexBytes);
+            out.writeInt(index.size());
+            for (Map.Entry<Long, List<IndexEntry>> room : index.entrySet()) {
+                out.writeLong(room.getKey());
+                out.writeInt(room.getValue().size());
+                for (IndexEntry block : room.getValue()) {
+                    out.writeLong(block.firstId);
+                    out.writeLong(block.lastId);
+                    out.writeInt(block.offset);
+                    out.writeInt(block.compressedLength);
+                    out.writeInt(block.rawLength);
+                    out.writeInt(block.messageCount);
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(indexBytes.toByteArray());
+
+            int indexOffset = (int) size;
+            write(ByteBuffer.wrap(indexBytes.toByteArray()));
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES);
+            footer.putInt(indexOffset).putLong(crc.getValue()).putInt(MAGIC).putInt(VERSION).flip();
+            write(footer);
+            channel.force(true);
+            channel.close();
+            finished = true;
+
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return open(path);
+        }
+
+        /**
+         * Discard an unfinished segment
+         */
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                channel.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        private void write(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                size += channel.write(bytes);
+            }
+        }
+
+        private record IndexEntry(long firstId, long lastId, int offset, int compressedLength,
+                                  int rawLength, int messageCount) {
+        }
+    }
+
+    private static long toMicros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + time.getNano() / 1_000;
+    }
+
+    private static LocalDateTime toLocalDateTime(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = (int) readVarLong(in);
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new UncheckedIOException(new IOException("Malformed varint in archive block"));
+    }
+}
@@ -0,0 +1,491 @@
+package com.yapitup.chat.archive;
+
+import com.yapitup.chat.cluster.ClusterMessage;
+import com.yapitup.chat.cluster.ClusterNode;
+import com.yapitup.chat.dto.MessageDTO;
+import com.yapitup.chat.service.MessageIdGenerator;
+import com.yapitup.chat.util.LruCache;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cold tier of message history.
+ * Messages older than {@code chat.archive.max-age-days} (per room, see
+ * {@code chat.archive.room-max-age-days}) are moved out of the messages
+ * table into immutable, compressed {@link ArchiveSegment} files under
+ * {@code chat.archive.dir}, which are memory-mapped for reading. Each room's
+ * blocks are kept in a sorted map by first ID, so a read seeks straight to
+ * the blocks it needs; recently read blocks are kept decompressed.
+ * <p>
+ * A room's archive holds every message up to {@link #getArchivedUpTo(Long)}
+ * and the table everything after, so readers ask the table for newer IDs
+ * only. Rows are deleted from the table only once the segment holding them
+ * is on disk; a run interrupted in between is finished by the next one.
+ * In a cluster the directory must be shared, and the job should run on one
+ * node ({@code chat.archive.job-enabled}); the others load each new segment
+ * when told about it.
+ */
+@Service
+public class MessageArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageArchive.class);
+
+    private static final String CLUSTER_TOPIC = "chat.archive";
+
+    private static final String SEGMENT_PREFIX = "archive-";
+    private static final String SEGMENT_SUFFIX = ".arc";
+
+    // Start a new segment past this size, well inside what one mapping can address
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    // Rows deleted per statement, so archiving never holds long locks on the messages table
+    private static final int DELETE_CHUNK = 5000;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    @Autowired
+    private Environment environment;
+
+    @Value("${chat.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.archive.job-enabled:true}")
+    private boolean jobEnabled;
+
+    @Value("${chat.archive.dir:data/message-archive}")
+    private String archiveDir;
+
+    @Value("${chat.archive.max-age-days:90}")
+    private int maxAgeDays;
+
+    @Value("${chat.archive.block-size:256}")
+    private int blockSize;
+
+    @Value("${chat.archive.interval-ms:3600000}")
+    private long intervalMs;
+
+    @Value("${chat.archive.block-cache-size:1024}")
+    private int blockCacheSize;
+
+    // roomId -> max age in days, for rooms that differ from the default
+    private Map<Long, Integer> roomMaxAgeDays = Map.of();
+
+    // roomId -> the room's archived blocks
+    private final Map<Long, RoomArchive> rooms = new ConcurrentHashMap<>();
+
+    private final Set<Path> loadedSegments = ConcurrentHashMap.newKeySet();
+
+    private LruCache<ArchiveSegment.Block, List<MessageDTO>> decodedBlocks;
+
+    private Path directory;
+
+    private long nextSegment;
+
+    private ScheduledExecutorService archiver;
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        roomMaxAgeDays = Binder.get(environment)
+                .bind("chat.archive.room-max-age-days", Bindable.mapOf(Long.class, Integer.class))
+                .orElse(Map.of());
+        decodedBlocks = new LruCache<>(blockCacheSize);
+        clusterNode.subscribe(CLUSTER_TOPIC, SegmentAdded.class, message -> loadSegment(directory.resolve(message.fileName)));
+
+        directory = Paths.get(archiveDir);
+        Files.createDirectories(directory);
+        long start = System.currentTimeMillis();
+        for (Path segment : listSegments()) {
+            loadSegment(segment);
+        }
+        log.info("Loaded {} archive segment(s) for {} room(s) in {} ms",
+                loadedSegments.size(), rooms.size(), System.currentTimeMillis() - start);
+
+        if (jobEnabled) {
+            // Its own thread, so a long run does not hold up the shared @Scheduled one
+            archiver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "message-archiver");
+                thread.setDaemon(true);
+                return thread;
+            });
+            archiver.scheduleWithFixedDelay(this::archive, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (archiver != null) {
+            archiver.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Highest message ID of the room that lives in the archive (0 if none);
+     * everything newer is in the messages table
+     */
+    public long getArchivedUpTo(Long roomId) {
+        RoomArchive room = rooms.get(roomId);
+        return room != null ? room.upTo : 0;
+    }
+
+    /**
+     * Rooms with archived messages
+     */
+    public Set<Long> getRoomIds() {
+        return Collections.unmodifiableSet(rooms.keySet());
+    }
+
+    public int getSegmentCount() {
+        return loadedSegments.size();
+    }
+
+    /**
+     * Archived messages older than the given ID, newest first
+     */
+    public List<MessageDTO> findBefore(Long roomId, long beforeId, int limit) {
+        RoomArchive room = rooms.get(roomId);
+        List<MessageDTO> page = new ArrayList<>();
+        if (room == null || limit <= 0) {
+            return page;
+        }
+        for (ArchiveSegment.Block block : room.blocks.headMap(beforeId, false).descendingMap().values()) {
+            List<MessageDTO> messages = decode(block);
+            for (int i = messages.size() - 1; i >= 0 && page.size() < limit; i--) {
+                if (messages.get(i).getId() < beforeId) {
+                    page.add(messages.get(i));
+                }
+            }
+            if (page.size() >= limit) {
+                break;
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Archived messages newer than the given ID, oldest first
+     */
+    public List<MessageDTO> findAfter(Long roomId, long afterId, int limit) {
+        RoomArchive room = rooms.get(roomId);
+        List<MessageDTO> page = new ArrayList<>();
+        if (room == null || limit <= 0) {
+            return page;
+        }
+        // Start at the block the cursor falls in
+        Long from = room.blocks.floorKey(afterId);
+        NavigableMap<Long, ArchiveSegment.Block> blocks = from != null ? room.blocks.tailMap(from, true) : room.blocks;
+        for (ArchiveSegment.Block block : blocks.values()) {
+            for (MessageDTO message : decode(block)) {
+                if (message.getId() > afterId && page.size() < limit) {
+                    page.add(message);
+                }
+            }
+            if (page.size() >= limit) {
+                break;
+            }
+        }
+        return page;
+    }
+
+    /**
+     * One page of the room's archived messages, newest first, after skipping
+     * the {@code skip} newest; whole blocks are skipped by their counts
+     */
+    public List<MessageDTO> findPage(Long roomId, long skip, int limit) {
+        RoomArchive room = rooms.get(roomId);
+        List<MessageDTO> page = new ArrayList<>();
+        if (room == null || limit <= 0) {
+            return page;
+        }
+        long toSkip = skip;
+        for (ArchiveSegment.Block block : room.blocks.descendingMap().values()) {
+            if (toSkip >= block.messageCount()) {
+                toSkip -= block.messageCount();
+                continue;
+            }
+            List<MessageDTO> messages = decode(block);
+            for (int i = messages.size() - 1 - (int) toSkip; i >= 0 && page.size() < limit; i--) {
+                page.add(messages.get(i));
+            }
+            toSkip = 0;
+            if (page.size() >= limit) {
+                break;
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Archived messages with the given IDs, by ID; IDs not in the archive are left out
+     */
+    public Map<Long, MessageDTO> findByIds(Long roomId, Collection<Long> ids) {
+        RoomArchive room = rooms.get(roomId);
+        Map<Long, MessageDTO> found = new HashMap<>();
+        if (room == null) {
+            return found;
+        }
+        for (Long id : ids) {
+            Map.Entry<Long, ArchiveSegment.Block> entry = room.blocks.floorEntry(id);
+            if (entry == null || id > entry.getValue().lastId()) {
+                continue;
+            }
+            List<MessageDTO> messages = decode(entry.getValue());
+            int index = Collections.binarySearch(messages, new MessageDTO(id, null, null, null, null, null),
+                    (a, b) -> Long.compare(a.getId(), b.getId()));
+            if (index >= 0) {
+                found.put(id, messages.get(index));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Every archived message of the room, oldest first, decompressing one
+     * block at a time (bypassing the block cache, so a full read does not
+     * evict everyone else's blocks)
+     */
+    public Iterator<MessageDTO> iterate(Long roomId) {
+        RoomArchive room = rooms.get(roomId);
+        Iterator<ArchiveSegment.Block> blocks = room != null
+                ? List.copyOf(room.blocks.values()).iterator()
+                : Collections.emptyIterator();
+        return new Iterator<>() {
+            private Iterator<MessageDTO> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && blocks.hasNext()) {
+                    current = blocks.next().read().iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public MessageDTO next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * Move every room's messages past its maximum age from the messages
+     * table into new segments
+     */
+    public synchronized void archive() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long archived = 0;
+        // roomId -> highest ID the current segment holds for the room
+        Map<Long, Long> inSegment = new LinkedHashMap<>();
+        ArchiveSegment.Writer writer = null;
+        try {
+            for (Long roomId : jdbcTemplate.queryForList("SELECT id FROM chat_rooms ORDER BY id", Long.class)) {
+                long upTo = getArchivedUpTo(roomId);
+                if (upTo > 0) {
+                    // Left behind if the last run stopped between writing a segment and deleting its rows
+                    deleteArchived(roomId, upTo);
+                }
+                int maxAge = roomMaxAgeDays.getOrDefault(roomId, maxAgeDays);
+                long cutoffId = MessageIdGenerator.firstIdAt(now - Duration.ofDays(maxAge).toMillis());
+
+                List<MessageDTO> block;
+                while (!(block = loadBlock(roomId, upTo, cutoffId)).isEmpty()) {
+                    if (writer == null) {
+                        writer = new ArchiveSegment.Writer(nextSegmentPath());
+                    }
+                    writer.append(roomId, block);
+                    upTo = block.get(block.size() - 1).getId();
+                    inSegment.put(roomId, upTo);
+                    archived += block.size();
+
+                    if (writer.size() >= MAX_SEGMENT_BYTES) {
+                        commit(writer, inSegment);
+                        writer = null;
+                    }
+                }
+            }
+            if (writer != null) {
+                commit(writer, inSegment);
+                writer = null;
+            }
+            if (archived > 0) {
+                log.info("Archived {} message(s) in {} ms", archived, System.currentTimeMillis() - now);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Rows stay in the table until a segment holding them is written
+            log.error("Message archiving failed: {}", e.getMessage());
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    log.warn("Failed to discard unfinished archive segment: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * The next block of a room's messages to archive: IDs after {@code afterId}
+     * and before {@code cutoffId}, oldest first
+     */
+    private List<MessageDTO> loadBlock(Long roomId, long afterId, long cutoffId) {
+        return jdbcTemplate.query(
+                "SELECT m.id, m.user_id, u.username, m.content, m.created_at FROM messages m "
+                        + "JOIN users u ON u.id = m.user_id "
+                        + "WHERE m.room_id = ? AND m.id > ? AND m.id < ? ORDER BY m.id LIMIT ?",
+                (resultSet, row) -> {
+                    LocalDateTime createdAt = resultSet.getObject(5, LocalDateTime.class);
+                    return new MessageDTO(resultSet.getLong(1), roomId, resultSet.getLong(2), resultSet.getString(3),
+                            resultSet.getString(4), createdAt != null ? createdAt.toString() : null);
+                },
+                roomId, afterId, cutoffId, blockSize);
+    }
+
+    /**
+     * Make a written segment readable here and on the other nodes, then
+     * delete what it holds from the messages table
+     */
+    private void commit(ArchiveSegment.Writer writer, Map<Long, Long> inSegment) throws IOException {
+        ArchiveSegment segment = writer.finish();
+        register(segment);
+        clusterNode.publish(CLUSTER_TOPIC, new SegmentAdded(segment.getPath().getFileName().toString()));
+        inSegment.forEach(this::deleteArchived);
+        inSegment.clear();
+    }
+
+    private void deleteArchived(Long roomId, long upTo) {
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update(
+                    "DELETE FROM messages WHERE room_id = ? AND id <= ? LIMIT " + DELETE_CHUNK, roomId, upTo);
+        } while (deleted == DELETE_CHUNK);
+    }
+
+    private void loadSegment(Path path) {
+        if (loadedSegments.contains(path)) {
+            return;
+        }
+        try {
+            register(ArchiveSegment.open(path));
+        } catch (IOException e) {
+            // Its rows may already be gone from the table, so this is not skipped quietly
+            log.error("Cannot read archive segment {}: {}", path, e.getMessage());
+        }
+        nextSegment = Math.max(nextSegment, segmentNumber(path) + 1);
+    }
+
+    private void register(ArchiveSegment segment) {
+        if (!loadedSegments.add(segment.getPath())) {
+            return;
+        }
+        for (ArchiveSegment.Block block : segment.getBlocks()) {
+            rooms.computeIfAbsent(block.roomId(), id -> new RoomArchive()).add(block);
+        }
+    }
+
+    private List<MessageDTO> decode(ArchiveSegment.Block block) {
+        List<MessageDTO> messages = decodedBlocks.get(block);
+        if (messages == null) {
+            messages = block.read();
+            decodedBlocks.put(block, messages);
+        }
+        return messages;
+    }
+
+    private Path nextSegmentPath() throws IOException {
+        // Another node may have written segments since this one started
+        for (Path segment : listSegments()) {
+            nextSegment = Math.max(nextSegment, segmentNumber(segment) + 1);
+        }
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX));
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().toList();
+        }
+    }
+
+    private static long segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * One room's archived blocks by first message ID
+     */
+    private static final class RoomArchive {
+        private final ConcurrentSkipListMap<Long, ArchiveSegment.Block> blocks = new ConcurrentSkipListMap<>();
+        private volatile long upTo;
+
+        synchronized void add(ArchiveSegment.Block block) {
+            blocks.put(block.firstId(), block);
+            upTo = Math.max(upTo, block.lastId());
+        }
+    }
+
+    /**
+     * A segment another node has just written
+     */
+    private static final class SegmentAdded extends ClusterMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final String fileName;
+
+        private SegmentAdded(String fileName) {
+            this.fileName = fileName;
+        }
+    }
+}
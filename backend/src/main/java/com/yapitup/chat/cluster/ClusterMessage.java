@@ -0,0 +1,22 @@
+package com.yapitup.chat.cluster;
+
+import java.io.Serializable;
+
+/**
+ * Base class of application messages sent between nodes.
+ * The publishing node is stamped on by {@link ClusterNode#publish}.
+ */
+public abstract class ClusterMessage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long nodeId;
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(long nodeId) {
+        this.nodeId = nodeId;
+    }
+}
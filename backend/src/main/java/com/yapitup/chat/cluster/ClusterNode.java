@@ -0,0 +1,149 @@
+package com.yapitup.chat.cluster;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * This backend's membership in the cluster.
+ * Owns the transport and a random node ID, stamps outgoing messages and drops
+ * a node's own messages on the way back in. Nodes announce themselves when
+ * they are ready and when they shut down, so the others can resend their
+ * state to a newcomer and forget a node that left.
+ * With chat.cluster.enabled=false this is a single standalone node and
+ * publishing is a no-op.
+ */
+@Component
+public class ClusterNode {
+
+    private static final String NODE_TOPIC = "cluster.node";
+
+    @Value("${chat.cluster.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.cluster.transport:loopback}")
+    private String transportType;
+
+    @Value("${chat.cluster.loopback-hub:default}")
+    private String loopbackHub;
+
+    private final long nodeId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+
+    private ClusterTransport transport;
+
+    private final List<LongConsumer> joinListeners = new CopyOnWriteArrayList<>();
+
+    private final List<LongConsumer> leaveListeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (!"loopback".equals(transportType)) {
+            throw new IllegalStateException("Unknown cluster transport: " + transportType);
+        }
+        transport = LoopbackClusterHub.get(loopbackHub).connect();
+        subscribe(NODE_TOPIC, NodeMessage.class, this::onNodeMessage);
+    }
+
+    /**
+     * Tell the other nodes we are up, once every listener is registered
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void announce() {
+        publish(NODE_TOPIC, new NodeMessage(true));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (transport != null) {
+            publish(NODE_TOPIC, new NodeMessage(false));
+            transport.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * The raw transport, for components that bring their own message types
+     */
+    public ClusterTransport getTransport() {
+        return transport;
+    }
+
+    public void publish(String topic, ClusterMessage message) {
+        if (transport != null) {
+            message.setNodeId(nodeId);
+            transport.publish(topic, message);
+        }
+    }
+
+    /**
+     * Receive messages of a type published on a topic by other nodes
+     */
+    public <T extends ClusterMessage> void subscribe(String topic, Class<T> type, Consumer<T> listener) {
+        if (transport == null) {
+            return;
+        }
+        transport.subscribe(topic, (Serializable message) -> {
+            if (type.isInstance(message)) {
+                T typed = type.cast(message);
+                if (typed.getNodeId() != nodeId) {
+                    listener.accept(typed);
+                }
+            }
+        });
+    }
+
+    /**
+     * Called with the ID of every node that joins after this one
+     */
+    public void onNodeJoined(LongConsumer listener) {
+        joinListeners.add(listener);
+    }
+
+    /**
+     * Called with the ID of every node that shuts down
+     */
+    public void onNodeLeft(LongConsumer listener) {
+        leaveListeners.add(listener);
+    }
+
+    private void onNodeMessage(NodeMessage message) {
+        List<LongConsumer> listeners = message.isJoined() ? joinListeners : leaveListeners;
+        for (LongConsumer listener : listeners) {
+            listener.accept(message.getNodeId());
+        }
+    }
+
+    private static final class NodeMessage extends ClusterMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean joined;
+
+        private NodeMessage(boolean joined) {
+            this.joined = joined;
+        }
+
+        boolean isJoined() {
+            return joined;
+        }
+    }
+}
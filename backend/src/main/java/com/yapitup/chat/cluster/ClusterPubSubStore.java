@@ -0,0 +1,111 @@
+package com.yapitup.chat.cluster;
+
+import com.corundumstudio.socketio.store.pubsub.BulkJoinLeaveMessage;
+import com.corundumstudio.socketio.store.pubsub.DispatchMessage;
+import com.corundumstudio.socketio.store.pubsub.JoinLeaveMessage;
+import com.corundumstudio.socketio.store.pubsub.PubSubListener;
+import com.corundumstudio.socketio.store.pubsub.PubSubMessage;
+import com.corundumstudio.socketio.store.pubsub.PubSubStore;
+import com.corundumstudio.socketio.store.pubsub.PubSubType;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * netty-socketio pub/sub carried over the cluster transport.
+ * Room dispatches are only published when another node has a session in the
+ * room; otherwise the local send netty-socketio already did is the whole
+ * delivery. Join and leave messages are always published, and the ones from
+ * other nodes are recorded in the {@link ClusterRoomDirectory}.
+ */
+public class ClusterPubSubStore implements PubSubStore {
+
+    private static final String TOPIC_PREFIX = "socketio.";
+
+    private final ClusterNode clusterNode;
+
+    private final ClusterRoomDirectory roomDirectory;
+
+    // Subscriptions made by netty-socketio, by type
+    private final Map<PubSubType, Queue<ClusterTransport.Subscription>> subscriptions = new ConcurrentHashMap<>();
+
+    // Our own subscriptions that keep the room directory current
+    private final List<ClusterTransport.Subscription> trackers = new CopyOnWriteArrayList<>();
+
+    public ClusterPubSubStore(ClusterNode clusterNode, ClusterRoomDirectory roomDirectory) {
+        this.clusterNode = clusterNode;
+        this.roomDirectory = roomDirectory;
+
+        track(PubSubType.JOIN, JoinLeaveMessage.class, message -> roomDirectory.join(
+                message.getNodeId(), message.getSessionId(), message.getNamespace(), message.getRoom()));
+        track(PubSubType.LEAVE, JoinLeaveMessage.class, message -> roomDirectory.leave(
+                message.getNodeId(), message.getSessionId(), message.getNamespace(), message.getRoom()));
+        track(PubSubType.BULK_JOIN, BulkJoinLeaveMessage.class, message -> message.getRooms().forEach(room ->
+                roomDirectory.join(message.getNodeId(), message.getSessionId(), message.getNamespace(), room)));
+        track(PubSubType.BULK_LEAVE, BulkJoinLeaveMessage.class, message -> message.getRooms().forEach(room ->
+                roomDirectory.leave(message.getNodeId(), message.getSessionId(), message.getNamespace(), room)));
+    }
+
+    @Override
+    public void publish(PubSubType type, PubSubMessage message) {
+        if (type == PubSubType.DISPATCH) {
+            DispatchMessage dispatch = (DispatchMessage) message;
+            if (!roomDirectory.hasRemoteSessions(dispatch.getNamespace(), dispatch.getRoom())) {
+                // Every member is connected here and has already been sent the packet
+                return;
+            }
+        }
+        message.setNodeId(clusterNode.getNodeId());
+        clusterNode.getTransport().publish(topic(type), message);
+    }
+
+    @Override
+    public <T extends PubSubMessage> void subscribe(PubSubType type, PubSubListener<T> listener, Class<T> clazz) {
+        ClusterTransport.Subscription subscription = fromOtherNodes(type, clazz, listener::onMessage);
+        subscriptions.computeIfAbsent(type, t -> new ConcurrentLinkedQueue<>()).add(subscription);
+    }
+
+    @Override
+    public void unsubscribe(PubSubType type) {
+        Queue<ClusterTransport.Subscription> removed = subscriptions.remove(type);
+        if (removed != null) {
+            removed.forEach(ClusterTransport.Subscription::cancel);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        for (PubSubType type : PubSubType.values()) {
+            unsubscribe(type);
+        }
+        trackers.forEach(ClusterTransport.Subscription::cancel);
+        trackers.clear();
+    }
+
+    private <T extends PubSubMessage> void track(PubSubType type, Class<T> clazz, Consumer<T> listener) {
+        trackers.add(fromOtherNodes(type, clazz, listener));
+    }
+
+    private <T extends PubSubMessage> ClusterTransport.Subscription fromOtherNodes(
+            PubSubType type, Class<T> clazz, Consumer<T> listener) {
+        long nodeId = clusterNode.getNodeId();
+        return clusterNode.getTransport().subscribe(topic(type), (Serializable message) -> {
+            if (clazz.isInstance(message)) {
+                T typed = clazz.cast(message);
+                if (typed.getNodeId() == null || typed.getNodeId() != nodeId) {
+                    listener.accept(typed);
+                }
+            }
+        });
+    }
+
+    private static String topic(PubSubType type) {
+        return TOPIC_PREFIX + type;
+    }
+}
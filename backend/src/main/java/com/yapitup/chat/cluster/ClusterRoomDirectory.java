@@ -0,0 +1,83 @@
+package com.yapitup.chat.cluster;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which Socket.IO rooms have members on other nodes.
+ * Fed by the join/leave messages the other nodes' Socket.IO servers publish,
+ * and used to skip cross-node publishing for rooms whose members are all
+ * connected to this node. Local sessions are never recorded here.
+ */
+@Component
+public class ClusterRoomDirectory {
+
+    // room -> sessions on other nodes in that room (only non-empty rooms are kept)
+    private final Map<Room, Set<UUID>> roomSessions = new ConcurrentHashMap<>();
+
+    // nodeId -> that node's sessions and the rooms each is in
+    private final Map<Long, Map<UUID, Set<Room>>> nodeSessions = new ConcurrentHashMap<>();
+
+    public void join(long nodeId, UUID sessionId, String namespace, String room) {
+        Room key = new Room(namespace, room);
+        nodeSessions.computeIfAbsent(nodeId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(sessionId, id -> ConcurrentHashMap.newKeySet())
+                .add(key);
+        roomSessions.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(sessionId);
+    }
+
+    public void leave(long nodeId, UUID sessionId, String namespace, String room) {
+        Room key = new Room(namespace, room);
+        Map<UUID, Set<Room>> sessions = nodeSessions.get(nodeId);
+        if (sessions != null) {
+            sessions.computeIfPresent(sessionId, (id, rooms) -> {
+                rooms.remove(key);
+                return rooms.isEmpty() ? null : rooms;
+            });
+        }
+        removeFromRoom(key, sessionId);
+    }
+
+    /**
+     * Forget every session of a node that left the cluster
+     *
+     * @return the node's sessions and the rooms each was in
+     */
+    public Map<UUID, Set<Room>> removeNode(long nodeId) {
+        Map<UUID, Set<Room>> sessions = nodeSessions.remove(nodeId);
+        if (sessions == null) {
+            return Collections.emptyMap();
+        }
+        for (Map.Entry<UUID, Set<Room>> entry : sessions.entrySet()) {
+            for (Room room : entry.getValue()) {
+                removeFromRoom(room, entry.getKey());
+            }
+        }
+        return new HashMap<>(sessions);
+    }
+
+    public boolean hasRemoteSessions(String namespace, String room) {
+        return roomSessions.containsKey(new Room(namespace, room));
+    }
+
+    public int getRemoteSessionCount(String namespace, String room) {
+        Set<UUID> sessions = roomSessions.get(new Room(namespace, room));
+        return sessions != null ? sessions.size() : 0;
+    }
+
+    private void removeFromRoom(Room room, UUID sessionId) {
+        roomSessions.computeIfPresent(room, (key, sessions) -> {
+            sessions.remove(sessionId);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    public record Room(String namespace, String name) {
+    }
+}
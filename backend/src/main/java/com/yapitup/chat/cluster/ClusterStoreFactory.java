@@ -0,0 +1,104 @@
+package com.yapitup.chat.cluster;
+
+import com.corundumstudio.socketio.SocketIOClient;
+import com.corundumstudio.socketio.SocketIONamespace;
+import com.corundumstudio.socketio.handler.AuthorizeHandler;
+import com.corundumstudio.socketio.namespace.Namespace;
+import com.corundumstudio.socketio.namespace.NamespacesHub;
+import com.corundumstudio.socketio.protocol.JsonSupport;
+import com.corundumstudio.socketio.store.MemoryStore;
+import com.corundumstudio.socketio.store.Store;
+import com.corundumstudio.socketio.store.pubsub.BaseStoreFactory;
+import com.corundumstudio.socketio.store.pubsub.BulkJoinLeaveMessage;
+import com.corundumstudio.socketio.store.pubsub.PubSubStore;
+import com.corundumstudio.socketio.store.pubsub.PubSubType;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Socket.IO store factory for running several backend nodes behind one
+ * logical server.
+ * Session stores stay in memory, since a client is only ever connected to one
+ * node; room membership and room broadcasts travel between nodes through
+ * {@link ClusterPubSubStore}.
+ */
+public class ClusterStoreFactory extends BaseStoreFactory {
+
+    private final ClusterNode clusterNode;
+
+    private final ClusterRoomDirectory roomDirectory;
+
+    private final ClusterPubSubStore pubSubStore;
+
+    private NamespacesHub namespacesHub;
+
+    public ClusterStoreFactory(ClusterNode clusterNode, ClusterRoomDirectory roomDirectory) {
+        this.clusterNode = clusterNode;
+        this.roomDirectory = roomDirectory;
+        this.pubSubStore = new ClusterPubSubStore(clusterNode, roomDirectory);
+    }
+
+    @Override
+    protected Long getNodeId() {
+        return clusterNode.getNodeId();
+    }
+
+    @Override
+    public void init(NamespacesHub namespacesHub, AuthorizeHandler authorizeHandler, JsonSupport jsonSupport) {
+        this.namespacesHub = namespacesHub;
+        super.init(namespacesHub, authorizeHandler, jsonSupport);
+
+        clusterNode.onNodeJoined(nodeId -> publishMemberships());
+        clusterNode.onNodeLeft(this::forgetNode);
+    }
+
+    @Override
+    public PubSubStore pubSubStore() {
+        return pubSubStore;
+    }
+
+    @Override
+    public Store createStore(UUID sessionId) {
+        return new MemoryStore();
+    }
+
+    @Override
+    public <K, V> Map<K, V> createMap(String name) {
+        return new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void shutdown() {
+        pubSubStore.shutdown();
+    }
+
+    /**
+     * A node that just started knows nothing about our sessions - republish them
+     */
+    private void publishMemberships() {
+        for (SocketIONamespace namespace : namespacesHub.getAllNamespaces()) {
+            for (SocketIOClient client : namespace.getAllClients()) {
+                pubSubStore.publish(PubSubType.BULK_JOIN,
+                        new BulkJoinLeaveMessage(client.getSessionId(), client.getAllRooms(), namespace.getName()));
+            }
+        }
+    }
+
+    /**
+     * Drop a departed node's sessions from our rooms
+     */
+    private void forgetNode(long nodeId) {
+        Map<UUID, Set<ClusterRoomDirectory.Room>> sessions = roomDirectory.removeNode(nodeId);
+        for (Map.Entry<UUID, Set<ClusterRoomDirectory.Room>> entry : sessions.entrySet()) {
+            for (ClusterRoomDirectory.Room room : entry.getValue()) {
+                Namespace namespace = namespacesHub.get(room.namespace());
+                if (namespace != null) {
+                    namespace.leave(room.name(), entry.getKey());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.yapitup.chat.cluster;
+
+import java.io.Serializable;
+import java.util.function.Consumer;
+
+/**
+ * Topic-based pub/sub between backend nodes.
+ * A message published on a topic reaches every subscriber of that topic on
+ * every node, the publishing node included; receivers filter out their own
+ * messages. Messages from one node arrive at another in publish order.
+ * Implementations backed by a broker must serialize messages; the in-process
+ * {@link LoopbackClusterHub} hands them over by reference.
+ */
+public interface ClusterTransport {
+
+    void publish(String topic, Serializable message);
+
+    Subscription subscribe(String topic, Consumer<Serializable> listener);
+
+    /**
+     * Leave the cluster; publishing after this is ignored
+     */
+    void close();
+
+    interface Subscription {
+        void cancel();
+    }
+}
@@ -0,0 +1,118 @@
+package com.yapitup.chat.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * In-process message bus for running several backend nodes in one JVM.
+ * Every node connects its own endpoint to a named hub; each endpoint has a
+ * single delivery thread, so messages reach it asynchronously and in publish
+ * order, like they would from a broker.
+ */
+public class LoopbackClusterHub {
+
+    private static final Logger log = LoggerFactory.getLogger(LoopbackClusterHub.class);
+
+    private static final Map<String, LoopbackClusterHub> HUBS = new ConcurrentHashMap<>();
+
+    private final String name;
+
+    private final List<Endpoint> endpoints = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger endpointCount = new AtomicInteger();
+
+    private LoopbackClusterHub(String name) {
+        this.name = name;
+    }
+
+    /**
+     * The hub with this name, created on first use
+     */
+    public static LoopbackClusterHub get(String name) {
+        return HUBS.computeIfAbsent(name, LoopbackClusterHub::new);
+    }
+
+    /**
+     * Attach a new node to the hub
+     */
+    public ClusterTransport connect() {
+        Endpoint endpoint = new Endpoint(name + "-" + endpointCount.incrementAndGet());
+        endpoints.add(endpoint);
+        return endpoint;
+    }
+
+    public int getEndpointCount() {
+        return endpoints.size();
+    }
+
+    private void publish(String topic, Serializable message) {
+        for (Endpoint endpoint : endpoints) {
+            endpoint.deliver(topic, message);
+        }
+    }
+
+    private final class Endpoint implements ClusterTransport {
+        private final Map<String, List<Consumer<Serializable>>> listeners = new ConcurrentHashMap<>();
+        private final ExecutorService delivery;
+        private volatile boolean closed;
+
+        private Endpoint(String threadName) {
+            this.delivery = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cluster-loopback-" + threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        @Override
+        public void publish(String topic, Serializable message) {
+            if (!closed) {
+                LoopbackClusterHub.this.publish(topic, message);
+            }
+        }
+
+        @Override
+        public Subscription subscribe(String topic, Consumer<Serializable> listener) {
+            listeners.computeIfAbsent(topic, t -> new CopyOnWriteArrayList<>()).add(listener);
+            return () -> listeners.getOrDefault(topic, List.of()).remove(listener);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            endpoints.remove(this);
+            delivery.shutdown();
+        }
+
+        private void deliver(String topic, Serializable message) {
+            List<Consumer<Serializable>> topicListeners = listeners.get(topic);
+            if (closed || topicListeners == null || topicListeners.isEmpty()) {
+                return;
+            }
+            try {
+                delivery.execute(() -> {
+                    for (Consumer<Serializable> listener : topicListeners) {
+                        try {
+                            listener.accept(message);
+                        } catch (Exception e) {
+                            log.warn("Cluster listener on {} failed: {}", topic, e.getMessage());
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Closed concurrently - the node has left
+            }
+        }
+    }
+}
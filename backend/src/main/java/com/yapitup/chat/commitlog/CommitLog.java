@@ -0,0 +1,450 @@
+package com.yapitup.chat.commitlog;
+
+import com.yapitup.chat.metrics.ChatMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Segmented append-only log of records on local disk.
+ * <p>
+ * Appends are queued and written by a single writer thread, which takes
+ * everything queued at once (group commit): one write, then one fsync
+ * under {@link FsyncPolicy#ALWAYS} before any of them is acknowledged.
+ * Each record is {@code int length, int CRC32, payload}. A segment is
+ * named after the log position it starts at, and a new one is started once
+ * the current one reaches the segment size.
+ * <p>
+ * Readers follow the log up to what has been written and record how far
+ * they got with {@link #markReplicated(long)}; that position is kept in a
+ * checkpoint file, and segments entirely before it are deleted. On open,
+ * a record torn by a crash at the end of the last segment is cut off.
+ */
+public class CommitLog implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(CommitLog.class);
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "replicated.pos";
+
+    private static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES;
+
+    // Larger lengths can only come from a torn or corrupt header
+    private static final int MAX_RECORD_BYTES = 1 << 24;
+
+    // Appends written together at most, so one group commit stays a bounded write
+    private static final int MAX_GROUP = 1024;
+
+    /**
+     * When appends are synced to disk
+     */
+    public enum FsyncPolicy {
+        /**
+         * Every group commit is fsynced before it is acknowledged, so an
+         * acknowledged record survives power loss
+         */
+        ALWAYS,
+        /**
+         * Acknowledged once written to the OS, fsynced periodically: survives
+         * the process dying, and loses at most the interval on power loss
+         */
+        INTERVAL
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final ChatMetrics chatMetrics;
+
+    // Segment start position -> segment
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    private final BlockingQueue<Append> appends;
+
+    private final Object progress = new Object();
+
+    private final Thread writer;
+
+    private Segment active;
+
+    // End of the last record written; readers stop here
+    private volatile long writtenPosition;
+
+    private volatile long replicatedPosition;
+
+    private volatile boolean closed;
+
+    private long lastSync = System.nanoTime();
+
+    /**
+     * Open (or create) the log in a directory, recovering its end and the
+     * replicated position, and start the writer
+     */
+    public CommitLog(Path directory, long segmentBytes, FsyncPolicy fsyncPolicy, long fsyncIntervalMs,
+                     int queueCapacity, ChatMetrics chatMetrics) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMs);
+        this.chatMetrics = chatMetrics;
+        this.appends = new ArrayBlockingQueue<>(queueCapacity);
+
+        Files.createDirectories(directory);
+        recover();
+
+        writer = new Thread(this::runWriter, "commit-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queue a record for the next group commit
+     *
+     * @param onWritten called from the writer thread with {@code true} once the
+     *                  record is written (and synced, under {@link FsyncPolicy#ALWAYS}),
+     *                  or {@code false} if the write failed
+     * @return false if the log is closed or too many appends are waiting
+     */
+    public boolean append(byte[] payload, Consumer<Boolean> onWritten) {
+        if (closed || payload.length > MAX_RECORD_BYTES) {
+            return false;
+        }
+        return appends.offer(new Append(payload, onWritten));
+    }
+
+    /**
+     * Appends waiting for the writer
+     */
+    public int getPendingAppends() {
+        return appends.size();
+    }
+
+    public long getWrittenPosition() {
+        return writtenPosition;
+    }
+
+    public long getReplicatedPosition() {
+        return replicatedPosition;
+    }
+
+    /**
+     * Whether appending has stopped and everything appended has been written
+     */
+    public boolean isStopped() {
+        return closed && !writer.isAlive();
+    }
+
+    /**
+     * Read records from a position onwards, up to what has been written
+     *
+     * @return the position after the last record read
+     * @throws IOException if a record fails its checksum, or its segment was deleted
+     */
+    public long read(long from, int maxRecords, Consumer<ByteBuffer> visitor) throws IOException {
+        long position = from;
+        long end = writtenPosition;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        for (int records = 0; records < maxRecords && position < end; records++) {
+            // A segment starts where the previous one ends, so this is never a finished segment's end
+            Map.Entry<Long, Segment> entry = segments.floorEntry(position);
+            if (entry == null) {
+                throw new IOException("Commit log position " + position + " was already deleted");
+            }
+            Segment segment = entry.getValue();
+            long offset = position - entry.getKey();
+
+            header.clear();
+            readFully(segment.channel, header, offset);
+            int length = header.getInt(0);
+            int checksum = header.getInt(Integer.BYTES);
+            if (length < 0 || length > MAX_RECORD_BYTES) {
+                throw new IOException("Corrupt commit log record at position " + position);
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(segment.channel, payload, offset + HEADER_BYTES);
+            if (crc(payload.array(), length) != checksum) {
+                throw new IOException("Checksum mismatch in commit log record at position " + position);
+            }
+            visitor.accept(payload.flip());
+            position += HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    /**
+     * Wait until records past the position are written, the log is closed,
+     * or the timeout passes
+     */
+    public void awaitWritten(long position, long timeoutMs) throws InterruptedException {
+        synchronized (progress) {
+            if (writtenPosition <= position && !closed) {
+                progress.wait(timeoutMs);
+            }
+        }
+    }
+
+    /**
+     * Record that everything before the position has been replicated, and
+     * delete the segments that are no longer needed
+     */
+    public synchronized void markReplicated(long position) throws IOException {
+        if (position <= replicatedPosition) {
+            return;
+        }
+        Path temp = directory.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.allocate(Long.BYTES).putLong(position).flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        replicatedPosition = position;
+
+        // A segment can go once the next one starts at or before the replicated position
+        for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+            Long next = segments.higherKey(entry.getKey());
+            if (next == null || next > position) {
+                break;
+            }
+            segments.remove(entry.getKey());
+            entry.getValue().channel.close();
+            Files.deleteIfExists(entry.getValue().path);
+        }
+    }
+
+    /**
+     * Stop taking appends and write everything already queued; readers can
+     * still catch up until {@link #close()}
+     */
+    public void stopAppending() {
+        closed = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (progress) {
+            progress.notifyAll();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stopAppending();
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+    }
+
+    private void runWriter() {
+        List<Append> group = new ArrayList<>(MAX_GROUP);
+        while (!closed || !appends.isEmpty()) {
+            try {
+                Append first = appends.poll(fsyncIntervalNanos > 0 ? fsyncIntervalNanos : 100_000_000L,
+                        TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    group.add(first);
+                    appends.drainTo(group, MAX_GROUP - 1);
+                }
+            } catch (InterruptedException e) {
+                // Only stopped through stopAppending, once the queue is empty
+                continue;
+            }
+
+            if (!group.isEmpty()) {
+                write(group);
+                group.clear();
+            } else if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+                syncIfDue();
+            }
+        }
+        try {
+            active.channel.force(false);
+        } catch (IOException e) {
+            log.error("Failed to sync commit log on shutdown: {}", e.getMessage());
+        }
+    }
+
+    private void write(List<Append> group) {
+        long start = System.nanoTime();
+        boolean written;
+        try {
+            if (writtenPosition - active.start >= segmentBytes) {
+                roll();
+            }
+            ByteBuffer[] buffers = new ByteBuffer[group.size()];
+            long bytes = 0;
+            for (int i = 0; i < group.size(); i++) {
+                byte[] payload = group.get(i).payload;
+                ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+                record.putInt(payload.length).putInt(crc(payload, payload.length)).put(payload).flip();
+                buffers[i] = record;
+                bytes += record.remaining();
+            }
+            long offset = writtenPosition - active.start;
+            active.channel.position(offset);
+            long remaining = bytes;
+            while (remaining > 0) {
+                remaining -= active.channel.write(buffers);
+            }
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                active.channel.force(false);
+                lastSync = System.nanoTime();
+            } else {
+                syncIfDue();
+            }
+            synchronized (progress) {
+                writtenPosition += bytes;
+                progress.notifyAll();
+            }
+            written = true;
+        } catch (IOException e) {
+            log.error("Failed to append {} record(s) to the commit log: {}", group.size(), e.getMessage());
+            // Drop whatever part of the group made it, so the next write starts at a record boundary
+            try {
+                active.channel.truncate(writtenPosition - active.start);
+            } catch (IOException truncateFailed) {
+                log.error("Failed to truncate commit log after a failed write: {}", truncateFailed.getMessage());
+            }
+            written = false;
+        }
+        chatMetrics.recordCommitLogWrite(group.size(), System.nanoTime() - start, written);
+
+        for (Append append : group) {
+            try {
+                append.onWritten.accept(written);
+            } catch (Exception e) {
+                // A closed client socket must not break the rest of the group
+            }
+        }
+    }
+
+    private void syncIfDue() {
+        if (System.nanoTime() - lastSync < fsyncIntervalNanos) {
+            return;
+        }
+        try {
+            active.channel.force(false);
+        } catch (IOException e) {
+            log.error("Failed to sync commit log: {}", e.getMessage());
+        }
+        lastSync = System.nanoTime();
+    }
+
+    /**
+     * Finish the current segment and start a new one at the current position
+     */
+    private void roll() throws IOException {
+        active.channel.force(false);
+        active = openSegment(writtenPosition);
+        segments.put(active.start, active);
+    }
+
+    /**
+     * Find the end of the log and the replicated position after a restart
+     */
+    private void recover() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX)).toList()) {
+                String name = path.getFileName().toString();
+                long start = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(start, openSegment(start));
+            }
+        }
+
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        long replicated = Files.exists(checkpoint) ? ByteBuffer.wrap(Files.readAllBytes(checkpoint)).getLong() : 0;
+        if (segments.isEmpty()) {
+            segments.put(replicated, openSegment(replicated));
+        }
+        replicatedPosition = Math.max(replicated, segments.firstKey());
+
+        // Only the last segment can end in a torn record; earlier ones were synced before the next began
+        active = segments.lastEntry().getValue();
+        long validEnd = scan(active);
+        long size = active.channel.size();
+        if (validEnd < size) {
+            log.warn("Cutting {} byte(s) of incomplete record(s) off the end of commit log segment {}",
+                    size - validEnd, active.path.getFileName());
+            active.channel.truncate(validEnd);
+            active.channel.force(true);
+        }
+        writtenPosition = active.start + validEnd;
+        log.info("Opened commit log in {}: {} segment(s), {} byte(s) not yet replicated",
+                directory, segments.size(), writtenPosition - replicatedPosition);
+    }
+
+    /**
+     * Offset in the segment after its last complete, intact record
+     */
+    private static long scan(Segment segment) throws IOException {
+        long size = segment.channel.size();
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (offset + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(segment.channel, header, offset);
+            int length = header.getInt(0);
+            if (length < 0 || length > MAX_RECORD_BYTES || offset + HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(segment.channel, payload, offset + HEADER_BYTES);
+            if (crc(payload.array(), length) != header.getInt(Integer.BYTES)) {
+                break;
+            }
+            offset += HEADER_BYTES + length;
+        }
+        return offset;
+    }
+
+    private Segment openSegment(long start) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", start, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return new Segment(start, path, channel);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of commit log segment");
+            }
+        }
+    }
+
+    private static int crc(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private record Segment(long start, Path path, FileChannel channel) {
+    }
+
+    private record Append(byte[] payload, Consumer<Boolean> onWritten) {
+    }
+}
@@ -1,5 +1,6 @@
 package com.yapitup.chat.config;
 
+import com.yapitup.chat.util.JwtPrincipal;
 import com.yapitup.chat.util.JwtUtil;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -15,6 +16,7 @@ import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Optional;
 
 /**
  * JWT Authentication Filter
@@ -35,38 +37,33 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         // Get the Authorization header
         final String authHeader = request.getHeader("Authorization");
         
-        String username = null;
-        String jwt = null;
+        Optional<JwtPrincipal> principal = Optional.empty();
         
-        // Extract token from "Bearer <token>"
+        // Extract token from "Bearer <token>" and verify it (parsed once, then cached)
         if (authHeader != null && authHeader.startsWith("Bearer ")) {
-            jwt = authHeader.substring(7);
-            try {
-                username = jwtUtil.extractUsername(jwt);
-            } catch (Exception e) {
+            principal = jwtUtil.verify(authHeader.substring(7));
+            if (principal.isEmpty()) {
                 // Invalid token, continue without authentication
-                logger.warn("Invalid JWT token: " + e.getMessage());
+                logger.warn("Invalid or expired JWT token");
             }
         }
         
-        // If username is extracted and no authentication exists in context
-        if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+        // If the token is valid and no authentication exists in context
+        if (principal.isPresent() && SecurityContextHolder.getContext().getAuthentication() == null) {
+            String username = principal.get().getUsername();
             
-            // Validate token
-            if (jwtUtil.validateToken(jwt, username)) {
-                // Create authentication token
-                UsernamePasswordAuthenticationToken authToken = 
-                    new UsernamePasswordAuthenticationToken(
-                        username, 
-                        null, 
-                        Collections.singletonList(new SimpleGrantedAuthority("ROLE_USER"))
-                    );
-                
-                authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                
-                // Set authentication in security context
-                SecurityContextHolder.getContext().setAuthentication(authToken);
-            }
+            // Create authentication token
+            UsernamePasswordAuthenticationToken authToken = 
+                new UsernamePasswordAuthenticationToken(
+                    username, 
+                    null, 
+                    Collections.singletonList(new SimpleGrantedAuthority("ROLE_USER"))
+                );
+            
+            authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+            
+            // Set authentication in security context
+            SecurityContextHolder.getContext().setAuthentication(authToken);
         }
         
         // Continue with the filter chain
@@ -0,0 +1,32 @@
+package com.yapitup.chat.config;
+
+import com.yapitup.chat.metrics.TimedDataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+/**
+ * Metrics configuration - wraps the connection pool so database time can be
+ * charged to the socket event that used it
+ */
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * Static, so it is registered before the DataSource bean is created
+     */
+    @Bean
+    public static BeanPostProcessor timedDataSourcePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof TimedDataSource)) {
+                    return new TimedDataSource(dataSource);
+                }
+                return bean;
+            }
+        };
+    }
+}
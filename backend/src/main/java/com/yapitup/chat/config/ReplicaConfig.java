@@ -0,0 +1,70 @@
+package com.yapitup.chat.config;
+
+import com.yapitup.chat.datasource.ReplicaRoutingDataSource;
+import com.yapitup.chat.datasource.ReplicaSet;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read replica configuration (chat.replica.enabled=true).
+ * Replaces Boot's DataSource: the primary pool is
+ * still built from spring.datasource.*, and each URL in chat.replica.urls
+ * gets a pool of its own with the same settings.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.replica.enabled", havingValue = "true")
+public class ReplicaConfig {
+
+    @Value("${chat.replica.urls}")
+    private List<String> replicaUrls;
+
+    @Value("${chat.replica.username:${spring.datasource.username:}}")
+    private String replicaUsername;
+
+    @Value("${chat.replica.password:${spring.datasource.password:}}")
+    private String replicaPassword;
+
+    @Value("${chat.replica.max-lag-ms:5000}")
+    private long maxLagMs;
+
+    @Value("${chat.replica.check-interval-ms:1000}")
+    private long checkIntervalMs;
+
+    /**
+     * Primary and replica pools behind one DataSource; closing it closes them all
+     */
+    @Bean
+    public ReplicaRoutingDataSource dataSource(DataSourceProperties properties, Environment environment) {
+        HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        bindHikariSettings(primary, environment);
+        primary.setPoolName("primary");
+
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            HikariDataSource replica = new HikariDataSource();
+            bindHikariSettings(replica, environment);
+            replica.setDriverClassName(properties.determineDriverClassName());
+            replica.setJdbcUrl(replicaUrls.get(i).trim());
+            replica.setUsername(replicaUsername);
+            replica.setPassword(replicaPassword);
+            replica.setReadOnly(true);
+            replica.setPoolName("replica-" + i);
+            replicas.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primary, new ReplicaSet(primary, replicas, maxLagMs, checkIntervalMs));
+    }
+
+    private static void bindHikariSettings(HikariDataSource dataSource, Environment environment) {
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(dataSource));
+    }
+}
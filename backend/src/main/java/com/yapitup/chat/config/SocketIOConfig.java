@@ -2,6 +2,10 @@ package com.yapitup.chat.config;
 
 import com.corundumstudio.socketio.SocketIOServer;
 import com.corundumstudio.socketio.annotation.SpringAnnotationScanner;
+import com.yapitup.chat.cluster.ClusterNode;
+import com.yapitup.chat.cluster.ClusterRoomDirectory;
+import com.yapitup.chat.cluster.ClusterStoreFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -19,6 +23,12 @@ public class SocketIOConfig {
     @Value("${socketio.port}")
     private Integer port;
 
+    @Autowired
+    private ClusterNode clusterNode;
+
+    @Autowired
+    private ClusterRoomDirectory clusterRoomDirectory;
+
     /**
      * Create Socket.IO server bean
      */
@@ -34,6 +44,11 @@ public class SocketIOConfig {
         // Allow credentials
         config.setAllowCustomRequests(true);
 
+        // Share rooms with the other nodes; the default in-memory store is single-node
+        if (clusterNode.isEnabled()) {
+            config.setStoreFactory(new ClusterStoreFactory(clusterNode, clusterRoomDirectory));
+        }
+
         return new SocketIOServer(config);
     }
 
@@ -93,10 +93,6 @@ public class AuthController {
                 .body(new AuthResponse(null, null, null, "Invalid username or password"));
         }
         
-        // Update online status
-        user.setIsOnline(true);
-        userService.saveUser(user);
-        
         // Generate JWT token
         String token = jwtUtil.generateToken(user.getUsername(), user.getId());
         
@@ -1,12 +1,15 @@
 package com.yapitup.chat.controller;
 
 import com.yapitup.chat.dto.ChatRoomDTO;
+import com.yapitup.chat.dto.ChatRoomPageDTO;
 import com.yapitup.chat.dto.CreateRoomRequest;
 import com.yapitup.chat.service.ChatRoomService;
+import com.yapitup.chat.util.JwtPrincipal;
 import com.yapitup.chat.util.JwtUtil;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -37,7 +40,8 @@ public class ChatRoomController {
         String authHeader = request.getHeader("Authorization");
         if (authHeader != null && authHeader.startsWith("Bearer ")) {
             String token = authHeader.substring(7);
-            return jwtUtil.extractUserId(token);
+            // Already verified by the filter, so this is a cache hit
+            return jwtUtil.verify(token).map(JwtPrincipal::getUserId).orElse(null);
         }
         return null;
     }
@@ -51,6 +55,27 @@ public class ChatRoomController {
         return ResponseEntity.ok(rooms);
     }
     
+    /**
+     * Get one page of rooms, sorted by id, name, createdAt or memberCount
+     */
+    @GetMapping("/directory")
+    public ResponseEntity<?> getRoomPage(
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "50") int size,
+            @RequestParam(defaultValue = "name") String sort,
+            @RequestParam(defaultValue = "asc") String direction) {
+        
+        try {
+            int pageSize = Math.max(1, Math.min(size, 200));
+            ChatRoomPageDTO rooms = chatRoomService.getRoomPage(
+                    Math.max(page, 0), pageSize, sort, Sort.Direction.fromString(direction));
+            return ResponseEntity.ok(rooms);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("message", e.getMessage()));
+        }
+    }
+    
     /**
      * Get room by ID
      */
@@ -1,18 +1,24 @@
 package com.yapitup.chat.controller;
 
 import com.yapitup.chat.dto.MessageDTO;
+import com.yapitup.chat.dto.MessageHistoryDTO;
 import com.yapitup.chat.dto.SendMessageRequest;
 import com.yapitup.chat.service.MessageService;
+import com.yapitup.chat.util.JwtPrincipal;
 import com.yapitup.chat.util.JwtUtil;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Controller for message endpoints
@@ -35,7 +41,8 @@ public class MessageController {
         String authHeader = request.getHeader("Authorization");
         if (authHeader != null && authHeader.startsWith("Bearer ")) {
             String token = authHeader.substring(7);
-            return jwtUtil.extractUserId(token);
+            // Already verified by the filter, so this is a cache hit
+            return jwtUtil.verify(token).map(JwtPrincipal::getUserId).orElse(null);
         }
         return null;
     }
@@ -59,6 +66,10 @@ public class MessageController {
                 request.getContent()
             );
             return ResponseEntity.status(HttpStatus.CREATED).body(message);
+        } catch (IllegalStateException e) {
+            // Accepted but not persisted: a server fault, not a bad request
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("message", e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body(Map.of("message", e.getMessage()));
@@ -72,18 +83,96 @@ public class MessageController {
     public ResponseEntity<List<MessageDTO>> getMessagesByRoom(
             @PathVariable Long roomId,
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "50") int size) {
+            @RequestParam(defaultValue = "50") int size,
+            HttpServletRequest request) {
         
-        List<MessageDTO> messages = messageService.getMessagesByRoom(roomId, page, size);
+        int pageSize = Math.max(1, Math.min(size, 200));
+        List<MessageDTO> messages = messageService.getMessagesByRoom(roomId, getCurrentUserId(request), page, pageSize);
         return ResponseEntity.ok(messages);
     }
     
+    /**
+     * Get messages for a room with cursor pagination.
+     * Pass the previous response's nextCursor as 'before' to scroll back in history,
+     * or a message cursor as 'after' to fetch what was sent since.
+     */
+    @GetMapping("/room/{roomId}/history")
+    public ResponseEntity<?> getMessageHistory(
+            @PathVariable Long roomId,
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "50") int size,
+            HttpServletRequest request) {
+        
+        try {
+            int pageSize = Math.max(1, Math.min(size, 200));
+            MessageHistoryDTO history = messageService.getMessageHistory(
+                    roomId, getCurrentUserId(request), before, after, pageSize);
+            return ResponseEntity.ok(history);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("message", e.getMessage()));
+        }
+    }
+    
+    /**
+     * Search a room's messages; every word of q must appear. Newest first;
+     * pass the previous response's nextCursor as 'before' for older results.
+     */
+    @GetMapping("/search")
+    public ResponseEntity<?> searchMessages(
+            @RequestParam Long roomId,
+            @RequestParam String q,
+            @RequestParam(required = false) Long before,
+            @RequestParam(defaultValue = "20") int size,
+            HttpServletRequest request) {
+        
+        Long userId = getCurrentUserId(request);
+        if (userId == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("message", "Unauthorized"));
+        }
+        
+        try {
+            int pageSize = Math.max(1, Math.min(size, 100));
+            MessageHistoryDTO results = messageService.searchMessages(roomId, userId, q, before, pageSize);
+            return ResponseEntity.ok(results);
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("message", e.getMessage()));
+        }
+    }
+    
+    /**
+     * Export all messages for a room as streamed NDJSON (gzip if the client accepts it)
+     */
+    @GetMapping("/room/{roomId}/export")
+    public void exportMessagesByRoom(@PathVariable Long roomId,
+                                     @RequestHeader(value = "Accept-Encoding", required = false) String acceptEncoding,
+                                     HttpServletRequest request,
+                                     HttpServletResponse response) throws IOException {
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+
+        try (OutputStream out = gzip
+                ? new GZIPOutputStream(response.getOutputStream(), 8192, true)
+                : response.getOutputStream()) {
+            messageService.exportMessagesByRoom(roomId, getCurrentUserId(request), out);
+        }
+    }
+    
     /**
      * Get all messages for a room (simpler endpoint)
      */
     @GetMapping("/room/{roomId}/all")
-    public ResponseEntity<List<MessageDTO>> getAllMessagesByRoom(@PathVariable Long roomId) {
-        List<MessageDTO> messages = messageService.getAllMessagesByRoom(roomId);
+    public ResponseEntity<List<MessageDTO>> getAllMessagesByRoom(@PathVariable Long roomId,
+                                                                 HttpServletRequest request) {
+        List<MessageDTO> messages = messageService.getAllMessagesByRoom(roomId, getCurrentUserId(request));
         return ResponseEntity.ok(messages);
     }
 }
\ No newline at end of file
@@ -0,0 +1,37 @@
+package com.yapitup.chat.controller;
+
+import com.yapitup.chat.websocket.OutboundFlowControl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Controller for Socket.IO delivery statistics
+ */
+@RestController
+@RequestMapping("/api/socket")
+@CrossOrigin(origins = "http://localhost:3000")
+public class SocketStatsController {
+
+    @Autowired
+    private OutboundFlowControl outboundFlowControl;
+
+    /**
+     * How far behind slow clients are, and what has been dropped so far.
+     * Totals only: session IDs would let a caller attach to someone else's session.
+     */
+    @GetMapping("/outbound")
+    public ResponseEntity<Map<String, Object>> getOutboundStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queuedEvents", outboundFlowControl.getQueuedEventCount());
+        stats.put("maxQueueDepth", outboundFlowControl.getMaxQueueDepth());
+        stats.put("slowClients", outboundFlowControl.getSlowClientCount());
+        stats.put("droppedLowEvents", outboundFlowControl.getDroppedLowEventCount());
+        stats.put("droppedMessages", outboundFlowControl.getDroppedMessageCount());
+        stats.put("slowConsumerDisconnects", outboundFlowControl.getSlowConsumerDisconnectCount());
+        return ResponseEntity.ok(stats);
+    }
+}
@@ -1,6 +1,8 @@
 package com.yapitup.chat.controller;
 
-import com.yapitup.chat.model.User;
+import com.yapitup.chat.dto.UserPageDTO;
+import com.yapitup.chat.dto.UserSummary;
+import com.yapitup.chat.service.PresenceService;
 import com.yapitup.chat.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -8,6 +10,7 @@ import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Controller for user-related endpoints
@@ -20,20 +23,48 @@ public class UserController {
     @Autowired
     private UserService userService;
     
+    @Autowired
+    private PresenceService presenceService;
+    
     /**
-     * Get all users
+     * Get one page of users in username order.
+     * Pass the previous response's nextCursor as 'after' for the next page.
      */
     @GetMapping
-    public ResponseEntity<List<User>> getAllUsers() {
-        return ResponseEntity.ok(userService.getAllUsers());
+    public ResponseEntity<UserPageDTO> getUsers(
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "50") int size) {
+        
+        int pageSize = Math.max(1, Math.min(size, 200));
+        return ResponseEntity.ok(userService.getUserPage(after, pageSize));
+    }
+    
+    /**
+     * Typeahead: users whose name starts with the prefix (case-insensitive)
+     */
+    @GetMapping("/search")
+    public ResponseEntity<List<UserSummary>> searchUsers(
+            @RequestParam String prefix,
+            @RequestParam(defaultValue = "10") int limit) {
+        
+        int maxResults = Math.max(1, Math.min(limit, 50));
+        return ResponseEntity.ok(userService.searchUsers(prefix, maxResults));
+    }
+    
+    /**
+     * Get IDs of all online users (served from memory)
+     */
+    @GetMapping("/online")
+    public ResponseEntity<Set<Long>> getOnlineUsers() {
+        return ResponseEntity.ok(presenceService.getOnlineUserIds());
     }
     
     /**
      * Get user by ID
      */
     @GetMapping("/{id}")
-    public ResponseEntity<User> getUserById(@PathVariable Long id) {
-        Optional<User> user = userService.getUserById(id);
+    public ResponseEntity<UserSummary> getUserById(@PathVariable Long id) {
+        Optional<UserSummary> user = userService.getUserById(id);
         return user.map(ResponseEntity::ok)
                    .orElse(ResponseEntity.notFound().build());
     }
@@ -0,0 +1,33 @@
+package com.yapitup.chat.datasource;
+
+import java.util.function.Supplier;
+
+/**
+ * Which reads may go to a replica. Read-only transactions started inside
+ * {@link #fromReplica(Supplier)} read from one; every other read stays on
+ * the primary, so only reads that can tolerate a little lag opt in.
+ * Has no effect on a connection the caller's transaction already holds.
+ */
+public final class ReadRouting {
+
+    private static final ThreadLocal<Boolean> REPLICA_ALLOWED = new ThreadLocal<>();
+
+    private ReadRouting() {
+    }
+
+    public static <T> T fromReplica(Supplier<T> read) {
+        if (isReplicaAllowed()) {
+            return read.get();
+        }
+        REPLICA_ALLOWED.set(Boolean.TRUE);
+        try {
+            return read.get();
+        } finally {
+            REPLICA_ALLOWED.remove();
+        }
+    }
+
+    static boolean isReplicaAllowed() {
+        return REPLICA_ALLOWED.get() != null;
+    }
+}
@@ -0,0 +1,109 @@
+package com.yapitup.chat.datasource;
+
+import com.yapitup.chat.util.LruCache;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.util.function.Supplier;
+
+/**
+ * Decides which reads go to a replica, with read-your-writes: what was
+ * written within the most a replica in use can be behind (its allowed lag,
+ * plus the time until the next lag check) is read from the primary.
+ * A replica read runs in a read-only transaction (joining the caller's, if
+ * any), since only read-only connections are routed to replicas.
+ * Every read stays on the primary when replicas are disabled.
+ */
+@Component
+public class ReplicaReads {
+
+    public static final String ROOMS = "rooms";
+    public static final String USERS = "users";
+
+    @Autowired
+    private ObjectProvider<PlatformTransactionManager> transactionManager;
+
+    @Value("${chat.replica.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.replica.max-lag-ms:5000}")
+    private long maxLagMs;
+
+    @Value("${chat.replica.check-interval-ms:1000}")
+    private long checkIntervalMs;
+
+    @Value("${chat.replica.recent-writes.max-size:100000}")
+    private int maxSize;
+
+    // key -> when it was last written, in epoch milliseconds
+    private LruCache<String, Long> writes;
+
+    private TransactionTemplate readOnly;
+
+    private Clock clock = Clock.systemUTC();
+
+    @PostConstruct
+    public void init() {
+        writes = new LruCache<>(maxSize);
+        if (enabled) {
+            readOnly = new TransactionTemplate(transactionManager.getObject());
+            readOnly.setReadOnly(true);
+        }
+    }
+
+    /**
+     * A user sent a message to a room
+     */
+    public void messageSent(Long roomId, Long userId) {
+        changed(messageKey(roomId, userId));
+    }
+
+    /**
+     * Something other than a message changed ({@link #ROOMS}, {@link #USERS})
+     */
+    public void changed(String key) {
+        if (enabled) {
+            writes.put(key, clock.millis());
+        }
+    }
+
+    /**
+     * Run a read of a room's messages on a replica, unless the user posted to
+     * the room recently enough that a replica may not have it yet
+     */
+    public <T> T readMessages(Long roomId, Long userId, Supplier<T> read) {
+        return read(messageKey(roomId, userId), read);
+    }
+
+    /**
+     * Run a read on a replica, unless the key was written recently
+     */
+    public <T> T read(String key, Supplier<T> read) {
+        if (!enabled || isRecent(key)) {
+            return read.get();
+        }
+        return ReadRouting.fromReplica(() -> readOnly.execute(status -> read.get()));
+    }
+
+    private boolean isRecent(String key) {
+        Long writtenAt = key != null ? writes.get(key) : null;
+        return writtenAt != null && clock.millis() - writtenAt <= maxLagMs + checkIntervalMs;
+    }
+
+    /**
+     * Tests move the clock instead of waiting out the read-your-writes window
+     */
+    void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    private static String messageKey(Long roomId, Long userId) {
+        return userId != null ? "message:" + roomId + ":" + userId : null;
+    }
+}
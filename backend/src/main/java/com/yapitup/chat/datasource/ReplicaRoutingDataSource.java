@@ -0,0 +1,35 @@
+package com.yapitup.chat.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+/**
+ * The application's DataSource when read replicas are configured.
+ * Connections are only taken from a pool at their first statement, by which
+ * time the transaction has marked them read-only (or not): writes and
+ * ordinary reads go to the primary, read-only connections to
+ * {@link ReplicaSet}.
+ */
+public class ReplicaRoutingDataSource extends LazyConnectionDataSourceProxy implements AutoCloseable {
+
+    private final HikariDataSource primary;
+
+    private final ReplicaSet replicaSet;
+
+    public ReplicaRoutingDataSource(HikariDataSource primary, ReplicaSet replicaSet) {
+        super(primary);
+        this.primary = primary;
+        this.replicaSet = replicaSet;
+        setReadOnlyDataSource(replicaSet);
+    }
+
+    public ReplicaSet getReplicaSet() {
+        return replicaSet;
+    }
+
+    @Override
+    public void close() {
+        replicaSet.close();
+        primary.close();
+    }
+}
@@ -0,0 +1,178 @@
+package com.yapitup.chat.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Source of read-only connections: a replica that is fresh enough, taken in
+ * turn, when the transaction may read from one; otherwise the primary.
+ * <p>
+ * A replica's lag is checked periodically from a heartbeat: each check
+ * stamps the current time into a one-row table on the primary, and a
+ * replica is as far behind as its copy of that row is older than the
+ * primary's. It keeps growing while replication is stalled, even when
+ * nothing else is written, and is only known to within one check interval.
+ * Replicas further behind than {@code maxLagMs}, or whose check failed, are
+ * skipped until they catch up.
+ */
+public class ReplicaSet extends AbstractDataSource implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaSet.class);
+
+    private static final String HEARTBEAT_TABLE = "replica_heartbeat";
+
+    private final DataSource primary;
+
+    private final List<Replica> replicas;
+
+    private final long maxLagMs;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final ScheduledExecutorService checker;
+
+    private final Clock clock;
+
+    // Set once the heartbeat table is known to exist on the primary
+    private boolean heartbeatCreated;
+
+    public ReplicaSet(DataSource primary, List<HikariDataSource> replicas, long maxLagMs, long checkIntervalMs) {
+        this(primary, replicas, maxLagMs, checkIntervalMs, Clock.systemUTC());
+    }
+
+    /**
+     * @param clock stamps the heartbeat (tests move it instead of waiting)
+     */
+    ReplicaSet(DataSource primary, List<HikariDataSource> replicas, long maxLagMs, long checkIntervalMs, Clock clock) {
+        this.primary = primary;
+        this.clock = clock;
+        this.replicas = replicas.stream().map(Replica::new).toList();
+        this.maxLagMs = maxLagMs;
+        checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-lag-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checker.scheduleWithFixedDelay(this::checkLag, 0, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return choose().getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return choose().getConnection(username, password);
+    }
+
+    /**
+     * Replicas currently taking reads
+     */
+    public int getUsableCount() {
+        int usable = 0;
+        for (Replica replica : replicas) {
+            if (replica.usable) {
+                usable++;
+            }
+        }
+        return usable;
+    }
+
+    @Override
+    public void close() {
+        checker.shutdownNow();
+        replicas.forEach(replica -> replica.dataSource.close());
+    }
+
+    private DataSource choose() {
+        if (ReadRouting.isReplicaAllowed()) {
+            int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+            for (int i = 0; i < replicas.size(); i++) {
+                Replica replica = replicas.get((start + i) % replicas.size());
+                if (replica.usable) {
+                    return replica.dataSource;
+                }
+            }
+        }
+        return primary;
+    }
+
+    /**
+     * Stamps the heartbeat and decides again which replicas take reads
+     */
+    synchronized void checkLag() {
+        JdbcTemplate onPrimary = new JdbcTemplate(primary);
+        Long primaryBeat;
+        try {
+            primaryBeat = beat(onPrimary);
+        } catch (RuntimeException e) {
+            // No primary to compare with
+            primaryBeat = null;
+        }
+        for (Replica replica : replicas) {
+            boolean usable;
+            try {
+                Long replicaBeat = new JdbcTemplate(replica.dataSource).queryForObject(
+                        "SELECT MAX(beat_at) FROM " + HEARTBEAT_TABLE, Long.class);
+                usable = primaryBeat != null && replicaBeat != null && primaryBeat - replicaBeat <= maxLagMs;
+            } catch (RuntimeException e) {
+                // Not reachable, or the heartbeat has not been replicated yet
+                usable = false;
+            }
+            if (usable != replica.usable) {
+                log.info("Replica {} {} reads", replica.dataSource.getJdbcUrl(), usable ? "now takes" : "no longer takes");
+                replica.usable = usable;
+            }
+        }
+    }
+
+    /**
+     * Stamps the heartbeat on the primary
+     *
+     * @return the time it holds now
+     */
+    private long beat(JdbcTemplate onPrimary) {
+        if (!heartbeatCreated) {
+            onPrimary.execute("CREATE TABLE IF NOT EXISTS " + HEARTBEAT_TABLE
+                    + " (id INT PRIMARY KEY, beat_at BIGINT NOT NULL)");
+            heartbeatCreated = true;
+        }
+        long now = clock.millis();
+        if (onPrimary.update("UPDATE " + HEARTBEAT_TABLE + " SET beat_at = ? WHERE id = 1", now) == 0) {
+            try {
+                onPrimary.update("INSERT INTO " + HEARTBEAT_TABLE + " (id, beat_at) VALUES (1, ?)", now);
+            } catch (DuplicateKeyException e) {
+                // Another node inserted it first
+                onPrimary.update("UPDATE " + HEARTBEAT_TABLE + " SET beat_at = ? WHERE id = 1", now);
+            }
+        }
+        return now;
+    }
+
+    /**
+     * One replica's pool and whether it is fresh enough to read from
+     */
+    private static final class Replica {
+        private final HikariDataSource dataSource;
+        private volatile boolean usable;
+
+        private Replica(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.yapitup.chat.dto;
+
+import java.util.List;
+
+/**
+ * DTO for one page of the room directory
+ */
+public class ChatRoomPageDTO {
+
+    private List<ChatRoomDTO> rooms;
+    private int page;
+    private int size;
+    private long totalElements;
+    private int totalPages;
+
+    // Constructors
+    public ChatRoomPageDTO() {
+    }
+
+    public ChatRoomPageDTO(List<ChatRoomDTO> rooms, int page, int size, long totalElements, int totalPages) {
+        this.rooms = rooms;
+        this.page = page;
+        this.size = size;
+        this.totalElements = totalElements;
+        this.totalPages = totalPages;
+    }
+
+    // Getters and Setters
+    public List<ChatRoomDTO> getRooms() {
+        return rooms;
+    }
+
+    public void setRooms(List<ChatRoomDTO> rooms) {
+        this.rooms = rooms;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public void setPage(int page) {
+        this.page = page;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public long getTotalElements() {
+        return totalElements;
+    }
+
+    public void setTotalElements(long totalElements) {
+        this.totalElements = totalElements;
+    }
+
+    public int getTotalPages() {
+        return totalPages;
+    }
+
+    public void setTotalPages(int totalPages) {
+        this.totalPages = totalPages;
+    }
+}
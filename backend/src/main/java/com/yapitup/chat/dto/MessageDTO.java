@@ -1,9 +1,13 @@
 package com.yapitup.chat.dto;
 
+import java.io.Serializable;
+
 /**
  * DTO for message data
  */
-public class MessageDTO {
+public class MessageDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private Long id;
     private Long roomId;
@@ -0,0 +1,48 @@
+package com.yapitup.chat.dto;
+
+import java.util.List;
+
+/**
+ * DTO for one page of cursor-based message history
+ */
+public class MessageHistoryDTO {
+
+    private List<MessageDTO> messages;
+    private boolean hasMore;
+    private String nextCursor;
+
+    // Constructors
+    public MessageHistoryDTO() {
+    }
+
+    public MessageHistoryDTO(List<MessageDTO> messages, boolean hasMore, String nextCursor) {
+        this.messages = messages;
+        this.hasMore = hasMore;
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters and Setters
+    public List<MessageDTO> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<MessageDTO> messages) {
+        this.messages = messages;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
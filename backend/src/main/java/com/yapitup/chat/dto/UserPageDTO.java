@@ -0,0 +1,48 @@
+package com.yapitup.chat.dto;
+
+import java.util.List;
+
+/**
+ * DTO for one page of the user directory, in username order
+ */
+public class UserPageDTO {
+
+    private List<UserSummary> users;
+    private boolean hasMore;
+    private String nextCursor;
+
+    // Constructors
+    public UserPageDTO() {
+    }
+
+    public UserPageDTO(List<UserSummary> users, boolean hasMore, String nextCursor) {
+        this.users = users;
+        this.hasMore = hasMore;
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters and Setters
+    public List<UserSummary> getUsers() {
+        return users;
+    }
+
+    public void setUsers(List<UserSummary> users) {
+        this.users = users;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
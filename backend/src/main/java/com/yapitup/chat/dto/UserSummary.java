@@ -0,0 +1,45 @@
+package com.yapitup.chat.dto;
+
+/**
+ * Public view of a user for directories and typeahead
+ */
+public class UserSummary {
+
+    private Long id;
+    private String username;
+    private boolean online;
+
+    // Constructors
+    public UserSummary() {
+    }
+
+    public UserSummary(Long id, String username) {
+        this.id = id;
+        this.username = username;
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    public void setOnline(boolean online) {
+        this.online = online;
+    }
+}
@@ -0,0 +1,138 @@
+package com.yapitup.chat.metrics;
+
+import com.corundumstudio.socketio.SocketIOServer;
+import com.yapitup.chat.archive.MessageArchive;
+import com.yapitup.chat.datasource.ReplicaRoutingDataSource;
+import com.yapitup.chat.datasource.ReplicaSet;
+import com.yapitup.chat.search.MessageSearchIndex;
+import com.yapitup.chat.service.MessageWriteBehindService;
+import com.yapitup.chat.service.PresenceService;
+import com.yapitup.chat.websocket.OutboundFlowControl;
+import com.yapitup.chat.websocket.RoomMessageBatcher;
+import com.yapitup.chat.websocket.RoomSubscriptionRegistry;
+import com.yapitup.chat.websocket.SocketEventDispatcher;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gauges and counters read from state the real-time services already keep,
+ * sampled only when metrics are scraped.
+ * Kept apart from {@link ChatMetrics}, which those services record into.
+ */
+@Component
+public class ChatGauges {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private SocketIOServer socketIOServer;
+
+    @Autowired
+    private RoomSubscriptionRegistry roomSubscriptionRegistry;
+
+    @Autowired
+    private PresenceService presenceService;
+
+    @Autowired
+    private SocketEventDispatcher socketEventDispatcher;
+
+    @Autowired
+    private OutboundFlowControl outboundFlowControl;
+
+    @Autowired
+    private RoomMessageBatcher roomMessageBatcher;
+
+    @Autowired
+    private MessageWriteBehindService messageWriteBehindService;
+
+    @Autowired
+    private MessageSearchIndex messageSearchIndex;
+
+    @Autowired
+    private MessageArchive messageArchive;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @PostConstruct
+    public void init() throws SQLException {
+        Gauge.builder("chat.socket.connections", socketIOServer, server -> server.getAllClients().size())
+                .description("Socket.IO clients connected to this node")
+                .register(meterRegistry);
+        Gauge.builder("chat.socket.rooms", roomSubscriptionRegistry, RoomSubscriptionRegistry::getActiveRoomCount)
+                .description("Rooms with at least one client subscribed on this node")
+                .register(meterRegistry);
+        Gauge.builder("chat.presence.online", presenceService, presence -> presence.getOnlineUserIds().size())
+                .description("Users with at least one open session")
+                .register(meterRegistry);
+        Gauge.builder("chat.dispatch.active", socketEventDispatcher, SocketEventDispatcher::getActiveQueueCount)
+                .description("Connections with socket events waiting or running")
+                .register(meterRegistry);
+        Gauge.builder("chat.backpressure.slow.clients", outboundFlowControl, OutboundFlowControl::getSlowClientCount)
+                .description("Clients with events queued in their outbox")
+                .register(meterRegistry);
+        Gauge.builder("chat.backpressure.queued", outboundFlowControl, OutboundFlowControl::getQueuedEventCount)
+                .description("Events queued for clients that have fallen behind")
+                .baseUnit("events")
+                .register(meterRegistry);
+        Gauge.builder("chat.batching.hot.rooms", roomMessageBatcher, RoomMessageBatcher::getHotRoomCount)
+                .description("Rooms batching message_received")
+                .register(meterRegistry);
+        Gauge.builder("chat.persistence.queue", messageWriteBehindService, MessageWriteBehindService::getQueueDepth)
+                .description("Messages waiting to be written")
+                .baseUnit("messages")
+                .register(meterRegistry);
+        if (messageWriteBehindService.isCommitLogEnabled()) {
+            Gauge.builder("chat.commitlog.unreplicated", messageWriteBehindService,
+                            MessageWriteBehindService::getUnreplicatedBytes)
+                    .description("Commit log bytes not yet copied to the messages table")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+        }
+        Gauge.builder("chat.search.catching.up", messageSearchIndex, index -> index.isCatchingUp() ? 1 : 0)
+                .description("1 while the search index is still reading messages written before startup")
+                .register(meterRegistry);
+        if (messageArchive.isEnabled()) {
+            Gauge.builder("chat.archive.segments", messageArchive, MessageArchive::getSegmentCount)
+                    .description("Message archive segments loaded")
+                    .register(meterRegistry);
+        }
+        if (dataSource.isWrapperFor(ReplicaRoutingDataSource.class)) {
+            ReplicaSet replicaSet = dataSource.unwrap(ReplicaRoutingDataSource.class).getReplicaSet();
+            Gauge.builder("chat.replica.usable", replicaSet, ReplicaSet::getUsableCount)
+                    .description("Read replicas within the allowed lag")
+                    .register(meterRegistry);
+        }
+
+        FunctionCounter.builder("chat.backpressure.dropped", outboundFlowControl,
+                        OutboundFlowControl::getDroppedLowEventCount)
+                .description("Events dropped from slow clients' outboxes")
+                .tag("priority", "low")
+                .register(meterRegistry);
+        FunctionCounter.builder("chat.backpressure.dropped", outboundFlowControl,
+                        OutboundFlowControl::getDroppedMessageCount)
+                .description("Events dropped from slow clients' outboxes")
+                .tag("priority", "message")
+                .register(meterRegistry);
+        FunctionCounter.builder("chat.backpressure.disconnects", outboundFlowControl,
+                        OutboundFlowControl::getSlowConsumerDisconnectCount)
+                .description("Clients disconnected for falling too far behind")
+                .register(meterRegistry);
+
+        FunctionTimer.builder("chat.dispatch.handoff", socketEventDispatcher,
+                        SocketEventDispatcher::getDispatchedEventCount,
+                        SocketEventDispatcher::getHandoffNanos, TimeUnit.NANOSECONDS)
+                .description("Time netty's event loop spent handing socket events to virtual threads")
+                .register(meterRegistry);
+    }
+}
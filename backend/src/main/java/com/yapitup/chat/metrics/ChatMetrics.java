@@ -0,0 +1,163 @@
+package com.yapitup.chat.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters for the real-time hot paths, exposed at /actuator/prometheus.
+ * Timers and distribution summaries publish histogram buckets, so percentiles
+ * can be computed (and aggregated across nodes) in Prometheus.
+ */
+@Component
+public class ChatMetrics {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Socket event name -> its timers
+    private final Map<String, EventMeters> events = new ConcurrentHashMap<>();
+
+    // Outgoing event name -> recipients per broadcast
+    private final Map<String, DistributionSummary> fanOut = new ConcurrentHashMap<>();
+
+    private Counter authenticatedConnects;
+    private Counter rejectedConnects;
+    private Counter disconnects;
+
+    private Timer persistedBatches;
+    private Timer failedBatches;
+    private DistributionSummary batchSize;
+
+    private Timer writtenGroups;
+    private Timer failedGroups;
+    private DistributionSummary groupSize;
+
+    @PostConstruct
+    public void init() {
+        authenticatedConnects = Counter.builder("chat.socket.connects")
+                .description("Socket.IO connections opened")
+                .tag("outcome", "authenticated")
+                .register(meterRegistry);
+        rejectedConnects = Counter.builder("chat.socket.connects")
+                .description("Socket.IO connections opened")
+                .tag("outcome", "rejected")
+                .register(meterRegistry);
+        disconnects = Counter.builder("chat.socket.disconnects")
+                .description("Socket.IO connections closed")
+                .register(meterRegistry);
+
+        persistedBatches = persistenceTimer("persisted");
+        failedBatches = persistenceTimer("failed");
+        batchSize = DistributionSummary.builder("chat.persistence.batch.size")
+                .description("Messages written per multi-row insert")
+                .baseUnit("messages")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        writtenGroups = commitLogTimer("written");
+        failedGroups = commitLogTimer("failed");
+        groupSize = DistributionSummary.builder("chat.commitlog.group.size")
+                .description("Messages appended per commit log group commit")
+                .baseUnit("messages")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * One socket event handled
+     *
+     * @param queuedNanos time between arrival and the handler starting
+     * @param handledNanos time between arrival and the handler finishing
+     * @param dbNanos time the handler held database connections
+     */
+    public void recordEvent(String event, long queuedNanos, long handledNanos, long dbNanos) {
+        EventMeters meters = events.computeIfAbsent(event, this::createEventMeters);
+        meters.latency.record(handledNanos, TimeUnit.NANOSECONDS);
+        meters.queued.record(queuedNanos, TimeUnit.NANOSECONDS);
+        meters.db.record(dbNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void connected(boolean authenticated) {
+        (authenticated ? authenticatedConnects : rejectedConnects).increment();
+    }
+
+    public void disconnected() {
+        disconnects.increment();
+    }
+
+    /**
+     * Clients on this node a room broadcast went out to
+     */
+    public void recordFanOut(String event, int recipients) {
+        fanOut.computeIfAbsent(event, name -> DistributionSummary.builder("chat.broadcast.recipients")
+                .description("Local recipients per room broadcast")
+                .tag("event", name)
+                .baseUnit("clients")
+                .publishPercentileHistogram()
+                .register(meterRegistry)).record(recipients);
+    }
+
+    /**
+     * One write-behind batch written (or failed)
+     */
+    public void recordPersistence(int messages, long nanos, boolean persisted) {
+        (persisted ? persistedBatches : failedBatches).record(nanos, TimeUnit.NANOSECONDS);
+        batchSize.record(messages);
+    }
+
+    /**
+     * One commit log group commit written and synced (or failed)
+     */
+    public void recordCommitLogWrite(int messages, long nanos, boolean written) {
+        (written ? writtenGroups : failedGroups).record(nanos, TimeUnit.NANOSECONDS);
+        groupSize.record(messages);
+    }
+
+    private EventMeters createEventMeters(String event) {
+        return new EventMeters(
+                eventTimer("chat.socket.events", "Time from a socket event arriving to its handler finishing", event),
+                eventTimer("chat.socket.events.queued", "Time a socket event waited before its handler started", event),
+                eventTimer("chat.socket.events.db", "Database connection time per socket event", event));
+    }
+
+    private Timer eventTimer(String name, String description, String event) {
+        return Timer.builder(name)
+                .description(description)
+                .tag("event", event)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(1000))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meterRegistry);
+    }
+
+    private Timer persistenceTimer(String outcome) {
+        return Timer.builder("chat.persistence.flush")
+                .description("Time to write one write-behind batch")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meterRegistry);
+    }
+
+    private Timer commitLogTimer(String outcome) {
+        return Timer.builder("chat.commitlog.write")
+                .description("Time to write and sync one commit log group commit")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meterRegistry);
+    }
+
+    private record EventMeters(Timer latency, Timer queued, Timer db) {
+    }
+}
@@ -0,0 +1,43 @@
+package com.yapitup.chat.metrics;
+
+/**
+ * Database time of the socket event running on the current thread, measured
+ * as how long it held database connections (see {@link TimedDataSource}).
+ * Connections taken outside a tracked event are not measured at all.
+ */
+public final class DbTime {
+
+    private static final ThreadLocal<long[]> CURRENT = new ThreadLocal<>();
+
+    private DbTime() {
+    }
+
+    /**
+     * Start charging connection time to the current thread's event
+     */
+    public static void start() {
+        CURRENT.set(new long[1]);
+    }
+
+    /**
+     * Stop tracking
+     *
+     * @return nanoseconds of connection time since {@link #start()}
+     */
+    public static long stop() {
+        long[] total = CURRENT.get();
+        CURRENT.remove();
+        return total != null ? total[0] : 0;
+    }
+
+    static boolean isTracking() {
+        return CURRENT.get() != null;
+    }
+
+    static void add(long nanos) {
+        long[] total = CURRENT.get();
+        if (total != null) {
+            total[0] += nanos;
+        }
+    }
+}
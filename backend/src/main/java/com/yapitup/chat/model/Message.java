@@ -8,11 +8,14 @@ import java.time.LocalDateTime;
  * Message entity - represents a message in a chat room
  */
 @Entity
-@Table(name = "messages")
+@Table(name = "messages", indexes = {
+        // Keyset pagination over a room's history
+        @Index(name = "idx_room_id_id", columnList = "room_id, id")
+})
 public class Message {
 
+    // Assigned by MessageIdGenerator - time-ordered, so history is ordered and paged by id
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
     @ManyToOne
@@ -31,7 +34,9 @@ public class Message {
 
     @PrePersist
     protected void onCreate() {
-        createdAt = LocalDateTime.now();
+        if (createdAt == null) {
+            createdAt = LocalDateTime.now();
+        }
     }
 
     // Constructors
@@ -1,12 +1,38 @@
 package com.yapitup.chat.repository;
 
+import com.yapitup.chat.dto.ChatRoomDTO;
 import com.yapitup.chat.model.ChatRoom;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+import java.util.Optional;
+
 /**
  * Repository for ChatRoom entity
  */
 @Repository
 public interface ChatRoomRepository extends JpaRepository<ChatRoom, Long> {
+    
+    // Room directory projections - one statement, creator joined and members counted
+    // in SQL (SIZE is a COUNT subquery on room_members), no entities loaded
+    
+    String SUMMARY_SELECT = "SELECT new com.yapitup.chat.dto.ChatRoomDTO("
+            + "r.id, r.name, r.description, r.createdAt, c.id, c.username, SIZE(r.members)) "
+            + "FROM ChatRoom r LEFT JOIN r.createdBy c ";
+    
+    // Every room, oldest first
+    @Query(SUMMARY_SELECT + "ORDER BY r.id")
+    List<ChatRoomDTO> findAllSummaries();
+    
+    // One page of rooms, sorted by the pageable's sort
+    @Query(value = SUMMARY_SELECT, countQuery = "SELECT COUNT(r) FROM ChatRoom r")
+    Page<ChatRoomDTO> findSummaries(Pageable pageable);
+    
+    @Query(SUMMARY_SELECT + "WHERE r.id = :id")
+    Optional<ChatRoomDTO> findSummaryById(@Param("id") Long id);
 }
@@ -1,12 +1,18 @@
 package com.yapitup.chat.repository;
 
 import com.yapitup.chat.model.Message;
-import org.springframework.data.domain.Page;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Repository for Message entity
@@ -14,9 +20,47 @@ import java.util.List;
 @Repository
 public interface MessageRepository extends JpaRepository<Message, Long> {
     
-    // Find all messages in a room, ordered by creation date
-    List<Message> findByRoomIdOrderByCreatedAtAsc(Long roomId);
+    // Find a room's messages newer than an ID (the archived part is older), oldest first (IDs are time-ordered)
+    List<Message> findByRoomIdAndIdGreaterThanOrderByIdAsc(Long roomId, Long id);
     
-    // Find messages in a room with pagination
-    Page<Message> findByRoomIdOrderByCreatedAtDesc(Long roomId, Pageable pageable);
-}
\ No newline at end of file
+    // Find messages in a room with pagination (Slice - no COUNT query)
+    Slice<Message> findByRoomIdAndIdGreaterThanOrderByIdDesc(Long roomId, Long id, Pageable pageable);
+    
+    // Counted only when a page runs past the table into the archive
+    long countByRoomIdAndIdGreaterThan(Long roomId, Long id);
+    
+    // Stream a room's history row by row (MySQL streams results when fetch size is Integer.MIN_VALUE)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("SELECT m FROM Message m JOIN FETCH m.user JOIN FETCH m.room "
+            + "WHERE m.room.id = :roomId AND m.id > :id "
+            + "ORDER BY m.id ASC")
+    Stream<Message> streamByRoomId(@Param("roomId") Long roomId, @Param("id") Long id);
+    
+    // Messages by ID (search hits), in no particular order
+    @Query("SELECT m FROM Message m JOIN FETCH m.user JOIN FETCH m.room WHERE m.id IN :ids")
+    List<Message> findAllWithUserByIdIn(@Param("ids") List<Long> ids);
+    
+    // Keyset pagination - all use the (room_id, id) index
+    
+    // Newest messages in a room
+    @Query("SELECT m FROM Message m JOIN FETCH m.user JOIN FETCH m.room "
+            + "WHERE m.room.id = :roomId "
+            + "ORDER BY m.id DESC")
+    Slice<Message> findLatest(@Param("roomId") Long roomId, Pageable pageable);
+    
+    // Messages older than the cursor ID, newest first
+    @Query("SELECT m FROM Message m JOIN FETCH m.user JOIN FETCH m.room "
+            + "WHERE m.room.id = :roomId AND m.id < :id "
+            + "ORDER BY m.id DESC")
+    Slice<Message> findBefore(@Param("roomId") Long roomId,
+                              @Param("id") Long id,
+                              Pageable pageable);
+    
+    // Messages newer than the cursor ID, oldest first
+    @Query("SELECT m FROM Message m JOIN FETCH m.user JOIN FETCH m.room "
+            + "WHERE m.room.id = :roomId AND m.id > :id "
+            + "ORDER BY m.id ASC")
+    Slice<Message> findAfter(@Param("roomId") Long roomId,
+                             @Param("id") Long id,
+                             Pageable pageable);
+}
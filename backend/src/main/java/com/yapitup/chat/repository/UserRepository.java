@@ -1,9 +1,15 @@
 package com.yapitup.chat.repository;
 
+import com.yapitup.chat.dto.UserSummary;
 import com.yapitup.chat.model.User;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -24,4 +30,19 @@ public interface UserRepository extends JpaRepository<User, Long> {
     
     // Check if email exists
     boolean existsByEmail(String email);
+    
+    // User summaries - id and username only, never the entity
+    
+    // Users after the username cursor, in username order (unique index on username)
+    @Query("SELECT new com.yapitup.chat.dto.UserSummary(u.id, u.username) FROM User u "
+            + "WHERE u.username > :after "
+            + "ORDER BY u.username")
+    Slice<UserSummary> findSummariesAfter(@Param("after") String after, Pageable pageable);
+    
+    @Query("SELECT new com.yapitup.chat.dto.UserSummary(u.id, u.username) FROM User u WHERE u.id = :id")
+    Optional<UserSummary> findSummaryById(@Param("id") Long id);
+    
+    // Every user, for the in-memory username index
+    @Query("SELECT new com.yapitup.chat.dto.UserSummary(u.id, u.username) FROM User u")
+    List<UserSummary> findAllSummaries();
 }
\ No newline at end of file
@@ -0,0 +1,403 @@
+package com.yapitup.chat.search;
+
+import com.yapitup.chat.archive.MessageArchive;
+import com.yapitup.chat.cluster.ClusterMessage;
+import com.yapitup.chat.cluster.ClusterNode;
+import com.yapitup.chat.dto.MessageDTO;
+import com.yapitup.chat.service.MessageIdGenerator;
+import com.yapitup.chat.service.MessageWriteBehindService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * In-process full-text index of chat messages.
+ * Each room has its own inverted index (term to message IDs), held in memory
+ * and updated as messages are sent. Message IDs increase over time, so the
+ * newest matches are found by walking postings backwards from a cursor.
+ * <p>
+ * Messages indexed since the last flush are written periodically as a new
+ * immutable segment file under {@code chat.search.index-dir}; once there are
+ * more than {@code chat.search.max-segments}, the whole index is written as
+ * one segment and the others are deleted. At startup the segments are loaded
+ * and only messages after the newest one are read back from the database, so
+ * a restart does not reindex from scratch. Segments written before that
+ * catch-up finishes claim no more coverage than the ones it started from.
+ */
+@Service
+@DependsOn({"entityManagerFactory", "messageWriteBehindService"}) // messages table must exist, with the commit log replayed, before the catch-up read
+public class MessageSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageSearchIndex.class);
+
+    private static final String CLUSTER_TOPIC = "chat.search";
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    // Re-read a minute of IDs below the newest segment, since nodes' IDs are only ordered to within clock skew
+    private static final long CATCH_UP_OVERLAP = 60_000L << MessageIdGenerator.TIMESTAMP_SHIFT;
+
+    // Rows read per catch-up query
+    private static final int CATCH_UP_PAGE_SIZE = 5000;
+
+    // Longest query honoured, in terms
+    private static final int MAX_QUERY_TERMS = 8;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    // Messages in the commit log not yet copied to the table
+    @Autowired
+    private MessageWriteBehindService messageWriteBehindService;
+
+    // Messages moved out of the table, reindexed when the segments are unusable
+    @Autowired
+    private MessageArchive messageArchive;
+
+    @Value("${chat.search.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.search.index-dir:data/search-index}")
+    private String indexDir;
+
+    @Value("${chat.search.max-segments:8}")
+    private int maxSegments;
+
+    @Value("${chat.search.flush-interval-ms:30000}")
+    private long flushIntervalMs;
+
+    // roomId -> the room's whole index
+    private final Map<Long, RoomIndex> rooms = new ConcurrentHashMap<>();
+
+    // roomId -> what was indexed since the last segment was written
+    private Map<Long, RoomIndex> unflushed = new ConcurrentHashMap<>();
+
+    // Indexing takes the read side; swapping out the unflushed map takes the write side
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+
+    private final AtomicLong maxIndexedId = new AtomicLong();
+
+    private Path directory;
+
+    private long nextSegment;
+
+    private volatile boolean catchingUp;
+
+    // Highest ID below which every message is known to be indexed; segments claim no more than this
+    private volatile long coveredUpTo = Long.MAX_VALUE;
+
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        clusterNode.subscribe(CLUSTER_TOPIC, IndexMessage.class,
+                message -> index(message.messageId, message.roomId, message.content));
+
+        directory = Paths.get(indexDir);
+        Files.createDirectories(directory);
+        long loadedUpTo = loadSegments();
+
+        // Messages written after the newest segment (or everything, the first time)
+        coveredUpTo = loadedUpTo;
+        catchingUp = true;
+        // Nothing usable on disk: archived messages have to be indexed again as well
+        boolean fromScratch = loadedUpTo == 0;
+        Thread catchUp = new Thread(() -> catchUp(Math.max(0, loadedUpTo - CATCH_UP_OVERLAP), fromScratch),
+                "search-index-catch-up");
+        catchUp.setDaemon(true);
+        catchUp.start();
+
+        // Its own thread, so segment writes and compactions do not hold up the shared @Scheduled one
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "search-index-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                // Keep flushing; an exception would cancel the schedule
+                log.warn("Search index flush failed: {}", e.getMessage());
+            }
+        }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (enabled) {
+            flusher.shutdown();
+            flusher.awaitTermination(30, TimeUnit.SECONDS);
+            flush();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Index a message that was just sent on this node
+     */
+    public void index(MessageDTO message) {
+        if (!enabled) {
+            return;
+        }
+        index(message.getId(), message.getRoomId(), message.getContent());
+        clusterNode.publish(CLUSTER_TOPIC, new IndexMessage(message.getId(), message.getRoomId(), message.getContent()));
+    }
+
+    /**
+     * IDs of a room's messages containing every term of the query, newest first
+     *
+     * @param beforeId only messages with a lower ID; null for the newest
+     */
+    public List<Long> search(Long roomId, String query, Long beforeId, int limit) {
+        RoomIndex room = rooms.get(roomId);
+        Set<String> terms = MessageTokenizer.tokenize(query);
+        if (room == null || terms.isEmpty()) {
+            return List.of();
+        }
+        List<String> queryTerms = new ArrayList<>(terms).subList(0, Math.min(terms.size(), MAX_QUERY_TERMS));
+        return room.search(queryTerms, beforeId != null ? beforeId : Long.MAX_VALUE, limit);
+    }
+
+    /**
+     * Results may be missing older messages until the startup catch-up finishes
+     */
+    public boolean isCatchingUp() {
+        return catchingUp;
+    }
+
+    /**
+     * Write what was indexed since the last flush as a new segment, and merge
+     * segments once there are too many
+     */
+    public void flush() {
+        if (!enabled || directory == null) {
+            return;
+        }
+        Map<Long, RoomIndex> pending;
+        long upTo;
+        flushLock.writeLock().lock();
+        try {
+            if (unflushed.isEmpty()) {
+                return;
+            }
+            pending = unflushed;
+            unflushed = new ConcurrentHashMap<>();
+            // Until the catch-up is done, live messages are indexed above rows it has not read yet
+            upTo = Math.min(maxIndexedId.get(), coveredUpTo);
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+
+        synchronized (this) {
+            try {
+                SegmentFile.write(nextSegmentPath(), upTo, pending);
+                List<Path> segments = listSegments();
+                if (segments.size() > maxSegments) {
+                    compact(segments, upTo);
+                }
+            } catch (IOException e) {
+                // Keep the postings for the next attempt
+                log.warn("Failed to write search index segment: {}", e.getMessage());
+                requeue(pending);
+            }
+        }
+    }
+
+    private void index(long messageId, Long roomId, String content) {
+        Set<String> terms = MessageTokenizer.tokenize(content);
+        if (terms.isEmpty()) {
+            return;
+        }
+        RoomIndex room = rooms.computeIfAbsent(roomId, id -> new RoomIndex());
+        flushLock.readLock().lock();
+        try {
+            RoomIndex pending = null;
+            for (String term : terms) {
+                if (room.add(term, messageId)) {
+                    if (pending == null) {
+                        pending = unflushed.computeIfAbsent(roomId, id -> new RoomIndex());
+                    }
+                    pending.add(term, messageId);
+                }
+            }
+        } finally {
+            flushLock.readLock().unlock();
+        }
+        maxIndexedId.accumulateAndGet(messageId, Math::max);
+    }
+
+    /**
+     * Load every segment into memory
+     *
+     * @return the highest message ID they cover (0 if any segment was unreadable)
+     */
+    private long loadSegments() throws IOException {
+        long start = System.currentTimeMillis();
+        long upTo = 0;
+        boolean damaged = false;
+        List<Path> segments = listSegments();
+        for (Path segment : segments) {
+            try {
+                long segmentUpTo = SegmentFile.read(segment, (roomId, term, ids) -> {
+                    RoomIndex room = rooms.computeIfAbsent(roomId, id -> new RoomIndex());
+                    for (long id : ids) {
+                        room.add(term, id);
+                    }
+                });
+                upTo = Math.max(upTo, segmentUpTo);
+            } catch (IOException e) {
+                // Reindex from the database; what did load is deduplicated
+                log.warn("Skipping search index segment: {}", e.getMessage());
+                damaged = true;
+            }
+            nextSegment = Math.max(nextSegment, segmentNumber(segment) + 1);
+        }
+        maxIndexedId.set(upTo);
+        log.info("Loaded {} search index segment(s) for {} room(s) in {} ms",
+                segments.size(), rooms.size(), System.currentTimeMillis() - start);
+        return damaged ? 0 : upTo;
+    }
+
+    /**
+     * Index messages from the database with an ID above the given one
+     *
+     * @param fromScratch also index every archived message
+     */
+    private void catchUp(long afterId, boolean fromScratch) {
+        long start = System.currentTimeMillis();
+        long[] count = {0};
+        try {
+            // Commit log entries first: whatever the replicator copies meanwhile is then in the table
+            messageWriteBehindService.forEachUnreplicated(message -> {
+                index(message.getId(), message.getRoomId(), message.getContent());
+                count[0]++;
+            });
+            // Page by ID instead of streaming one result, which needs a driver-specific fetch size
+            long[] lastId = {afterId};
+            int[] rows = new int[1];
+            do {
+                rows[0] = 0;
+                jdbcTemplate.query("SELECT id, room_id, content FROM messages WHERE id > ? ORDER BY id LIMIT ?",
+                        resultSet -> {
+                            lastId[0] = resultSet.getLong(1);
+                            index(lastId[0], resultSet.getLong(2), resultSet.getString(3));
+                            rows[0]++;
+                        }, lastId[0], CATCH_UP_PAGE_SIZE);
+                count[0] += rows[0];
+            } while (rows[0] == CATCH_UP_PAGE_SIZE);
+            // After the table, so a message archived meanwhile was either read above or is read here
+            if (fromScratch && messageArchive.isEnabled()) {
+                for (Long roomId : messageArchive.getRoomIds()) {
+                    messageArchive.iterate(roomId).forEachRemaining(message -> {
+                        index(message.getId(), message.getRoomId(), message.getContent());
+                        count[0]++;
+                    });
+                }
+            }
+            log.info("Search index caught up with {} message(s) in {} ms",
+                    count[0], System.currentTimeMillis() - start);
+            coveredUpTo = Long.MAX_VALUE;
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Search index catch-up failed: {}", e.getMessage());
+        } finally {
+            catchingUp = false;
+        }
+    }
+
+    /**
+     * Replace every segment with one holding the whole index
+     */
+    private void compact(List<Path> segments, long upTo) throws IOException {
+        SegmentFile.write(nextSegmentPath(), upTo, rooms);
+        // Older segments are fully covered by the one just written
+        for (Path segment : segments) {
+            Files.deleteIfExists(segment);
+        }
+    }
+
+    private void requeue(Map<Long, RoomIndex> pending) {
+        flushLock.readLock().lock();
+        try {
+            pending.forEach((roomId, room) -> {
+                RoomIndex target = unflushed.computeIfAbsent(roomId, id -> new RoomIndex());
+                room.forEach((term, postings) -> {
+                    for (int i = 0; i < postings.size(); i++) {
+                        target.add(term, postings.get(i));
+                    }
+                });
+            });
+        } finally {
+            flushLock.readLock().unlock();
+        }
+    }
+
+    private Path nextSegmentPath() {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX));
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().toList();
+        }
+    }
+
+    private static long segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * A message sent on another node, to be indexed here as well
+     */
+    private static final class IndexMessage extends ClusterMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final long messageId;
+        private final Long roomId;
+        private final String content;
+
+        private IndexMessage(long messageId, Long roomId, String content) {
+            this.messageId = messageId;
+            this.roomId = roomId;
+            this.content = content;
+        }
+    }
+}
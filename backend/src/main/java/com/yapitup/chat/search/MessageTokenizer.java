@@ -0,0 +1,47 @@
+package com.yapitup.chat.search;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits message text into lowercase search terms: runs of letters and
+ * digits, at least two characters long, capped at {@link #MAX_TERM_LENGTH}.
+ */
+public final class MessageTokenizer {
+
+    public static final int MIN_TERM_LENGTH = 2;
+    public static final int MAX_TERM_LENGTH = 64;
+
+    private MessageTokenizer() {
+    }
+
+    /**
+     * Distinct terms of the text, in order of first appearance
+     */
+    public static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                addTerm(terms, text.substring(start, i));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private static void addTerm(Set<String> terms, String word) {
+        if (word.length() < MIN_TERM_LENGTH) {
+            return;
+        }
+        String term = word.toLowerCase(Locale.ROOT);
+        terms.add(term.length() > MAX_TERM_LENGTH ? term.substring(0, MAX_TERM_LENGTH) : term);
+    }
+}
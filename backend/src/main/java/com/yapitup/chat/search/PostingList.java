@@ -0,0 +1,77 @@
+package com.yapitup.chat.search;
+
+import java.util.Arrays;
+
+/**
+ * Message IDs containing one term in one room, kept sorted ascending.
+ * IDs are assigned in increasing order, so nearly every add is an append;
+ * the occasional out-of-order ID is inserted in place. Not thread-safe - the
+ * owning room index synchronizes access.
+ */
+public class PostingList {
+
+    private long[] ids;
+    private int size;
+
+    public PostingList() {
+        this(4);
+    }
+
+    public PostingList(int capacity) {
+        ids = new long[Math.max(capacity, 1)];
+    }
+
+    /**
+     * @return true if the ID was not already present
+     */
+    public boolean add(long id) {
+        if (size == 0 || id > ids[size - 1]) {
+            ensureCapacity(size + 1);
+            ids[size++] = id;
+            return true;
+        }
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index >= 0) {
+            return false;
+        }
+        int insertAt = -index - 1;
+        ensureCapacity(size + 1);
+        System.arraycopy(ids, insertAt, ids, insertAt + 1, size - insertAt);
+        ids[insertAt] = id;
+        size++;
+        return true;
+    }
+
+    public boolean contains(long id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    /**
+     * Position of the newest ID below the bound, or -1 if there is none
+     */
+    public int lastIndexBelow(long bound) {
+        int index = Arrays.binarySearch(ids, 0, size, bound);
+        return (index >= 0 ? index : -index - 1) - 1;
+    }
+
+    public long get(int index) {
+        return ids[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copy of the IDs, ascending
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(capacity, ids.length * 2));
+        }
+    }
+}
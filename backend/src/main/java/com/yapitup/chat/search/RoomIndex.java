@@ -0,0 +1,74 @@
+package com.yapitup.chat.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Inverted index of one room: term -> IDs of the room's messages containing it
+ */
+public class RoomIndex {
+
+    private final Map<String, PostingList> postings = new HashMap<>();
+
+    /**
+     * @return true if the message was not already listed under the term
+     */
+    public synchronized boolean add(String term, long messageId) {
+        return postings.computeIfAbsent(term, t -> new PostingList()).add(messageId);
+    }
+
+    /**
+     * IDs of messages containing every term, newest first, below {@code beforeId}
+     *
+     * @param limit at most this many IDs are returned
+     */
+    public synchronized List<Long> search(Collection<String> terms, long beforeId, int limit) {
+        List<PostingList> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            PostingList list = postings.get(term);
+            if (list == null) {
+                return List.of();
+            }
+            lists.add(list);
+        }
+        if (lists.isEmpty()) {
+            return List.of();
+        }
+
+        // Walk the rarest term's postings and probe the others
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        PostingList rarest = lists.get(0);
+        List<Long> matches = new ArrayList<>(Math.min(limit, 64));
+        for (int i = rarest.lastIndexBelow(beforeId); i >= 0 && matches.size() < limit; i--) {
+            long id = rarest.get(i);
+            boolean inAll = true;
+            for (int j = 1; j < lists.size() && inAll; j++) {
+                inAll = lists.get(j).contains(id);
+            }
+            if (inAll) {
+                matches.add(id);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Visit every term and its postings
+     */
+    public synchronized void forEach(BiConsumer<String, PostingList> visitor) {
+        postings.forEach(visitor);
+    }
+
+    /**
+     * Copy of every term's postings (for writing a segment without holding the room)
+     */
+    public synchronized Map<String, long[]> snapshot() {
+        Map<String, long[]> copy = new HashMap<>(postings.size() * 2);
+        postings.forEach((term, list) -> copy.put(term, list.toArray()));
+        return copy;
+    }
+}
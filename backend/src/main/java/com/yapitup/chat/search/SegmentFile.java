@@ -0,0 +1,148 @@
+package com.yapitup.chat.search;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * On-disk format of an index segment: an immutable file holding postings
+ * for any number of rooms.
+ * <pre>
+ * int magic, int version, long maxMessageId, int roomCount
+ *   per room: long roomId, int termCount
+ *     per term: UTF term, varint postingCount, varint IDs (first absolute, then deltas)
+ * long CRC32 of everything above
+ * </pre>
+ * Written to a temporary file and renamed into place, so a segment is either
+ * complete or absent.
+ */
+public final class SegmentFile {
+
+    private static final int MAGIC = 0x59534958; // "YSIX"
+    private static final int VERSION = 1;
+
+    /**
+     * Receives the postings of one term in one room
+     */
+    @FunctionalInterface
+    public interface PostingVisitor {
+        void visit(long roomId, String term, long[] messageIds);
+    }
+
+    private SegmentFile() {
+    }
+
+    public static void write(Path path, long maxMessageId, Map<Long, RoomIndex> rooms) throws IOException {
+        // Rooms indexed while writing would make the count disagree with the entries
+        List<Map.Entry<Long, RoomIndex>> entries = List.copyOf(rooms.entrySet());
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+            BufferedOutputStream buffered = new BufferedOutputStream(file, 1 << 16);
+            CheckedOutputStream checked = new CheckedOutputStream(buffered, new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(maxMessageId);
+            out.writeInt(entries.size());
+            for (Map.Entry<Long, RoomIndex> entry : entries) {
+                // Copied under the room's lock, written without it so indexing does not wait on the disk
+                Map<String, long[]> terms = entry.getValue().snapshot();
+                out.writeLong(entry.getKey());
+                out.writeInt(terms.size());
+                for (Map.Entry<String, long[]> term : terms.entrySet()) {
+                    writeTerm(out, term.getKey(), term.getValue());
+                }
+            }
+            out.flush();
+
+            new DataOutputStream(buffered).writeLong(checked.getChecksum().getValue());
+            buffered.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Read a segment, handing every term's postings to the visitor
+     *
+     * @return the highest message ID indexed when the segment was written
+     * @throws IOException if the file is unreadable or fails its checksum
+     */
+    public static long read(Path path, PostingVisitor visitor) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < Long.BYTES) {
+            throw new IOException("Truncated segment " + path);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Long.BYTES);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        in.skipNBytes(bytes.length - Long.BYTES);
+        if (in.readLong() != crc.getValue()) {
+            throw new IOException("Checksum mismatch in segment " + path);
+        }
+
+        in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - Long.BYTES));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a version " + VERSION + " index segment: " + path);
+        }
+        long maxMessageId = in.readLong();
+        int roomCount = in.readInt();
+        for (int r = 0; r < roomCount; r++) {
+            long roomId = in.readLong();
+            int termCount = in.readInt();
+            for (int t = 0; t < termCount; t++) {
+                String term = in.readUTF();
+                long[] ids = new long[(int) readVarLong(in)];
+                long previous = 0;
+                for (int i = 0; i < ids.length; i++) {
+                    previous += readVarLong(in);
+                    ids[i] = previous;
+                }
+                visitor.visit(roomId, term, ids);
+            }
+        }
+        return maxMessageId;
+    }
+
+    private static void writeTerm(DataOutputStream out, String term, long[] ids) throws IOException {
+        out.writeUTF(term);
+        writeVarLong(out, ids.length);
+        long previous = 0;
+        for (long id : ids) {
+            writeVarLong(out, id - previous);
+            previous = id;
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new EOFException("Malformed varint");
+    }
+}
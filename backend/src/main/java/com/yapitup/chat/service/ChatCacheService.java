@@ -0,0 +1,126 @@
+package com.yapitup.chat.service;
+
+import com.yapitup.chat.model.ChatRoom;
+import com.yapitup.chat.model.User;
+import com.yapitup.chat.repository.ChatRoomRepository;
+import com.yapitup.chat.repository.UserRepository;
+import com.yapitup.chat.util.LruCache;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+
+/**
+ * In-memory cache of user identity (id to username) and room metadata.
+ * Lets the Socket.IO event path skip the database in the common case; entries
+ * are filled on connect or on first lookup. Users and rooms are never renamed
+ * or deleted, so entries do not go stale; unknown room IDs are remembered
+ * briefly so bogus IDs do not reach the database on every event.
+ */
+@Service
+public class ChatCacheService {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Value("${chat.cache.max-users:100000}")
+    private int maxUsers;
+
+    @Value("${chat.cache.max-rooms:10000}")
+    private int maxRooms;
+
+    @Value("${chat.cache.missing-room-ttl-ms:5000}")
+    private long missingRoomTtlMs;
+
+    // userId -> username
+    private LruCache<Long, String> usernames;
+
+    // roomId -> room name (presence means the room exists)
+    private LruCache<Long, String> roomNames;
+
+    // roomId -> when its "not found" expires, so unknown IDs do not reach the database each time
+    private LruCache<Long, Long> missingRooms;
+
+    @PostConstruct
+    public void init() {
+        usernames = new LruCache<>(maxUsers);
+        roomNames = new LruCache<>(maxRooms);
+        missingRooms = new LruCache<>(maxRooms);
+    }
+
+    /**
+     * Remember a user's identity (e.g. from a verified JWT)
+     */
+    public void putUser(Long userId, String username) {
+        if (userId != null && username != null) {
+            usernames.put(userId, username);
+        }
+    }
+
+    /**
+     * Get a username, loading it from the database on a cache miss
+     */
+    public Optional<String> getUsername(Long userId) {
+        String username = usernames.get(userId);
+        if (username != null) {
+            return Optional.of(username);
+        }
+
+        Optional<String> loaded = userRepository.findById(userId).map(User::getUsername);
+        loaded.ifPresent(name -> usernames.put(userId, name));
+        return loaded;
+    }
+
+    /**
+     * Remember a room's metadata after it is created or loaded
+     */
+    public void putRoom(Long roomId, String name) {
+        if (roomId != null && name != null) {
+            roomNames.put(roomId, name);
+            missingRooms.remove(roomId);
+        }
+    }
+
+    /**
+     * Check that a room exists, loading it from the database on a cache miss
+     */
+    public boolean roomExists(Long roomId) {
+        return getRoomName(roomId).isPresent();
+    }
+
+    /**
+     * Get a room's name, loading it from the database on a cache miss.
+     * A room found missing stays missing for chat.cache.missing-room-ttl-ms.
+     */
+    public Optional<String> getRoomName(Long roomId) {
+        String name = roomNames.get(roomId);
+        if (name != null) {
+            return Optional.of(name);
+        }
+        Long missingUntil = missingRooms.get(roomId);
+        if (missingUntil != null && missingUntil > System.currentTimeMillis()) {
+            return Optional.empty();
+        }
+
+        Optional<String> loaded = chatRoomRepository.findById(roomId).map(ChatRoom::getName);
+        if (loaded.isPresent()) {
+            roomNames.put(roomId, loaded.get());
+            missingRooms.remove(roomId);
+        } else {
+            missingRooms.put(roomId, System.currentTimeMillis() + missingRoomTtlMs);
+        }
+        return loaded;
+    }
+
+    /**
+     * Rooms were created (on any node) - stop answering "not found" from the cache
+     */
+    public void forgetMissingRooms() {
+        missingRooms.clear();
+    }
+}
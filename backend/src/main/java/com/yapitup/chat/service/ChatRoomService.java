@@ -1,14 +1,16 @@
 package com.yapitup.chat.service;
 
+import com.yapitup.chat.datasource.ReplicaReads;
 import com.yapitup.chat.dto.ChatRoomDTO;
+import com.yapitup.chat.dto.ChatRoomPageDTO;
 import com.yapitup.chat.model.ChatRoom;
 import com.yapitup.chat.model.User;
 import com.yapitup.chat.repository.ChatRoomRepository;
 import com.yapitup.chat.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -24,26 +26,37 @@ public class ChatRoomService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private ChatCacheService chatCacheService;
+
+    @Autowired
+    private RoomDirectoryCache roomDirectoryCache;
+
+    @Autowired
+    private RoomMembershipService roomMembershipService;
+
+    @Autowired
+    private ReplicaReads replicaReads;
+
     /**
-     * Get all chat rooms
+     * Get all chat rooms (cached; member counts come from one aggregate query)
      */
     public List<ChatRoomDTO> getAllRooms() {
-        List<ChatRoom> rooms = chatRoomRepository.findAll();
-        List<ChatRoomDTO> roomDTOs = new ArrayList<>();
-
-        for (ChatRoom room : rooms) {
-            roomDTOs.add(convertToDTO(room));
-        }
+        return roomDirectoryCache.getAllRooms();
+    }
 
-        return roomDTOs;
+    /**
+     * Get one page of rooms
+     */
+    public ChatRoomPageDTO getRoomPage(int page, int size, String sort, Sort.Direction direction) {
+        return roomDirectoryCache.getPage(page, size, sort, direction);
     }
 
     /**
      * Get room by ID
      */
     public Optional<ChatRoomDTO> getRoomById(Long id) {
-        Optional<ChatRoom> room = chatRoomRepository.findById(id);
-        return room.map(this::convertToDTO);
+        return replicaReads.read(ReplicaReads.ROOMS, () -> chatRoomRepository.findSummaryById(id));
     }
 
     /**
@@ -64,49 +77,40 @@ public class ChatRoomService {
         room.getMembers().add(userOpt.get());
 
         ChatRoom savedRoom = chatRoomRepository.save(room);
+        chatCacheService.putRoom(savedRoom.getId(), savedRoom.getName());
+        roomMembershipService.recordJoined(savedRoom.getId(), createdById);
+        roomDirectoryCache.invalidate();
         return convertToDTO(savedRoom);
     }
 
     /**
-     * Join a room
+     * Join a room (one INSERT IGNORE on room_members)
      */
     public boolean joinRoom(Long roomId, Long userId) {
-        Optional<ChatRoom> roomOpt = chatRoomRepository.findById(roomId);
-        Optional<User> userOpt = userRepository.findById(userId);
-
-        if (roomOpt.isEmpty() || userOpt.isEmpty()) {
+        if (!chatCacheService.roomExists(roomId) || chatCacheService.getUsername(userId).isEmpty()) {
             return false;
         }
 
-        ChatRoom room = roomOpt.get();
-        User user = userOpt.get();
-
         // Add user to room if not already a member
-        if (!room.getMembers().contains(user)) {
-            room.getMembers().add(user);
-            chatRoomRepository.save(room);
+        if (roomMembershipService.join(roomId, userId)) {
+            roomDirectoryCache.invalidate();
         }
 
         return true;
     }
 
     /**
-     * Leave a room
+     * Leave a room (one DELETE on room_members)
      */
     public boolean leaveRoom(Long roomId, Long userId) {
-        Optional<ChatRoom> roomOpt = chatRoomRepository.findById(roomId);
-        Optional<User> userOpt = userRepository.findById(userId);
-
-        if (roomOpt.isEmpty() || userOpt.isEmpty()) {
+        if (!chatCacheService.roomExists(roomId) || chatCacheService.getUsername(userId).isEmpty()) {
             return false;
         }
 
-        ChatRoom room = roomOpt.get();
-        User user = userOpt.get();
-
         // Remove user from room
-        room.getMembers().remove(user);
-        chatRoomRepository.save(room);
+        if (roomMembershipService.leave(roomId, userId)) {
+            roomDirectoryCache.invalidate();
+        }
 
         return true;
     }
@@ -0,0 +1,103 @@
+package com.yapitup.chat.service;
+
+import com.yapitup.chat.cluster.ClusterNode;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-ordered 64-bit message IDs, assigned in the application so messages
+ * can be written in batches without reading generated keys back.
+ * Layout: 41 bits of milliseconds since 2024-01-01 UTC (about 69 years), 5
+ * bits of worker ID and a 7-bit sequence (128 IDs per millisecond per worker).
+ * That is 53 bits in all, so IDs stay exact as JavaScript numbers. IDs from
+ * one worker always increase; IDs from different workers are ordered by time
+ * to within the clocks' skew.
+ * If the clock steps back, or a millisecond's sequence runs out, the worker
+ * keeps counting from its last ID instead of waiting, so the embedded time
+ * may run slightly ahead until the clock catches up.
+ */
+@Component
+@DependsOn("entityManagerFactory") // messages table must exist before reading the newest ID
+public class MessageIdGenerator {
+
+    private static final long EPOCH_MILLIS = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+
+    private static final int WORKER_BITS = 5;
+    private static final int SEQUENCE_BITS = 7;
+
+    // Where the timestamp starts; an ID shifted right by this is milliseconds since the epoch above
+    public static final int TIMESTAMP_SHIFT = WORKER_BITS + SEQUENCE_BITS;
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    // Unique per node in a cluster, where it must be set; -1 (unset) means 0 on a single node
+    @Value("${chat.ids.worker-id:-1}")
+    private long workerId;
+
+    // Timestamp and sequence of the last ID handed out (the ID without its worker bits)
+    private final AtomicLong last = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (workerId < 0) {
+            // A worker ID derived from the random node ID collides 1 time in 32, and duplicate IDs lose messages
+            if (clusterNode.isEnabled()) {
+                throw new IllegalStateException(
+                        "chat.ids.worker-id must be set to a value unique per node when clustering is enabled");
+            }
+            workerId = 0;
+        }
+        if (workerId > MAX_WORKER_ID) {
+            throw new IllegalStateException("chat.ids.worker-id must be between 0 and " + MAX_WORKER_ID);
+        }
+
+        // Never go below an ID already stored, whatever the clock says after a restart
+        Long maxId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM messages", Long.class);
+        if (maxId != null) {
+            advancePast(maxId);
+        }
+    }
+
+    /**
+     * Make sure every ID handed out from now on is above one issued elsewhere
+     * (stored before startup, or replayed from the commit log)
+     */
+    public void advancePast(long id) {
+        last.accumulateAndGet(id >>> TIMESTAMP_SHIFT << SEQUENCE_BITS | ((1L << SEQUENCE_BITS) - 1), Math::max);
+    }
+
+    public long nextId() {
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        // Sequence overflow carries into the timestamp bits
+        long next = last.accumulateAndGet(now, (previous, clock) -> Math.max(previous + 1, clock));
+        long timestamp = next >>> SEQUENCE_BITS;
+        long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+        return timestamp << TIMESTAMP_SHIFT | workerId << SEQUENCE_BITS | sequence;
+    }
+
+    /**
+     * When an ID was generated, in epoch milliseconds
+     */
+    public static long timestampOf(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH_MILLIS;
+    }
+
+    /**
+     * The lowest ID that can be generated at a time, in epoch milliseconds
+     */
+    public static long firstIdAt(long epochMillis) {
+        return Math.max(0, epochMillis - EPOCH_MILLIS) << TIMESTAMP_SHIFT;
+    }
+}
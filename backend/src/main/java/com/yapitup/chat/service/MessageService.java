@@ -1,21 +1,37 @@
 package com.yapitup.chat.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yapitup.chat.archive.MessageArchive;
+import com.yapitup.chat.datasource.ReplicaReads;
 import com.yapitup.chat.dto.MessageDTO;
-import com.yapitup.chat.model.ChatRoom;
+import com.yapitup.chat.dto.MessageHistoryDTO;
 import com.yapitup.chat.model.Message;
-import com.yapitup.chat.model.User;
-import com.yapitup.chat.repository.ChatRoomRepository;
 import com.yapitup.chat.repository.MessageRepository;
-import com.yapitup.chat.repository.UserRepository;
+import com.yapitup.chat.search.MessageSearchIndex;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 
 /**
  * Service for message operations
@@ -27,61 +43,352 @@ public class MessageService {
     private MessageRepository messageRepository;
 
     @Autowired
-    private ChatRoomRepository chatRoomRepository;
+    private MessageWriteBehindService messageWriteBehindService;
 
     @Autowired
-    private UserRepository userRepository;
+    private ChatCacheService chatCacheService;
+
+    @Autowired
+    private RoomHistoryCache roomHistoryCache;
+
+    @Autowired
+    private RoomMembershipService roomMembershipService;
+
+    @Autowired
+    private MessageSearchIndex messageSearchIndex;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // History reads that may go to a read replica
+    @Autowired
+    private ReplicaReads replicaReads;
+
+    // Messages past their maximum age, moved out of the messages table
+    @Autowired
+    private MessageArchive messageArchive;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // How long a REST send waits for its message to be persisted
+    @Value("${chat.persistence.rest-timeout-ms:5000}")
+    private long restTimeoutMs;
 
     /**
-     * Send a message
+     * Send a message, returning once it is persisted
+     *
+     * @throws IllegalStateException if the message could not be persisted
      */
     public MessageDTO sendMessage(Long roomId, Long userId, String content) {
-        Optional<ChatRoom> roomOpt = chatRoomRepository.findById(roomId);
-        Optional<User> userOpt = userRepository.findById(userId);
+        Optional<String> usernameOpt = chatCacheService.getUsername(userId);
 
-        if (roomOpt.isEmpty()) {
+        if (!chatCacheService.roomExists(roomId)) {
             throw new RuntimeException("Room not found");
         }
 
-        if (userOpt.isEmpty()) {
+        if (usernameOpt.isEmpty()) {
             throw new RuntimeException("User not found");
         }
 
-        Message message = new Message();
-        message.setRoom(roomOpt.get());
-        message.setUser(userOpt.get());
-        message.setContent(content);
+        if (!roomMembershipService.isAllowed(roomId, userId)) {
+            throw new RuntimeException("Not a member of this room");
+        }
+
+        // Same write-behind pipeline as socket sends, so message IDs stay in one sequence
+        CompletableFuture<Boolean> persisted = new CompletableFuture<>();
+        MessageDTO message = messageWriteBehindService.enqueue(
+                roomId, userId, usernameOpt.get(), content,
+                (messageId, written) -> {
+                    if (!written) {
+                        roomHistoryCache.remove(roomId, messageId);
+                    }
+                    persisted.complete(written);
+                });
+        if (message == null) {
+            throw new RuntimeException("Server is busy, please try again");
+        }
+        roomHistoryCache.append(message);
+        messageSearchIndex.index(message);
+
+        // REST clients get no message_persisted event, so they are answered once the write is done
+        try {
+            if (!persisted.get(restTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Message could not be saved");
+            }
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Timed out saving message");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Message could not be saved");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while saving message");
+        }
+        return message;
+    }
+
+    /**
+     * Search a room's messages for every term of the query, newest first.
+     * Pass the previous page's nextCursor (a message ID) as {@code before}.
+     *
+     * @throws SecurityException if the user is not a member of the room
+     */
+    public MessageHistoryDTO searchMessages(Long roomId, Long userId, String query, Long before, int size) {
+        if (!roomMembershipService.isAllowed(roomId, userId)) {
+            throw new SecurityException("Not a member of this room");
+        }
+
+        List<Long> hits = messageSearchIndex.search(roomId, query, before, size + 1);
+        boolean hasMore = hits.size() > size;
+        if (hasMore) {
+            hits = hits.subList(0, size);
+        }
+
+        // One query for the page, plus the archive for older hits; keep the index's newest-first order
+        long archivedUpTo = messageArchive.getArchivedUpTo(roomId);
+        List<Long> archivedIds = new ArrayList<>();
+        List<Long> tableIds = new ArrayList<>();
+        for (Long id : hits) {
+            (id <= archivedUpTo ? archivedIds : tableIds).add(id);
+        }
+        Map<Long, MessageDTO> byId = new HashMap<>(messageArchive.findByIds(roomId, archivedIds));
+        if (!tableIds.isEmpty()) {
+            for (Message message : replicaReads.readMessages(roomId, userId,
+                    () -> messageRepository.findAllWithUserByIdIn(tableIds))) {
+                byId.put(message.getId(), convertToDTO(message));
+            }
+        }
+        List<MessageDTO> messageDTOs = new ArrayList<>();
+        for (Long id : hits) {
+            // Missing if still queued for write-behind or never persisted
+            MessageDTO message = byId.get(id);
+            if (message != null) {
+                messageDTOs.add(message);
+            }
+        }
 
-        Message savedMessage = messageRepository.save(message);
-        return convertToDTO(savedMessage);
+        String nextCursor = hasMore ? String.valueOf(hits.get(hits.size() - 1)) : null;
+        return new MessageHistoryDTO(messageDTOs, hasMore, nextCursor);
     }
 
     /**
      * Get messages for a room (with pagination)
+     *
+     * @param userId the reader, whose own recent messages are read from the primary; may be null
      */
-    public List<MessageDTO> getMessagesByRoom(Long roomId, int page, int size) {
+    public List<MessageDTO> getMessagesByRoom(Long roomId, Long userId, int page, int size) {
+        // The newest page usually comes straight from memory
+        if (page == 0) {
+            Slice<MessageDTO> cached = roomHistoryCache.getLatest(roomId, size, () -> loadLatest(roomId));
+            if (cached != null) {
+                return cached.getContent();
+            }
+        }
+
+        long archivedUpTo = messageArchive.getArchivedUpTo(roomId);
         Pageable pageable = PageRequest.of(page, size);
-        Page<Message> messagePage = messageRepository.findByRoomIdOrderByCreatedAtDesc(roomId, pageable);
+        Slice<Message> messagePage = replicaReads.readMessages(roomId, userId,
+                () -> messageRepository.findByRoomIdAndIdGreaterThanOrderByIdDesc(roomId, archivedUpTo, pageable));
 
-        List<MessageDTO> messageDTOs = new ArrayList<>();
-        for (Message message : messagePage.getContent()) {
-            messageDTOs.add(convertToDTO(message));
+        List<MessageDTO> messageDTOs = toDTOs(messagePage.getContent(), archivedUpTo);
+
+        if (messageDTOs.size() < size && archivedUpTo > 0) {
+            // Paged past the oldest message in the table: the rest comes from the archive
+            long skipped = (long) page * size;
+            long inTable = !messageDTOs.isEmpty() ? skipped + messageDTOs.size()
+                    : replicaReads.readMessages(roomId, userId,
+                            () -> messageRepository.countByRoomIdAndIdGreaterThan(roomId, archivedUpTo));
+            messageDTOs.addAll(messageArchive.findPage(roomId, Math.max(0, skipped - inTable), size - messageDTOs.size()));
         }
 
         return messageDTOs;
     }
 
+    /**
+     * Get messages for a room using a keyset cursor.
+     * With {@code before} the page holds older messages, newest first; with
+     * {@code after} it holds newer messages, oldest first; with neither it is
+     * the newest page. Either cursor is a message ID, as returned in
+     * {@code nextCursor}; message IDs are time-ordered.
+     * The older {@code <createdAt>_<id>} cursors are still accepted.
+     *
+     * @param userId the reader, whose own recent messages are read from the primary; may be null
+     */
+    public MessageHistoryDTO getMessageHistory(Long roomId, Long userId, String before, String after, int size) {
+        if (before != null && after != null) {
+            throw new IllegalArgumentException("Use either 'before' or 'after', not both");
+        }
+
+        if (before == null && after == null) {
+            Slice<MessageDTO> cached = roomHistoryCache.getLatest(roomId, size, () -> loadLatest(roomId));
+            if (cached != null) {
+                List<MessageDTO> messages = cached.getContent();
+                String nextCursor = messages.isEmpty() ? null : toCursor(messages.get(messages.size() - 1));
+                return new MessageHistoryDTO(messages, cached.hasNext(), nextCursor);
+            }
+        }
+
+        long archivedUpTo = messageArchive.getArchivedUpTo(roomId);
+        if (after != null) {
+            return getNewerMessages(roomId, userId, parseCursor(after), archivedUpTo, size);
+        }
+
+        Long cursor = before != null ? parseCursor(before) : null;
+        Pageable limit = PageRequest.of(0, size);
+        Slice<Message> slice = replicaReads.readMessages(roomId, userId, cursor != null
+                ? () -> messageRepository.findBefore(roomId, cursor, limit)
+                : () -> messageRepository.findLatest(roomId, limit));
+
+        List<MessageDTO> messageDTOs = toDTOs(slice.getContent(), archivedUpTo);
+        boolean hasMore = slice.hasNext() && messageDTOs.size() == slice.getNumberOfElements();
+
+        if (!hasMore && archivedUpTo > 0) {
+            // The table has nothing older; continue into the archive
+            long olderThan = !messageDTOs.isEmpty() ? messageDTOs.get(messageDTOs.size() - 1).getId()
+                    : cursor != null ? cursor : Long.MAX_VALUE;
+            int remaining = size - messageDTOs.size();
+            List<MessageDTO> archived = messageArchive.findBefore(roomId, olderThan, remaining + 1);
+            hasMore = archived.size() > remaining;
+            messageDTOs.addAll(archived.subList(0, Math.min(archived.size(), remaining)));
+        }
+
+        // Cursor for the next page in the same direction
+        String nextCursor = messageDTOs.isEmpty() ? null : toCursor(messageDTOs.get(messageDTOs.size() - 1));
+
+        return new MessageHistoryDTO(messageDTOs, hasMore, nextCursor);
+    }
+
+    /**
+     * Messages newer than the cursor, oldest first: from the archive while
+     * the cursor is in it, then from the table
+     */
+    private MessageHistoryDTO getNewerMessages(Long roomId, Long userId, long cursor, long archivedUpTo, int size) {
+        List<MessageDTO> messageDTOs = new ArrayList<>();
+        if (cursor < archivedUpTo) {
+            messageDTOs.addAll(messageArchive.findAfter(roomId, cursor, size + 1));
+        }
+
+        boolean hasMore;
+        if (messageDTOs.size() > size) {
+            messageDTOs = new ArrayList<>(messageDTOs.subList(0, size));
+            hasMore = true;
+        } else {
+            int remaining = size - messageDTOs.size();
+            long newerThan = Math.max(cursor, archivedUpTo);
+            // With the page already full, one row tells whether there is more
+            Pageable limit = PageRequest.of(0, Math.max(remaining, 1));
+            Slice<Message> slice = replicaReads.readMessages(roomId, userId,
+                    () -> messageRepository.findAfter(roomId, newerThan, limit));
+            if (remaining == 0) {
+                hasMore = slice.hasContent();
+            } else {
+                messageDTOs.addAll(toDTOs(slice.getContent(), archivedUpTo));
+                hasMore = slice.hasNext();
+            }
+        }
+
+        String nextCursor = messageDTOs.isEmpty() ? null : toCursor(messageDTOs.get(messageDTOs.size() - 1));
+        return new MessageHistoryDTO(messageDTOs, hasMore, nextCursor);
+    }
+
+    /**
+     * Load the newest messages of a room to warm the in-memory history.
+     * Always from the primary: the send path keeps the buffer current from
+     * then on, so it must not start out behind. A quiet room's newest
+     * messages may already be in the archive.
+     */
+    private List<MessageDTO> loadLatest(Long roomId) {
+        int depth = roomHistoryCache.getDepth();
+        // Sent but not written yet, so not in the query below; read first, as they only leave once written
+        List<MessageDTO> unwritten = messageWriteBehindService.getUnwritten(roomId);
+        long archivedUpTo = messageArchive.getArchivedUpTo(roomId);
+        Slice<Message> slice = messageRepository.findLatest(roomId, PageRequest.of(0, depth));
+        List<MessageDTO> messageDTOs = toDTOs(slice.getContent(), archivedUpTo);
+        if (messageDTOs.size() < depth && archivedUpTo > 0) {
+            long olderThan = !messageDTOs.isEmpty() ? messageDTOs.get(messageDTOs.size() - 1).getId() : Long.MAX_VALUE;
+            messageDTOs.addAll(messageArchive.findBefore(roomId, olderThan, depth - messageDTOs.size()));
+        }
+        if (unwritten.isEmpty()) {
+            return messageDTOs;
+        }
+
+        Map<Long, MessageDTO> byId = new HashMap<>();
+        for (MessageDTO message : messageDTOs) {
+            byId.put(message.getId(), message);
+        }
+        for (MessageDTO message : unwritten) {
+            byId.putIfAbsent(message.getId(), message);
+        }
+        List<MessageDTO> merged = new ArrayList<>(byId.values());
+        merged.sort(Comparator.comparing(MessageDTO::getId).reversed());
+        return merged.subList(0, Math.min(depth, merged.size()));
+    }
+
     /**
      * Get all messages for a room (no pagination - for simplicity)
      */
-    public List<MessageDTO> getAllMessagesByRoom(Long roomId) {
-        List<Message> messages = messageRepository.findByRoomIdOrderByCreatedAtAsc(roomId);
+    public List<MessageDTO> getAllMessagesByRoom(Long roomId, Long userId) {
+        long archivedUpTo = messageArchive.getArchivedUpTo(roomId);
+        List<Message> messages = replicaReads.readMessages(roomId, userId,
+                () -> messageRepository.findByRoomIdAndIdGreaterThanOrderByIdAsc(roomId, archivedUpTo));
         List<MessageDTO> messageDTOs = new ArrayList<>();
 
-        for (Message message : messages) {
-            messageDTOs.add(convertToDTO(message));
+        messageArchive.iterate(roomId).forEachRemaining(messageDTOs::add);
+        messageDTOs.addAll(toDTOs(messages, archivedUpTo));
+
+        return messageDTOs;
+    }
+
+    /**
+     * Write every message of a room to the output stream as NDJSON (one
+     * MessageDTO per line, oldest first). Archived messages are read a block
+     * at a time, then table rows through a forward-only cursor, detached once
+     * written, so memory use does not grow with the room.
+     *
+     * @param userId the reader, whose own recent messages are read from the primary; may be null
+     */
+    @Transactional(readOnly = true)
+    public void exportMessagesByRoom(Long roomId, Long userId, OutputStream out) throws IOException {
+        int written = 0;
+        Iterator<MessageDTO> archived = messageArchive.iterate(roomId);
+        while (archived.hasNext()) {
+            out.write(objectMapper.writeValueAsBytes(archived.next()));
+            out.write('\n');
+            if (++written % 500 == 0) {
+                out.flush();
+            }
         }
 
+        long archivedUpTo = messageArchive.getArchivedUpTo(roomId);
+        try (Stream<Message> messages = replicaReads.readMessages(roomId, userId,
+                () -> messageRepository.streamByRoomId(roomId, archivedUpTo))) {
+            Iterator<Message> iterator = messages.iterator();
+            while (iterator.hasNext()) {
+                Message message = iterator.next();
+                out.write(objectMapper.writeValueAsBytes(convertToDTO(message)));
+                out.write('\n');
+                entityManager.detach(message);
+
+                // Push what we have to the client regularly instead of buffering it
+                if (++written % 500 == 0) {
+                    out.flush();
+                }
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Convert table rows to DTOs, leaving out any the archive already holds
+     * (rows of a segment that were not deleted yet)
+     */
+    private List<MessageDTO> toDTOs(List<Message> messages, long archivedUpTo) {
+        List<MessageDTO> messageDTOs = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            if (message.getId() > archivedUpTo) {
+                messageDTOs.add(convertToDTO(message));
+            }
+        }
         return messageDTOs;
     }
 
@@ -98,9 +405,24 @@ public class MessageService {
         if (message.getCreatedAt() != null) {
             dto.setCreatedAt(message.getCreatedAt().toString());
         }
+        return dto;
+    }
 
+    /**
+     * Build the history cursor pointing at a message
+     */
+    private String toCursor(MessageDTO message) {
+        return String.valueOf(message.getId());
+    }
 
-        
-        return dto;
+    /**
+     * Parse a history cursor - a message ID, or an older {@code <createdAt>_<id>} tuple
+     */
+    private Long parseCursor(String value) {
+        try {
+            return Long.valueOf(value.substring(value.lastIndexOf('_') + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + value);
+        }
     }
 }
\ No newline at end of file
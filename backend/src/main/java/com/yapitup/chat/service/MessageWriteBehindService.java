@@ -0,0 +1,712 @@
+package com.yapitup.chat.service;
+
+import com.yapitup.chat.commitlog.CommitLog;
+import com.yapitup.chat.datasource.ReplicaReads;
+import com.yapitup.chat.dto.MessageDTO;
+import com.yapitup.chat.metrics.ChatMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind pipeline for chat messages.
+ * Messages get their ID ({@link MessageIdGenerator}) and timestamp in memory
+ * so they can be broadcast right away, and a single flusher thread writes them to the messages table in
+ * multi-row inserts once a batch fills up or the flush interval elapses.
+ * <p>
+ * With {@code chat.persistence.mode=COMMIT_LOG}, a message is instead
+ * appended to a local {@link CommitLog} and acknowledged once it is there,
+ * and the flusher becomes a replicator that tails the log into the messages
+ * table, skipping rows it already copied and retrying while the database
+ * is unavailable. At startup, whatever the log holds beyond the replicated
+ * position is copied before anything else reads the table, if the database
+ * takes it; otherwise the replicator copies it once it does.
+ */
+@Service
+public class MessageWriteBehindService {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageWriteBehindService.class);
+
+    // Pause before retrying a batch the database refused, in commit log mode
+    private static final long REPLICATION_RETRY_MS = 1000;
+
+    // Size of the messages.content column (MySQL TEXT), in UTF-8 bytes
+    public static final int MAX_CONTENT_BYTES = 65_535;
+
+    // Attempts at an insert that failed with an error that may go away (lost connection, deadlock)
+    private static final int INSERT_ATTEMPTS = 3;
+    private static final long INSERT_RETRY_MS = 100;
+
+    // Unwritten messages remembered per room, newest kept; deeper than any history cache page
+    private static final int MAX_UNWRITTEN_PER_ROOM = 500;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ChatMetrics chatMetrics;
+
+    @Autowired
+    private MessageIdGenerator messageIdGenerator;
+
+    @Autowired
+    private ReplicaReads replicaReads;
+
+    @Value("${chat.persistence.batch-size:200}")
+    private int batchSize;
+
+    @Value("${chat.persistence.flush-interval-ms:50}")
+    private long flushIntervalMs;
+
+    @Value("${chat.persistence.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${chat.persistence.mode:DATABASE}")
+    private PersistenceMode mode;
+
+    @Value("${chat.persistence.commit-log.dir:data/commit-log}")
+    private String commitLogDir;
+
+    @Value("${chat.persistence.commit-log.segment-bytes:67108864}")
+    private long segmentBytes;
+
+    @Value("${chat.persistence.commit-log.fsync:ALWAYS}")
+    private CommitLog.FsyncPolicy fsyncPolicy;
+
+    @Value("${chat.persistence.commit-log.fsync-interval-ms:100}")
+    private long fsyncIntervalMs;
+
+    /**
+     * Where a message has to be before the sender is told it is persisted
+     */
+    public enum PersistenceMode {
+        /**
+         * Committed to the messages table
+         */
+        DATABASE,
+        /**
+         * Appended to the local commit log, and copied to the messages table afterwards
+         */
+        COMMIT_LOG
+    }
+
+    private BlockingQueue<PendingMessage> queue;
+
+    private CommitLog commitLog;
+
+    // roomId -> messages accepted but not in the messages table yet, by ID
+    private final Map<Long, ConcurrentSkipListMap<Long, MessageDTO>> unwritten = new ConcurrentHashMap<>();
+
+    private Thread flusher;
+
+    private volatile boolean running;
+
+    // Sends hold the read side from the running check to the hand-off; shutdown takes the write side to stop them
+    private final ReadWriteLock acceptLock = new ReentrantReadWriteLock();
+
+    @PostConstruct
+    public void start() throws IOException {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        if (mode == PersistenceMode.COMMIT_LOG) {
+            commitLog = new CommitLog(Paths.get(commitLogDir), segmentBytes, fsyncPolicy, fsyncIntervalMs,
+                    queueCapacity, chatMetrics);
+            replay();
+        }
+        running = true;
+        flusher = new Thread(commitLog != null ? this::runReplicator : this::runFlusher, "message-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Stop accepting messages and flush everything still queued.
+     * Safe to call more than once.
+     */
+    @PreDestroy
+    public void shutdown() {
+        acceptLock.writeLock().lock();
+        try {
+            if (!running) {
+                return;
+            }
+            // No send can be between its check and its offer from here on
+            running = false;
+        } finally {
+            acceptLock.writeLock().unlock();
+        }
+        if (commitLog != null) {
+            shutdownCommitLog();
+            return;
+        }
+        flusher.interrupt();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Anything the flusher did not get to before the timeout
+        drainAndFlush();
+    }
+
+    /**
+     * Sequence a message and queue it for persistence.
+     *
+     * @param onPersisted called with the message ID and {@code true} once the
+     *                    row is committed (or, in commit log mode, the record is
+     *                    in the log), or {@code false} if the write failed; may be {@code null}
+     * @return the DTO to broadcast, or {@code null} if the queue is full
+     * @throws IllegalArgumentException if the content does not fit the column ({@link #fits(String)})
+     */
+    public MessageDTO enqueue(Long roomId, Long userId, String username, String content,
+                              BiConsumer<Long, Boolean> onPersisted) {
+        if (!fits(content)) {
+            throw new IllegalArgumentException("Message is too long");
+        }
+        MessageDTO message;
+        acceptLock.readLock().lock();
+        try {
+            if (!running) {
+                return null;
+            }
+
+            PendingMessage pending = new PendingMessage(
+                    messageIdGenerator.nextId(), roomId, userId, username, content,
+                    // Column precision, so history cursors built from the DTO match the stored row
+                    LocalDateTime.now().truncatedTo(ChronoUnit.MICROS), onPersisted);
+
+            message = pending.toDTO();
+            // Tracked before it can be written, so it is never left behind once the row exists
+            track(message);
+            boolean accepted = commitLog != null
+                    ? commitLog.append(encode(pending), written -> {
+                        if (!written) {
+                            untrack(roomId, pending.id);
+                        }
+                        acknowledge(pending, written);
+                    })
+                    : queue.offer(pending);
+            if (!accepted) {
+                untrack(roomId, pending.id);
+                return null;
+            }
+        } finally {
+            acceptLock.readLock().unlock();
+        }
+        replicaReads.messageSent(roomId, userId);
+
+        return message;
+    }
+
+    /**
+     * A room's newest messages that were accepted but are not in the messages
+     * table yet (queued, or in the commit log), newest first. Read this
+     * before querying the table: a message leaves here only once its row exists.
+     */
+    public List<MessageDTO> getUnwritten(Long roomId) {
+        ConcurrentSkipListMap<Long, MessageDTO> messages = unwritten.get(roomId);
+        return messages != null ? new ArrayList<>(messages.descendingMap().values()) : List.of();
+    }
+
+    /**
+     * Whether message content fits the messages.content column; longer
+     * content would fail the whole batch it is written in
+     */
+    public static boolean fits(String content) {
+        // Every char is at most 3 UTF-8 bytes, so most messages need no encoding to check
+        return content.length() * 3 <= MAX_CONTENT_BYTES
+                || content.getBytes(StandardCharsets.UTF_8).length <= MAX_CONTENT_BYTES;
+    }
+
+    /**
+     * Number of messages waiting to be written (to the commit log, in commit log mode)
+     */
+    public int getQueueDepth() {
+        return commitLog != null ? commitLog.getPendingAppends() : queue.size();
+    }
+
+    public boolean isCommitLogEnabled() {
+        return commitLog != null;
+    }
+
+    /**
+     * Bytes in the commit log not yet copied to the messages table
+     */
+    public long getUnreplicatedBytes() {
+        return commitLog != null ? commitLog.getWrittenPosition() - commitLog.getReplicatedPosition() : 0;
+    }
+
+    private void runFlusher() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                PendingMessage first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Keep collecting until the batch is full or the interval is up
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                // Shutdown requested - flush what we have and exit
+                Thread.currentThread().interrupt();
+            }
+
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Copy the commit log into the messages table as it grows
+     */
+    private void runReplicator() {
+        while (true) {
+            // Checked before reading, so the last pass sees everything the writer wrote
+            boolean stopping = commitLog.isStopped();
+            long from = commitLog.getReplicatedPosition();
+            int replicated;
+            try {
+                replicated = replicate();
+            } catch (IOException e) {
+                log.error("Failed to read the commit log at position {}: {}", from, e.getMessage());
+                replicated = -1;
+            }
+
+            if (replicated > 0) {
+                continue;
+            }
+            if (stopping) {
+                return;
+            }
+            try {
+                if (replicated == 0) {
+                    commitLog.awaitWritten(from, flushIntervalMs);
+                } else {
+                    Thread.sleep(REPLICATION_RETRY_MS);
+                }
+            } catch (InterruptedException e) {
+                // Only woken for shutdown, which is seen through running
+            }
+        }
+    }
+
+    /**
+     * Copy one batch from the replicated position onwards into the messages
+     * table and advance the position
+     *
+     * @return messages copied, 0 if the log had nothing new, or -1 if the insert failed
+     */
+    private int replicate() throws IOException {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        long to = commitLog.read(commitLog.getReplicatedPosition(), batchSize, record -> batch.add(decode(record)));
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        try {
+            copy(batch);
+        } catch (DataAccessException e) {
+            log.error("Failed to copy {} message(s) from the commit log: {}", batch.size(), e.getMessage());
+            return -1;
+        }
+        untrack(batch);
+        commitLog.markReplicated(to);
+        return batch.size();
+    }
+
+    /**
+     * Copy whatever the commit log holds beyond the replicated position, and
+     * keep new IDs above the ones found there. If the database is not
+     * available yet, the rest is left to the replicator.
+     */
+    private void replay() throws IOException {
+        long start = System.currentTimeMillis();
+        long maxId = 0;
+        int messages = 0;
+        boolean copying = true;
+        long position = commitLog.getReplicatedPosition();
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        while (true) {
+            batch.clear();
+            long to = commitLog.read(position, batchSize, record -> batch.add(decode(record)));
+            if (batch.isEmpty()) {
+                break;
+            }
+            for (PendingMessage pending : batch) {
+                maxId = Math.max(maxId, pending.id);
+            }
+            if (copying) {
+                try {
+                    copy(batch);
+                    commitLog.markReplicated(to);
+                    messages += batch.size();
+                } catch (DataAccessException e) {
+                    // Keep reading for the highest ID; the replicator retries the copy
+                    log.warn("Cannot copy the commit log into the messages table yet, the replicator will retry: {}",
+                            e.getMessage());
+                    copying = false;
+                }
+            }
+            if (!copying) {
+                // Until the replicator copies them, history has to find them here
+                for (PendingMessage pending : batch) {
+                    track(pending.toDTO());
+                }
+            }
+            position = to;
+        }
+        messageIdGenerator.advancePast(maxId);
+        if (messages > 0) {
+            log.info("Replayed {} message(s) from the commit log in {} ms",
+                    messages, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Copy messages from the commit log into the table. Rows already there
+     * (copied before the replicated position was saved) are left as they are;
+     * a row the database rejects for good is logged and skipped, so it cannot
+     * hold up the rest of the log.
+     *
+     * @throws DataAccessException if the database is unavailable; copy again later
+     */
+    private void copy(List<PendingMessage> batch) {
+        try {
+            insert(batch, true);
+            return;
+        } catch (DataAccessException e) {
+            if (isRetryable(e)) {
+                throw e;
+            }
+            log.warn("Commit log batch of {} messages rejected, copying them one at a time: {}",
+                    batch.size(), e.getMessage());
+        }
+        for (PendingMessage pending : batch) {
+            try {
+                insert(List.of(pending), true);
+            } catch (DataAccessException e) {
+                if (isRetryable(e)) {
+                    throw e;
+                }
+                log.error("Dropping message {} in room {} from the commit log, the database rejects it: {}",
+                        pending.id, pending.roomId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Messages in the commit log not yet copied to the messages table, for
+     * readers of the table that must not miss them. Best effort: whatever is
+     * copied meanwhile is in the table instead.
+     */
+    public void forEachUnreplicated(Consumer<MessageDTO> consumer) {
+        if (commitLog == null) {
+            return;
+        }
+        long position = commitLog.getReplicatedPosition();
+        while (true) {
+            try {
+                long to = commitLog.read(position, batchSize, record -> {
+                    consumer.accept(decode(record).toDTO());
+                });
+                if (to == position) {
+                    return;
+                }
+                position = to;
+            } catch (IOException e) {
+                // The segment was copied and deleted while being read: carry on from where the replicator is
+                if (commitLog.getReplicatedPosition() <= position) {
+                    log.warn("Failed to read the commit log at position {}: {}", position, e.getMessage());
+                    return;
+                }
+                position = commitLog.getReplicatedPosition();
+            }
+        }
+    }
+
+    /**
+     * Write everything already appended, copy what can be copied to the
+     * table, and close the log; anything left is replayed at the next start
+     */
+    private void shutdownCommitLog() {
+        commitLog.stopAppending();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            commitLog.close();
+        } catch (IOException e) {
+            log.error("Failed to close the commit log: {}", e.getMessage());
+        }
+    }
+
+    private void drainAndFlush() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Write one batch as a single multi-row INSERT and tell the senders.
+     * If the database rejects the statement, the rows are written one at a
+     * time, so only the bad one (a room deleted meanwhile, say) fails.
+     */
+    private void writeBatch(List<PendingMessage> batch) {
+        try {
+            writeRows(batch);
+        } finally {
+            untrack(batch);
+        }
+    }
+
+    private void writeRows(List<PendingMessage> batch) {
+        try {
+            insert(batch, false);
+            for (PendingMessage pending : batch) {
+                acknowledge(pending, true);
+            }
+            return;
+        } catch (DataAccessException e) {
+            if (batch.size() == 1 || isRetryable(e)) {
+                // Still failing after the retries: writing rows separately would fail the same way
+                log.error("Failed to persist batch of {} messages: {}", batch.size(), e.getMessage());
+                for (PendingMessage pending : batch) {
+                    acknowledge(pending, false);
+                }
+                return;
+            }
+            log.warn("Batch of {} messages rejected, writing them one at a time: {}", batch.size(), e.getMessage());
+        }
+
+        for (PendingMessage pending : batch) {
+            boolean persisted;
+            try {
+                insert(List.of(pending), false);
+                persisted = true;
+            } catch (DataAccessException e) {
+                log.error("Failed to persist message {} in room {}: {}", pending.id, pending.roomId, e.getMessage());
+                persisted = false;
+            }
+            acknowledge(pending, persisted);
+        }
+    }
+
+    /**
+     * Insert a batch of messages in one statement, retrying errors that may
+     * succeed on another attempt
+     *
+     * @param skipExisting leave rows whose ID is already stored as they are. Not
+     *                     INSERT IGNORE, which on MySQL would also turn a foreign
+     *                     key violation or oversized data into a warning
+     * @throws DataAccessException if the rows could not be written
+     */
+    private void insert(List<PendingMessage> batch, boolean skipExisting) {
+        StringBuilder sql = new StringBuilder("INSERT INTO messages (id, room_id, user_id, content, created_at) VALUES ");
+        Object[] args = new Object[batch.size() * 5];
+        int i = 0;
+        for (PendingMessage pending : batch) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append("(?, ?, ?, ?, ?)");
+            args[i++] = pending.id;
+            args[i++] = pending.roomId;
+            args[i++] = pending.userId;
+            args[i++] = pending.content;
+            args[i++] = Timestamp.valueOf(pending.createdAt);
+        }
+        if (skipExisting) {
+            sql.append(" ON DUPLICATE KEY UPDATE id = id");
+        }
+
+        long start = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                jdbcTemplate.update(sql.toString(), args);
+                chatMetrics.recordPersistence(batch.size(), System.nanoTime() - start, true);
+                return;
+            } catch (DataAccessException e) {
+                if (attempt >= INSERT_ATTEMPTS || !isRetryable(e)) {
+                    chatMetrics.recordPersistence(batch.size(), System.nanoTime() - start, false);
+                    throw e;
+                }
+                try {
+                    Thread.sleep(INSERT_RETRY_MS * attempt);
+                } catch (InterruptedException interrupted) {
+                    // Shutting down: give up on this attempt, the caller decides what happens to the rows
+                    Thread.currentThread().interrupt();
+                    chatMetrics.recordPersistence(batch.size(), System.nanoTime() - start, false);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether a failed statement may succeed if simply run again
+     */
+    private static boolean isRetryable(DataAccessException e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException;
+    }
+
+    private void track(MessageDTO message) {
+        // In one compute, so a concurrent untrack cannot drop the room's map in between
+        unwritten.compute(message.getRoomId(), (id, messages) -> {
+            if (messages == null) {
+                messages = new ConcurrentSkipListMap<>();
+            }
+            messages.put(message.getId(), message);
+            while (messages.size() > MAX_UNWRITTEN_PER_ROOM) {
+                messages.pollFirstEntry();
+            }
+            return messages;
+        });
+    }
+
+    private void untrack(Long roomId, long messageId) {
+        unwritten.computeIfPresent(roomId, (id, messages) -> {
+            messages.remove(messageId);
+            return messages.isEmpty() ? null : messages;
+        });
+    }
+
+    private void untrack(List<PendingMessage> batch) {
+        for (PendingMessage pending : batch) {
+            untrack(pending.roomId, pending.id);
+        }
+    }
+
+    private static void acknowledge(PendingMessage pending, boolean persisted) {
+        if (pending.onPersisted != null) {
+            try {
+                pending.onPersisted.accept(pending.id, persisted);
+            } catch (Exception e) {
+                // A closed client socket must not break the rest of the batch
+            }
+        }
+    }
+
+    /**
+     * Commit log record: long id, long roomId, long userId, long createdAt
+     * (epoch seconds), int nanos, int username length (-1 for none), the
+     * UTF-8 username, then the UTF-8 content. The username is kept so
+     * readers of the log need no lookup to show the message.
+     */
+    private static byte[] encode(PendingMessage pending) {
+        byte[] username = pending.username != null ? pending.username.getBytes(StandardCharsets.UTF_8) : null;
+        byte[] content = pending.content.getBytes(StandardCharsets.UTF_8);
+        int usernameLength = username != null ? username.length : 0;
+        ByteBuffer record = ByteBuffer.allocate(4 * Long.BYTES + 2 * Integer.BYTES + usernameLength + content.length);
+        record.putLong(pending.id)
+                .putLong(pending.roomId)
+                .putLong(pending.userId)
+                .putLong(pending.createdAt.toEpochSecond(ZoneOffset.UTC))
+                .putInt(pending.createdAt.getNano())
+                .putInt(username != null ? username.length : -1);
+        if (username != null) {
+            record.put(username);
+        }
+        record.put(content);
+        return record.array();
+    }
+
+    private static PendingMessage decode(ByteBuffer record) {
+        long id = record.getLong();
+        long roomId = record.getLong();
+        long userId = record.getLong();
+        LocalDateTime createdAt = LocalDateTime.ofEpochSecond(record.getLong(), record.getInt(), ZoneOffset.UTC);
+        int usernameLength = record.getInt();
+        String username = null;
+        if (usernameLength >= 0) {
+            byte[] bytes = new byte[usernameLength];
+            record.get(bytes);
+            username = new String(bytes, StandardCharsets.UTF_8);
+        }
+        byte[] content = new byte[record.remaining()];
+        record.get(content);
+        return new PendingMessage(id, roomId, userId, username, new String(content, StandardCharsets.UTF_8),
+                createdAt, null);
+    }
+
+    /**
+     * A sequenced message waiting to be written
+     */
+    private static final class PendingMessage {
+        private final long id;
+        private final Long roomId;
+        private final Long userId;
+        private final String username;
+        private final String content;
+        private final LocalDateTime createdAt;
+        private final BiConsumer<Long, Boolean> onPersisted;
+
+        private PendingMessage(long id, Long roomId, Long userId, String username, String content,
+                               LocalDateTime createdAt, BiConsumer<Long, Boolean> onPersisted) {
+            this.id = id;
+            this.roomId = roomId;
+            this.userId = userId;
+            this.username = username;
+            this.content = content;
+            this.createdAt = createdAt;
+            this.onPersisted = onPersisted;
+        }
+
+        private MessageDTO toDTO() {
+            return new MessageDTO(id, roomId, userId, username, content, createdAt.toString());
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.yapitup.chat.service;
+
+import com.yapitup.chat.cluster.ClusterMessage;
+import com.yapitup.chat.cluster.ClusterNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory presence registry.
+ * Counts open Socket.IO sessions per user, so a user with several tabs stays
+ * online until the last one closes. Changes are coalesced and written to
+ * users.is_online in periodic batches; presence queries never hit the database.
+ * In a cluster, each node tells the others when its users come and go, so
+ * presence answers cover every node. Each node writes its own users' changes,
+ * and consults the cluster-wide view before writing.
+ */
+@Service
+@DependsOn("entityManagerFactory") // users table must exist before the startup reset
+public class PresenceService {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceService.class);
+
+    // Keeps each UPDATE ... IN (...) statement a reasonable size
+    private static final int MAX_IDS_PER_UPDATE = 1000;
+
+    private static final String CLUSTER_TOPIC = "chat.presence";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    @Value("${chat.presence.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    // userId -> number of open sessions (only users with at least one)
+    private final Map<Long, Integer> sessionCounts = new ConcurrentHashMap<>();
+
+    // userId -> other nodes the user has sessions on
+    private final Map<Long, Set<Long>> remoteNodes = new ConcurrentHashMap<>();
+
+    // userId -> latest online state not yet written to the database
+    private final Map<Long, Boolean> pendingChanges = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    public void init() {
+        // Its own thread, so a slow database does not hold up the shared @Scheduled one
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "presence-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+
+        if (clusterNode.isEnabled()) {
+            // The table reflects the other nodes' users, so it must not be reset
+            clusterNode.subscribe(CLUSTER_TOPIC, PresenceMessage.class, this::onRemoteChange);
+            clusterNode.onNodeJoined(nodeId -> publish(new ArrayList<>(sessionCounts.keySet()), true));
+            clusterNode.onNodeLeft(this::forgetNode);
+            return;
+        }
+
+        // Nobody is connected right after startup, whatever the table says
+        jdbcTemplate.update("UPDATE users SET is_online = FALSE WHERE is_online = TRUE");
+    }
+
+    /**
+     * Record a new session for a user
+     */
+    public void sessionOpened(Long userId) {
+        int sessions = sessionCounts.merge(userId, 1, Integer::sum);
+        if (sessions == 1) {
+            pendingChanges.put(userId, true);
+            publish(List.of(userId), true);
+        }
+    }
+
+    /**
+     * Record a closed session; the user goes offline with their last session
+     */
+    public void sessionClosed(Long userId) {
+        Integer sessions = sessionCounts.computeIfPresent(userId, (id, count) -> count > 1 ? count - 1 : null);
+        if (sessions == null) {
+            pendingChanges.put(userId, false);
+            publish(List.of(userId), false);
+        }
+    }
+
+    public boolean isOnline(Long userId) {
+        return sessionCounts.containsKey(userId) || remoteNodes.containsKey(userId);
+    }
+
+    /**
+     * IDs of every user with at least one open session
+     */
+    public Set<Long> getOnlineUserIds() {
+        if (remoteNodes.isEmpty()) {
+            return Collections.unmodifiableSet(sessionCounts.keySet());
+        }
+        Set<Long> online = new HashSet<>(sessionCounts.keySet());
+        online.addAll(remoteNodes.keySet());
+        return online;
+    }
+
+    /**
+     * Write coalesced presence changes to users.is_online
+     */
+    public void flush() {
+        List<Long> online = new ArrayList<>();
+        List<Long> offline = new ArrayList<>();
+        for (Long userId : pendingChanges.keySet()) {
+            Boolean state = pendingChanges.remove(userId);
+            if (state == null) {
+                continue;
+            }
+            // The pending value can lag a reconnect; the live count is authoritative
+            if (isOnline(userId)) {
+                online.add(userId);
+            } else {
+                offline.add(userId);
+            }
+        }
+
+        try {
+            updateOnline(online, true);
+            updateOnline(offline, false);
+        } catch (Exception e) {
+            log.warn("Failed to flush presence changes: {}", e.getMessage());
+            // Retry on the next tick unless a newer change has arrived
+            online.forEach(userId -> pendingChanges.putIfAbsent(userId, true));
+            offline.forEach(userId -> pendingChanges.putIfAbsent(userId, false));
+        }
+    }
+
+    /**
+     * Mark everyone still connected as offline and write it out
+     * (users still connected to another node stay online)
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(5, TimeUnit.SECONDS);
+        for (Long userId : sessionCounts.keySet()) {
+            pendingChanges.put(userId, false);
+        }
+        sessionCounts.clear();
+        flush();
+    }
+
+    private void publish(List<Long> userIds, boolean online) {
+        if (clusterNode.isEnabled() && !userIds.isEmpty()) {
+            clusterNode.publish(CLUSTER_TOPIC, new PresenceMessage(userIds, online));
+        }
+    }
+
+    private void onRemoteChange(PresenceMessage message) {
+        for (Long userId : message.userIds) {
+            if (message.online) {
+                remoteNodes.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(message.getNodeId());
+            } else {
+                removeRemote(userId, message.getNodeId());
+            }
+        }
+    }
+
+    /**
+     * A node shut down; its users are offline unless connected elsewhere.
+     * Its shutdown flush wrote them from a view of the cluster that may have
+     * been stale, so write them again.
+     */
+    private void forgetNode(long nodeId) {
+        for (Long userId : remoteNodes.keySet()) {
+            if (removeRemote(userId, nodeId) && !isOnline(userId)) {
+                pendingChanges.put(userId, false);
+            }
+        }
+    }
+
+    private boolean removeRemote(Long userId, long nodeId) {
+        boolean[] removed = {false};
+        remoteNodes.computeIfPresent(userId, (id, nodes) -> {
+            removed[0] = nodes.remove(nodeId);
+            return nodes.isEmpty() ? null : nodes;
+        });
+        return removed[0];
+    }
+
+    private void updateOnline(List<Long> userIds, boolean isOnline) {
+        for (int from = 0; from < userIds.size(); from += MAX_IDS_PER_UPDATE) {
+            List<Long> chunk = userIds.subList(from, Math.min(from + MAX_IDS_PER_UPDATE, userIds.size()));
+            String placeholders = String.join(",", Collections.nCopies(chunk.size(), "?"));
+
+            Object[] args = new Object[chunk.size() + 1];
+            args[0] = isOnline;
+            for (int i = 0; i < chunk.size(); i++) {
+                args[i + 1] = chunk.get(i);
+            }
+            jdbcTemplate.update("UPDATE users SET is_online = ? WHERE id IN (" + placeholders + ")", args);
+        }
+    }
+
+    private static final class PresenceMessage extends ClusterMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Long> userIds;
+        private final boolean online;
+
+        private PresenceMessage(List<Long> userIds, boolean online) {
+            this.userIds = userIds;
+            this.online = online;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.yapitup.chat.service;
+
+import com.yapitup.chat.cluster.ClusterMessage;
+import com.yapitup.chat.cluster.ClusterNode;
+import com.yapitup.chat.datasource.ReplicaReads;
+import com.yapitup.chat.dto.ChatRoomDTO;
+import com.yapitup.chat.dto.ChatRoomPageDTO;
+import com.yapitup.chat.repository.ChatRoomRepository;
+import com.yapitup.chat.util.LruCache;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.JpaSort;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cached room directory (GET /api/rooms and its paginated variant).
+ * Built from the one-statement projections in {@link ChatRoomRepository} and
+ * dropped as a whole whenever a room is created or its membership changes,
+ * here or (in a cluster) on another node. Loads may come from a read replica,
+ * except right after a change.
+ */
+@Service
+public class RoomDirectoryCache {
+
+    private static final String CLUSTER_TOPIC = "chat.room-directory";
+
+    // Sortable fields -> JPQL order expression
+    private static final Map<String, String> SORT_FIELDS = Map.of(
+            "id", "id",
+            "name", "name",
+            "createdAt", "createdAt",
+            "memberCount", "SIZE(r.members)"
+    );
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    @Autowired
+    private ReplicaReads replicaReads;
+
+    @Autowired
+    private ChatCacheService chatCacheService;
+
+    @Value("${chat.room-directory.max-pages:1000}")
+    private int maxPages;
+
+    private volatile List<ChatRoomDTO> allRooms;
+
+    // "page:size:sort:direction" -> page
+    private LruCache<String, ChatRoomPageDTO> pages;
+
+    // Bumped on every invalidation, so a load that raced one is not cached
+    private long generation;
+
+    // Guards the generation check and the store together against an invalidation in between
+    private final Object lock = new Object();
+
+    @PostConstruct
+    public void init() {
+        pages = new LruCache<>(maxPages);
+        clusterNode.subscribe(CLUSTER_TOPIC, DirectoryChanged.class, message -> invalidateLocal());
+    }
+
+    /**
+     * Every room, oldest first
+     */
+    public List<ChatRoomDTO> getAllRooms() {
+        List<ChatRoomDTO> cached = allRooms;
+        if (cached != null) {
+            return cached;
+        }
+
+        long loadedAt = currentGeneration();
+        List<ChatRoomDTO> loaded = List.copyOf(replicaReads.read(ReplicaReads.ROOMS, chatRoomRepository::findAllSummaries));
+        synchronized (lock) {
+            if (generation == loadedAt) {
+                allRooms = loaded;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * One page of rooms
+     *
+     * @param sort id, name, createdAt or memberCount
+     * @throws IllegalArgumentException for an unknown sort field
+     */
+    public ChatRoomPageDTO getPage(int page, int size, String sort, Sort.Direction direction) {
+        String expression = SORT_FIELDS.get(sort);
+        if (expression == null) {
+            throw new IllegalArgumentException("Cannot sort rooms by '" + sort + "'");
+        }
+
+        String key = page + ":" + size + ":" + sort + ":" + direction;
+        ChatRoomPageDTO cached = pages.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Ties broken by id so pages never overlap
+        Sort order = expression.contains("(")
+                ? JpaSort.unsafe(direction, expression).and(Sort.by("id"))
+                : Sort.by(direction, expression).and(Sort.by("id"));
+
+        long loadedAt = currentGeneration();
+        Page<ChatRoomDTO> result = replicaReads.read(ReplicaReads.ROOMS,
+                () -> chatRoomRepository.findSummaries(PageRequest.of(page, size, order)));
+        ChatRoomPageDTO loaded = new ChatRoomPageDTO(List.copyOf(result.getContent()),
+                page, size, result.getTotalElements(), result.getTotalPages());
+        synchronized (lock) {
+            if (generation == loadedAt) {
+                pages.put(key, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * A room was created or its membership changed - drop the directory on every node
+     */
+    public void invalidate() {
+        invalidateLocal();
+        clusterNode.publish(CLUSTER_TOPIC, new DirectoryChanged());
+    }
+
+    private void invalidateLocal() {
+        replicaReads.changed(ReplicaReads.ROOMS);
+        chatCacheService.forgetMissingRooms();
+        synchronized (lock) {
+            generation++;
+            allRooms = null;
+            pages.clear();
+        }
+    }
+
+    private long currentGeneration() {
+        synchronized (lock) {
+            return generation;
+        }
+    }
+
+    /**
+     * Tells the other nodes their directory is stale
+     */
+    private static final class DirectoryChanged extends ClusterMessage {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,319 @@
+package com.yapitup.chat.service;
+
+import com.yapitup.chat.cluster.ClusterMessage;
+import com.yapitup.chat.cluster.ClusterNode;
+import com.yapitup.chat.dto.MessageDTO;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the most recent messages of each active room in memory so the first
+ * page of history can be served without a database query.
+ * A room's buffer is warmed from the database on its first read, then kept
+ * current by the send path. Idle rooms age out, and the least recently read
+ * rooms are dropped whenever the global memory cap is exceeded.
+ * In a cluster, nodes announce which rooms they cache, and messages sent on
+ * one node are forwarded to the other nodes caching that room.
+ */
+@Service
+public class RoomHistoryCache {
+
+    // Rough per-message overhead (DTO, boxed longs, string headers) on top of character data
+    private static final long MESSAGE_OVERHEAD_BYTES = 160;
+
+    private static final String CLUSTER_TOPIC = "chat.history";
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    @Value("${chat.history-cache.depth:50}")
+    private int depth;
+
+    @Value("${chat.history-cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    @Value("${chat.history-cache.idle-ms:600000}")
+    private long idleMs;
+
+    private final Map<Long, RoomBuffer> rooms = new ConcurrentHashMap<>();
+
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    // roomId -> other nodes caching the room
+    private final Map<Long, Set<Long>> remoteCaches = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        clusterNode.subscribe(CLUSTER_TOPIC, HistoryMessage.class, this::onRemoteChange);
+        clusterNode.onNodeJoined(nodeId -> rooms.keySet().forEach(roomId ->
+                publish(new HistoryMessage(HistoryMessage.Type.CACHED, roomId, null, null))));
+        clusterNode.onNodeLeft(nodeId -> remoteCaches.keySet().forEach(roomId -> removeRemote(roomId, nodeId)));
+    }
+
+    /**
+     * Get the newest messages of a room, newest first.
+     *
+     * @param loader loads up to {@link #getDepth()} newest messages from the
+     *               database, newest first; only called when the room is not cached
+     * @return the page, or {@code null} if {@code size} is deeper than the buffer
+     */
+    public Slice<MessageDTO> getLatest(Long roomId, int size, Supplier<List<MessageDTO>> loader) {
+        if (size > depth) {
+            return null;
+        }
+
+        RoomBuffer buffer = rooms.get(roomId);
+        if (buffer == null || !buffer.isWarm()) {
+            // Register the buffer before loading so sends during the load are not lost
+            if (buffer == null) {
+                buffer = rooms.computeIfAbsent(roomId, id -> {
+                    publish(new HistoryMessage(HistoryMessage.Type.CACHED, roomId, null, null));
+                    return new RoomBuffer();
+                });
+            }
+            List<MessageDTO> loaded = loader.get();
+            long delta = buffer.warm(loaded, depth);
+            if (rooms.get(roomId) == buffer) {
+                totalBytes.addAndGet(delta);
+                enforceMemoryCap();
+            }
+        }
+
+        return buffer.newest(size);
+    }
+
+    /**
+     * Add a freshly sent message to its room's buffer, if the room is cached
+     */
+    public void append(MessageDTO message) {
+        appendLocal(message);
+        if (remoteCaches.containsKey(message.getRoomId())) {
+            publish(new HistoryMessage(HistoryMessage.Type.APPENDED, message.getRoomId(), null, message));
+        }
+    }
+
+    /**
+     * Drop a message that turned out not to be persisted
+     */
+    public void remove(Long roomId, Long messageId) {
+        removeLocal(roomId, messageId);
+        if (remoteCaches.containsKey(roomId)) {
+            publish(new HistoryMessage(HistoryMessage.Type.REMOVED, roomId, messageId, null));
+        }
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Age out rooms nobody has read from recently
+     */
+    @Scheduled(fixedDelayString = "${chat.history-cache.sweep-interval-ms:60000}")
+    public void evictIdleRooms() {
+        long cutoff = System.currentTimeMillis() - idleMs;
+        for (Map.Entry<Long, RoomBuffer> entry : rooms.entrySet()) {
+            if (entry.getValue().lastAccess < cutoff) {
+                evict(entry.getKey());
+            }
+        }
+    }
+
+    private void enforceMemoryCap() {
+        if (totalBytes.get() <= maxBytes) {
+            return;
+        }
+
+        // Least recently read rooms go first
+        List<Map.Entry<Long, RoomBuffer>> byAccess = new ArrayList<>(rooms.entrySet());
+        byAccess.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+        for (Map.Entry<Long, RoomBuffer> entry : byAccess) {
+            if (totalBytes.get() <= maxBytes) {
+                break;
+            }
+            evict(entry.getKey());
+        }
+    }
+
+    private void evict(Long roomId) {
+        RoomBuffer buffer = rooms.remove(roomId);
+        if (buffer != null) {
+            totalBytes.addAndGet(-buffer.bytes());
+            publish(new HistoryMessage(HistoryMessage.Type.EVICTED, roomId, null, null));
+        }
+    }
+
+    private void appendLocal(MessageDTO message) {
+        RoomBuffer buffer = rooms.get(message.getRoomId());
+        if (buffer != null) {
+            totalBytes.addAndGet(buffer.add(message, depth));
+            enforceMemoryCap();
+        }
+    }
+
+    private void removeLocal(Long roomId, Long messageId) {
+        RoomBuffer buffer = rooms.get(roomId);
+        if (buffer != null) {
+            totalBytes.addAndGet(buffer.remove(messageId));
+        }
+    }
+
+    private void publish(HistoryMessage message) {
+        if (clusterNode.isEnabled()) {
+            clusterNode.publish(CLUSTER_TOPIC, message);
+        }
+    }
+
+    private void onRemoteChange(HistoryMessage message) {
+        switch (message.type) {
+            case CACHED -> remoteCaches.computeIfAbsent(message.roomId, id -> ConcurrentHashMap.newKeySet())
+                    .add(message.getNodeId());
+            case EVICTED -> removeRemote(message.roomId, message.getNodeId());
+            case APPENDED -> appendLocal(message.message);
+            case REMOVED -> removeLocal(message.roomId, message.messageId);
+        }
+    }
+
+    private void removeRemote(Long roomId, long nodeId) {
+        remoteCaches.computeIfPresent(roomId, (id, nodes) -> {
+            nodes.remove(nodeId);
+            return nodes.isEmpty() ? null : nodes;
+        });
+    }
+
+    private static long estimateBytes(MessageDTO message) {
+        long chars = length(message.getContent()) + length(message.getUsername()) + length(message.getCreatedAt());
+        return MESSAGE_OVERHEAD_BYTES + 2 * chars;
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    /**
+     * Bounded buffer of one room's newest messages, oldest at the head.
+     * Every method returns the change in estimated bytes so the global total
+     * can be kept without locking across rooms.
+     */
+    private static final class RoomBuffer {
+        private final ArrayDeque<MessageDTO> messages = new ArrayDeque<>();
+        private boolean warm;
+        // True when the buffer holds the room's entire history
+        private boolean complete;
+        private long bytes;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        synchronized boolean isWarm() {
+            return warm;
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        /**
+         * Merge rows loaded from the database with anything appended meanwhile
+         */
+        synchronized long warm(List<MessageDTO> newestFirst, int depth) {
+            if (warm) {
+                return 0;
+            }
+
+            Map<Long, MessageDTO> byId = new HashMap<>();
+            for (MessageDTO message : newestFirst) {
+                byId.put(message.getId(), message);
+            }
+            for (MessageDTO message : messages) {
+                byId.put(message.getId(), message);
+            }
+
+            List<MessageDTO> merged = new ArrayList<>(byId.values());
+            merged.sort(Comparator.comparing(MessageDTO::getId));
+
+            long before = bytes;
+            messages.clear();
+            bytes = 0;
+            int start = Math.max(0, merged.size() - depth);
+            for (int i = start; i < merged.size(); i++) {
+                messages.addLast(merged.get(i));
+                bytes += estimateBytes(merged.get(i));
+            }
+            complete = newestFirst.size() < depth && start == 0;
+            warm = true;
+            return bytes - before;
+        }
+
+        synchronized long add(MessageDTO message, int depth) {
+            long delta = estimateBytes(message);
+            messages.addLast(message);
+            while (messages.size() > depth) {
+                delta -= estimateBytes(messages.pollFirst());
+                complete = false;
+            }
+            bytes += delta;
+            return delta;
+        }
+
+        synchronized long remove(Long messageId) {
+            for (MessageDTO message : messages) {
+                if (message.getId().equals(messageId)) {
+                    messages.remove(message);
+                    long delta = -estimateBytes(message);
+                    bytes += delta;
+                    return delta;
+                }
+            }
+            return 0;
+        }
+
+        synchronized Slice<MessageDTO> newest(int size) {
+            lastAccess = System.currentTimeMillis();
+
+            List<MessageDTO> page = new ArrayList<>(Math.min(size, messages.size()));
+            var iterator = messages.descendingIterator();
+            while (iterator.hasNext() && page.size() < size) {
+                page.add(iterator.next());
+            }
+            // Concurrent sends can append slightly out of ID order
+            page.sort(Comparator.comparing(MessageDTO::getId).reversed());
+
+            boolean hasMore = messages.size() > size || !complete;
+            return new SliceImpl<>(page, PageRequest.of(0, Math.max(size, 1)), hasMore);
+        }
+    }
+
+    private static final class HistoryMessage extends ClusterMessage {
+        private static final long serialVersionUID = 1L;
+
+        enum Type { CACHED, EVICTED, APPENDED, REMOVED }
+
+        private final Type type;
+        private final Long roomId;
+        private final Long messageId;
+        private final MessageDTO message;
+
+        private HistoryMessage(Type type, Long roomId, Long messageId, MessageDTO message) {
+            this.type = type;
+            this.roomId = roomId;
+            this.messageId = messageId;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.yapitup.chat.service;
+
+import com.yapitup.chat.cluster.ClusterMessage;
+import com.yapitup.chat.cluster.ClusterNode;
+import com.yapitup.chat.util.LongHashSet;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Room membership, held in memory as one primitive long set of user IDs per
+ * room, so membership checks on the REST and socket paths are O(1) and never
+ * touch the database.
+ * Loaded from room_members at startup. Joins and leaves write single
+ * room_members rows directly instead of rewriting the room's member
+ * collection. In a cluster, each node tells the others about the changes it
+ * writes.
+ */
+@Service
+@DependsOn("entityManagerFactory") // room_members must exist before the startup load
+public class RoomMembershipService {
+
+    private static final Logger log = LoggerFactory.getLogger(RoomMembershipService.class);
+
+    private static final String CLUSTER_TOPIC = "chat.membership";
+
+    // Locks joins and leaves are serialized on, picked by room
+    private static final int LOCK_STRIPES = 64;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    // Whether joining a room's socket channel and posting to it require membership
+    @Value("${chat.membership.enforce:true}")
+    private boolean enforce;
+
+    // roomId -> IDs of the room's members
+    private final Map<Long, LongHashSet> members = new ConcurrentHashMap<>();
+
+    // Held from a join's or leave's write to its index update, so the index ends up as the table does
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    @PostConstruct
+    public void init() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        clusterNode.subscribe(CLUSTER_TOPIC, MembershipChanged.class, message -> {
+            if (message.joined) {
+                addLocal(message.roomId, message.userId);
+            } else {
+                removeLocal(message.roomId, message.userId);
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        int[] rows = {0};
+        jdbcTemplate.query("SELECT room_id, user_id FROM room_members", resultSet -> {
+            addLocal(resultSet.getLong(1), resultSet.getLong(2));
+            rows[0]++;
+        });
+        log.info("Loaded {} memberships of {} rooms in {} ms",
+                rows[0], members.size(), System.currentTimeMillis() - start);
+    }
+
+    public boolean isMember(Long roomId, Long userId) {
+        LongHashSet roomMembers = members.get(roomId);
+        return roomMembers != null && roomMembers.contains(userId);
+    }
+
+    /**
+     * Whether the user may read from and post to the room in real time
+     */
+    public boolean isAllowed(Long roomId, Long userId) {
+        return !enforce || isMember(roomId, userId);
+    }
+
+    public int getMemberCount(Long roomId) {
+        LongHashSet roomMembers = members.get(roomId);
+        return roomMembers != null ? roomMembers.size() : 0;
+    }
+
+    /**
+     * Add a user to a room
+     *
+     * @return true if they were not a member yet
+     */
+    public boolean join(Long roomId, Long userId) {
+        if (isMember(roomId, userId)) {
+            return false;
+        }
+        int inserted;
+        ReentrantLock lock = lockFor(roomId);
+        lock.lock();
+        try {
+            inserted = jdbcTemplate.update(
+                    "INSERT IGNORE INTO room_members (room_id, user_id) VALUES (?, ?)", roomId, userId);
+            // Index it even if a concurrent join inserted the row first
+            addLocal(roomId, userId);
+        } finally {
+            lock.unlock();
+        }
+        if (inserted == 0) {
+            return false;
+        }
+        clusterNode.publish(CLUSTER_TOPIC, new MembershipChanged(roomId, userId, true));
+        return true;
+    }
+
+    /**
+     * Remove a user from a room
+     *
+     * @return true if they were a member
+     */
+    public boolean leave(Long roomId, Long userId) {
+        int deleted;
+        ReentrantLock lock = lockFor(roomId);
+        lock.lock();
+        try {
+            deleted = jdbcTemplate.update(
+                    "DELETE FROM room_members WHERE room_id = ? AND user_id = ?", roomId, userId);
+            removeLocal(roomId, userId);
+        } finally {
+            lock.unlock();
+        }
+        if (deleted == 0) {
+            return false;
+        }
+        clusterNode.publish(CLUSTER_TOPIC, new MembershipChanged(roomId, userId, false));
+        return true;
+    }
+
+    /**
+     * Record a membership written through JPA (a new room's creator)
+     */
+    public void recordJoined(Long roomId, Long userId) {
+        addLocal(roomId, userId);
+        clusterNode.publish(CLUSTER_TOPIC, new MembershipChanged(roomId, userId, true));
+    }
+
+    private ReentrantLock lockFor(Long roomId) {
+        return locks[Math.floorMod(Long.hashCode(roomId), LOCK_STRIPES)];
+    }
+
+    private void addLocal(Long roomId, Long userId) {
+        members.computeIfAbsent(roomId, id -> new LongHashSet()).add(userId);
+    }
+
+    private void removeLocal(Long roomId, Long userId) {
+        LongHashSet roomMembers = members.get(roomId);
+        if (roomMembers != null) {
+            roomMembers.remove(userId);
+        }
+    }
+
+    /**
+     * A join or leave written by another node
+     */
+    private static final class MembershipChanged extends ClusterMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final Long roomId;
+        private final Long userId;
+        private final boolean joined;
+
+        private MembershipChanged(Long roomId, Long userId, boolean joined) {
+            this.roomId = roomId;
+            this.userId = userId;
+            this.joined = joined;
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package com.yapitup.chat.service;
 
+import com.yapitup.chat.datasource.ReplicaReads;
+import com.yapitup.chat.dto.UserPageDTO;
+import com.yapitup.chat.dto.UserSummary;
 import com.yapitup.chat.model.User;
 import com.yapitup.chat.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -16,19 +21,49 @@ public class UserService {
     
     @Autowired
     private UserRepository userRepository;
+
+    @Autowired
+    private ChatCacheService chatCacheService;
+
+    @Autowired
+    private UsernameIndex usernameIndex;
+
+    @Autowired
+    private PresenceService presenceService;
+
+    @Autowired
+    private ReplicaReads replicaReads;
     
     /**
-     * Get all users
+     * Get one page of users in username order, starting after the cursor
+     * (the previous page's last username; null for the first page)
      */
-    public List<User> getAllUsers() {
-        return userRepository.findAll();
+    public UserPageDTO getUserPage(String after, int size) {
+        Slice<UserSummary> slice = replicaReads.read(ReplicaReads.USERS, () -> userRepository.findSummariesAfter(
+                after != null ? after : "", PageRequest.of(0, size)));
+        List<UserSummary> users = slice.getContent();
+        users.forEach(this::fillPresence);
+
+        String nextCursor = slice.hasNext() ? users.get(users.size() - 1).getUsername() : null;
+        return new UserPageDTO(users, slice.hasNext(), nextCursor);
     }
     
     /**
      * Get user by ID
      */
-    public Optional<User> getUserById(Long id) {
-        return userRepository.findById(id);
+    public Optional<UserSummary> getUserById(Long id) {
+        Optional<UserSummary> user = replicaReads.read(ReplicaReads.USERS, () -> userRepository.findSummaryById(id));
+        user.ifPresent(this::fillPresence);
+        return user;
+    }
+    
+    /**
+     * Users whose name starts with the prefix, served from memory
+     */
+    public List<UserSummary> searchUsers(String prefix, int limit) {
+        List<UserSummary> users = usernameIndex.search(prefix, limit);
+        users.forEach(this::fillPresence);
+        return users;
     }
     
     /**
@@ -42,7 +77,12 @@ public class UserService {
      * Save a new user
      */
     public User saveUser(User user) {
-        return userRepository.save(user);
+        User savedUser = userRepository.save(user);
+        replicaReads.changed(ReplicaReads.USERS);
+        // Keep the socket identity cache in line with the stored username
+        chatCacheService.putUser(savedUser.getId(), savedUser.getUsername());
+        usernameIndex.add(savedUser.getId(), savedUser.getUsername());
+        return savedUser;
     }
     
     /**
@@ -58,4 +98,8 @@ public class UserService {
     public boolean emailExists(String email) {
         return userRepository.existsByEmail(email);
     }
+    
+    private void fillPresence(UserSummary user) {
+        user.setOnline(presenceService.isOnline(user.getId()));
+    }
 }
\ No newline at end of file
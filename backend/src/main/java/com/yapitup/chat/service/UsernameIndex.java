@@ -0,0 +1,103 @@
+package com.yapitup.chat.service;
+
+import com.yapitup.chat.cluster.ClusterMessage;
+import com.yapitup.chat.cluster.ClusterNode;
+import com.yapitup.chat.dto.UserSummary;
+import com.yapitup.chat.repository.UserRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory, case-insensitive prefix index over every username, for typeahead.
+ * Usernames are kept in a sorted map, so a prefix lookup is one O(log n) seek
+ * followed by a scan of the matches it returns. Loaded once at startup and
+ * kept current as users register, on this node or (in a cluster) another.
+ */
+@Service
+@DependsOn("entityManagerFactory") // users table must exist before the startup load
+public class UsernameIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(UsernameIndex.class);
+
+    private static final String CLUSTER_TOPIC = "chat.users";
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    // lowercased username + '\0' + username -> user ID
+    private final NavigableMap<String, Long> usernames = new ConcurrentSkipListMap<>();
+
+    @PostConstruct
+    public void init() {
+        clusterNode.subscribe(CLUSTER_TOPIC, UserAdded.class, message -> addLocal(message.userId, message.username));
+
+        long start = System.currentTimeMillis();
+        for (UserSummary user : userRepository.findAllSummaries()) {
+            addLocal(user.getId(), user.getUsername());
+        }
+        log.info("Indexed {} usernames in {} ms", usernames.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Index a newly registered user, on every node
+     */
+    public void add(Long userId, String username) {
+        addLocal(userId, username);
+        clusterNode.publish(CLUSTER_TOPIC, new UserAdded(userId, username));
+    }
+
+    /**
+     * Users whose name starts with the prefix (ignoring case), in username order
+     */
+    public List<UserSummary> search(String prefix, int limit) {
+        String lowered = prefix.toLowerCase(Locale.ROOT);
+        List<UserSummary> matches = new ArrayList<>(Math.min(limit, 64));
+        for (Map.Entry<String, Long> entry : usernames.tailMap(lowered, true).entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(lowered) || matches.size() >= limit) {
+                break;
+            }
+            matches.add(new UserSummary(entry.getValue(), key.substring(key.indexOf('\0') + 1)));
+        }
+        return matches;
+    }
+
+    public int size() {
+        return usernames.size();
+    }
+
+    private void addLocal(Long userId, String username) {
+        if (userId != null && username != null) {
+            usernames.put(username.toLowerCase(Locale.ROOT) + '\0' + username, userId);
+        }
+    }
+
+    /**
+     * A user registered on another node
+     */
+    private static final class UserAdded extends ClusterMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final Long userId;
+        private final String username;
+
+        private UserAdded(Long userId, String username) {
+            this.userId = userId;
+            this.username = username;
+        }
+    }
+}
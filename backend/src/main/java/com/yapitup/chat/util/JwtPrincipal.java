@@ -0,0 +1,35 @@
+package com.yapitup.chat.util;
+
+import java.util.Date;
+
+/**
+ * Identity carried by a verified JWT token
+ */
+public class JwtPrincipal {
+
+    private final Long userId;
+    private final String username;
+    private final Date expiration;
+
+    public JwtPrincipal(Long userId, String username, Date expiration) {
+        this.userId = userId;
+        this.username = username;
+        this.expiration = expiration;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Date getExpiration() {
+        return expiration;
+    }
+
+    public boolean isExpired() {
+        return expiration.before(new Date());
+    }
+}
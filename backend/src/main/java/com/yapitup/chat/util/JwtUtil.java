@@ -1,15 +1,22 @@
 package com.yapitup.chat.util;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.Map;
+import java.util.Optional;
 import java.util.function.Function;
 
 /**
@@ -25,11 +32,64 @@ public class JwtUtil {
     @Value("${jwt.expiration}")
     private Long expiration;
 
+    @Value("${jwt.cache.max-size:50000}")
+    private int cacheMaxSize;
+
+    // Built once - the key and parser are immutable and thread-safe
+    private SecretKey signingKey;
+    private JwtParser parser;
+
+    // SHA-256 of token -> verified principal, so each token is parsed only once
+    private LruCache<String, JwtPrincipal> verifiedTokens;
+
+    @PostConstruct
+    public void init() {
+        signingKey = Keys.hmacShaKeyFor(secret.getBytes());
+        parser = Jwts.parser()
+                .verifyWith(signingKey)
+                .build();
+        verifiedTokens = new LruCache<>(cacheMaxSize);
+    }
+
     /**
      * Get the signing key from the secret
      */
     private SecretKey getSigningKey() {
-        return Keys.hmacShaKeyFor(secret.getBytes());
+        return signingKey;
+    }
+
+    /**
+     * Verify a token and return its principal.
+     * The signature is checked once per token; later calls are a cache lookup
+     * until the token expires.
+     */
+    public Optional<JwtPrincipal> verify(String token) {
+        String key = digest(token);
+        JwtPrincipal principal = verifiedTokens.get(key);
+        if (principal != null) {
+            if (!principal.isExpired()) {
+                return Optional.of(principal);
+            }
+            verifiedTokens.remove(key);
+            return Optional.empty();
+        }
+
+        try {
+            Claims claims = extractAllClaims(token);
+            principal = new JwtPrincipal(
+                    claims.get("userId", Long.class),
+                    claims.getSubject(),
+                    claims.getExpiration());
+        } catch (Exception e) {
+            // Bad signature, malformed or expired
+            return Optional.empty();
+        }
+
+        if (principal.isExpired()) {
+            return Optional.empty();
+        }
+        verifiedTokens.put(key, principal);
+        return Optional.of(principal);
     }
 
     /**
@@ -93,36 +153,36 @@ public class JwtUtil {
      * Extract all claims from token
      */
     private Claims extractAllClaims(String token) {
-        return Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
+        return parser
                 .parseSignedClaims(token)
                 .getPayload();
     }
 
-    /**
-     * Check if token is expired
-     */
-    private Boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
-    }
-
     /**
      * Validate token
      */
     public Boolean validateToken(String token, String username) {
-        final String tokenUsername = extractUsername(token);
-        return (tokenUsername.equals(username) && !isTokenExpired(token));
+        return verify(token)
+                .map(principal -> principal.getUsername().equals(username))
+                .orElse(false);
     }
 
     /**
      * Validate token (without username check)
      */
     public Boolean validateToken(String token) {
+        return verify(token).isPresent();
+    }
+
+    /**
+     * Cache key for a token - its SHA-256, so raw tokens are not kept in memory
+     */
+    private static String digest(String token) {
         try {
-            return !isTokenExpired(token);
-        } catch (Exception e) {
-            return false;
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(sha256.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
         }
     }
 }
@@ -0,0 +1,22 @@
+package com.yapitup.chat.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets through one in every N calls, for log lines on paths that run once per
+ * message. 1 logs everything; 0 or less logs nothing.
+ */
+public class LogSampler {
+
+    private final int every;
+
+    private final AtomicLong calls = new AtomicLong();
+
+    public LogSampler(int every) {
+        this.every = every;
+    }
+
+    public boolean sample() {
+        return every > 0 && calls.getAndIncrement() % every == 0;
+    }
+}
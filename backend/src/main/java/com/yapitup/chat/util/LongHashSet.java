@@ -0,0 +1,144 @@
+package com.yapitup.chat.util;
+
+/**
+ * Thread-safe set of primitive longs.
+ * Open addressing with linear probing over a single long[], so a member costs
+ * 8-16 bytes instead of a boxed Long plus a hash node. Zero marks an empty
+ * slot and is tracked separately.
+ */
+public class LongHashSet {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] slots;
+    private int size;
+    private boolean containsZero;
+
+    public LongHashSet() {
+        slots = new long[MIN_CAPACITY];
+    }
+
+    public synchronized boolean contains(long value) {
+        if (value == 0) {
+            return containsZero;
+        }
+        return slots[indexOf(slots, value)] == value;
+    }
+
+    /**
+     * @return true if the value was not already present
+     */
+    public synchronized boolean add(long value) {
+        if (value == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+
+        int index = indexOf(slots, value);
+        if (slots[index] == value) {
+            return false;
+        }
+        slots[index] = value;
+        size++;
+        // Keep the load factor at or below 1/2 so probe runs stay short
+        if (size * 2 > slots.length) {
+            resize(slots.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the value was present
+     */
+    public synchronized boolean remove(long value) {
+        if (value == 0) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            size--;
+            return true;
+        }
+
+        int index = indexOf(slots, value);
+        if (slots[index] != value) {
+            return false;
+        }
+        slots[index] = 0;
+        size--;
+        closeGap(index);
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long[] toArray() {
+        long[] values = new long[size];
+        int count = 0;
+        if (containsZero) {
+            values[count++] = 0;
+        }
+        for (long slot : slots) {
+            if (slot != 0) {
+                values[count++] = slot;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Slot holding the value, or the empty slot where it would go
+     */
+    private static int indexOf(long[] table, long value) {
+        int mask = table.length - 1;
+        int index = hash(value) & mask;
+        while (table[index] != 0 && table[index] != value) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * Shift later entries of the probe run back into a freed slot, so lookups
+     * never stop early at the hole
+     */
+    private void closeGap(int gap) {
+        int mask = slots.length - 1;
+        int index = (gap + 1) & mask;
+        while (slots[index] != 0) {
+            int home = hash(slots[index]) & mask;
+            // Move the entry if its home slot is not between the gap and its current slot
+            if (((index - home) & mask) >= ((index - gap) & mask)) {
+                slots[gap] = slots[index];
+                slots[index] = 0;
+                gap = index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] resized = new long[capacity];
+        for (long slot : slots) {
+            if (slot != 0) {
+                resized[indexOf(resized, slot)] = slot;
+            }
+        }
+        slots = resized;
+    }
+
+    private static int hash(long value) {
+        // Spread sequential IDs across the table (fmix64 from MurmurHash3)
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
@@ -0,0 +1,289 @@
+package com.yapitup.chat.websocket;
+
+import com.corundumstudio.socketio.BroadcastOperations;
+import com.corundumstudio.socketio.SocketIOClient;
+import com.corundumstudio.socketio.SocketIOServer;
+import com.corundumstudio.socketio.namespace.Namespace;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+import com.yapitup.chat.cluster.ClusterMessage;
+import com.yapitup.chat.cluster.ClusterNode;
+import com.yapitup.chat.cluster.ClusterRoomDirectory;
+import com.yapitup.chat.dto.MessageDTO;
+import com.yapitup.chat.metrics.ChatMetrics;
+import jakarta.annotation.PostConstruct;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Broadcasts chat messages to a room, encoding each message once.
+ * JSON clients get a pre-serialized payload that Jackson copies as raw UTF-8
+ * bytes for every recipient instead of serializing the DTO again. Clients
+ * that connect with {@code ?encoding=msgpack} get a compact MessagePack array
+ * as a Socket.IO binary attachment; it is also encoded only once per message.
+ * When the room has members on other nodes, the DTO itself is relayed and
+ * each node encodes it once for its own clients.
+ * Every recipient is sent to through {@link OutboundFlowControl}, so a slow
+ * client only ever holds up its own outbox.
+ * In hot rooms {@link RoomMessageBatcher} collects message_received events
+ * into one messages_received array per window, encoded once per batch.
+ */
+@Component
+public class MessageBroadcaster {
+
+    public static final String ENCODING_PARAM = "encoding";
+    public static final String MSGPACK = "msgpack";
+
+    public static final String MESSAGE_RECEIVED = "message_received";
+    public static final String MESSAGES_RECEIVED = "messages_received";
+
+    private static final String CLUSTER_TOPIC = "chat.room-message";
+
+    private static final String ROOM_EVENT_TOPIC = "chat.room-event";
+
+    @Autowired
+    private SocketIOServer socketIOServer;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    @Autowired
+    private ClusterRoomDirectory clusterRoomDirectory;
+
+    @Autowired
+    private OutboundFlowControl outboundFlowControl;
+
+    @Autowired
+    private RoomMessageBatcher roomMessageBatcher;
+
+    @Autowired
+    private ChatMetrics chatMetrics;
+
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+
+    private final ObjectMapper msgpackMapper = new ObjectMapper(new MessagePackFactory());
+
+    // Sessions that asked for MessagePack at handshake
+    private final Set<UUID> msgpackSessions = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        roomMessageBatcher.setFlushHandler(this::sendBatchToLocalClients);
+        clusterNode.subscribe(CLUSTER_TOPIC, RoomMessage.class, relayed -> {
+            String room = String.valueOf(relayed.message.getRoomId());
+            sendToLocalClients(socketIOServer.getRoomOperations(room), relayed.event, relayed.message);
+        });
+        clusterNode.subscribe(ROOM_EVENT_TOPIC, RoomEvent.class, relayed ->
+                outboundFlowControl.sendToRoom(socketIOServer.getRoomOperations(String.valueOf(relayed.roomId)),
+                        relayed.event, relayed.payload, OutboundFlowControl.Priority.LOW, relayed.roomId));
+    }
+
+    /**
+     * Record the encoding a client negotiated in its handshake query
+     */
+    public void register(SocketIOClient client) {
+        String encoding = client.getHandshakeData().getSingleUrlParam(ENCODING_PARAM);
+        if (MSGPACK.equalsIgnoreCase(encoding)) {
+            msgpackSessions.add(client.getSessionId());
+        }
+    }
+
+    public void unregister(SocketIOClient client) {
+        msgpackSessions.remove(client.getSessionId());
+    }
+
+    /**
+     * Send an event carrying a message to every client in the room, on every node
+     */
+    public void broadcast(BroadcastOperations roomOps, String event, MessageDTO message) {
+        boolean remoteMembers = clusterNode.isEnabled() && clusterRoomDirectory.hasRemoteSessions(
+                Namespace.DEFAULT_NAME, String.valueOf(message.getRoomId()));
+        if (remoteMembers) {
+            clusterNode.publish(CLUSTER_TOPIC, new RoomMessage(event, message));
+        }
+        sendToLocalClients(roomOps, event, message);
+    }
+
+    /**
+     * Send a membership notice (user_joined_room, user_left_room) to every
+     * client in the room, on every node. These are the first events dropped
+     * for a client that falls behind.
+     */
+    public void broadcastRoomEvent(Long roomId, String event, Map<String, Object> payload) {
+        String room = String.valueOf(roomId);
+        if (clusterNode.isEnabled() && clusterRoomDirectory.hasRemoteSessions(Namespace.DEFAULT_NAME, room)) {
+            clusterNode.publish(ROOM_EVENT_TOPIC, new RoomEvent(roomId, event, new HashMap<>(payload)));
+        }
+        outboundFlowControl.sendToRoom(socketIOServer.getRoomOperations(room),
+                event, payload, OutboundFlowControl.Priority.LOW, roomId);
+    }
+
+    /**
+     * Serialize once into a raw JSON value; SerializedString caches its UTF-8
+     * bytes, so each recipient's encoder only copies them
+     */
+    public Object encodeJson(MessageDTO message) {
+        try {
+            return new RawValue(new SerializedString(jsonMapper.writeValueAsString(message)));
+        } catch (JsonProcessingException e) {
+            // Fall back to letting the Socket.IO encoder serialize it
+            return message;
+        }
+    }
+
+    /**
+     * Positional MessagePack array: [id, roomId, userId, username, content, createdAt]
+     */
+    public byte[] encodeMsgpack(MessageDTO message) {
+        try {
+            return msgpackMapper.writeValueAsBytes(msgpackFields(message));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to encode message " + message.getId(), e);
+        }
+    }
+
+    /**
+     * One JSON array holding every message of the batch
+     */
+    public Object encodeJsonBatch(List<MessageDTO> messages) {
+        try {
+            StringBuilder json = new StringBuilder("[");
+            for (MessageDTO message : messages) {
+                if (json.length() > 1) {
+                    json.append(',');
+                }
+                json.append(jsonMapper.writeValueAsString(message));
+            }
+            return new RawValue(new SerializedString(json.append(']').toString()));
+        } catch (JsonProcessingException e) {
+            return messages;
+        }
+    }
+
+    /**
+     * MessagePack array of positional message arrays
+     */
+    public byte[] encodeMsgpackBatch(List<MessageDTO> messages) {
+        List<Object[]> batch = new ArrayList<>(messages.size());
+        for (MessageDTO message : messages) {
+            batch.add(msgpackFields(message));
+        }
+        try {
+            return msgpackMapper.writeValueAsBytes(batch);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to encode a batch of " + messages.size() + " messages", e);
+        }
+    }
+
+    private static Object[] msgpackFields(MessageDTO message) {
+        return new Object[] {
+                message.getId(),
+                message.getRoomId(),
+                message.getUserId(),
+                message.getUsername(),
+                message.getContent(),
+                message.getCreatedAt()
+        };
+    }
+
+    /**
+     * Deliver to the room's clients connected to this node, one client at a
+     * time so each goes through its own flow control
+     */
+    private void sendToLocalClients(BroadcastOperations roomOps, String event, MessageDTO message) {
+        // Hot room - goes out with the rest of the batch
+        if (MESSAGE_RECEIVED.equals(event) && roomMessageBatcher.offer(message)) {
+            return;
+        }
+        sendNow(roomOps, event, message);
+    }
+
+    private void sendNow(BroadcastOperations roomOps, String event, MessageDTO message) {
+        Object json = encodeJson(message);
+        byte[] msgpack = null;
+        int recipients = 0;
+        for (SocketIOClient client : roomOps.getClients()) {
+            Object payload = json;
+            if (msgpackSessions.contains(client.getSessionId())) {
+                if (msgpack == null) {
+                    msgpack = encodeMsgpack(message);
+                }
+                payload = msgpack;
+            }
+            outboundFlowControl.send(client, event, payload, OutboundFlowControl.Priority.MESSAGE, message.getRoomId());
+            recipients++;
+        }
+        chatMetrics.recordFanOut(event, recipients);
+    }
+
+    /**
+     * Deliver a hot room's batch to its clients connected to this node.
+     * A batch of one goes out as a plain message_received.
+     */
+    private void sendBatchToLocalClients(Long roomId, List<MessageDTO> messages) {
+        BroadcastOperations roomOps = socketIOServer.getRoomOperations(String.valueOf(roomId));
+        if (messages.size() == 1) {
+            sendNow(roomOps, MESSAGE_RECEIVED, messages.get(0));
+            return;
+        }
+
+        Object json = encodeJsonBatch(messages);
+        byte[] msgpack = null;
+        int recipients = 0;
+        for (SocketIOClient client : roomOps.getClients()) {
+            Object payload = json;
+            if (msgpackSessions.contains(client.getSessionId())) {
+                if (msgpack == null) {
+                    msgpack = encodeMsgpackBatch(messages);
+                }
+                payload = msgpack;
+            }
+            outboundFlowControl.send(client, MESSAGES_RECEIVED, payload, OutboundFlowControl.Priority.MESSAGE, roomId);
+            recipients++;
+        }
+        chatMetrics.recordFanOut(MESSAGES_RECEIVED, recipients);
+    }
+
+    /**
+     * A room broadcast relayed to the other nodes
+     */
+    private static final class RoomMessage extends ClusterMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final String event;
+        private final MessageDTO message;
+
+        private RoomMessage(String event, MessageDTO message) {
+            this.event = event;
+            this.message = message;
+        }
+    }
+
+    /**
+     * A room membership notice relayed to the other nodes
+     */
+    private static final class RoomEvent extends ClusterMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final Long roomId;
+        private final String event;
+        private final HashMap<String, Object> payload;
+
+        private RoomEvent(Long roomId, String event, HashMap<String, Object> payload) {
+            this.roomId = roomId;
+            this.event = event;
+            this.payload = payload;
+        }
+    }
+}
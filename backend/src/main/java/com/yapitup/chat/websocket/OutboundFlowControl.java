@@ -0,0 +1,378 @@
+package com.yapitup.chat.websocket;
+
+import com.corundumstudio.socketio.BroadcastOperations;
+import com.corundumstudio.socketio.SocketIOClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds what the server buffers for a slow client.
+ * Events go straight to a client whose transport is writable. Once it is not
+ * (netty's write buffer is over its watermark, or a polling client has no
+ * pending poll), events wait in a per-client outbox that is drained as the
+ * transport catches up. As the outbox fills:
+ * <ul>
+ *   <li>at the high watermark, typing and presence events are dropped, and
+ *       queued typing snapshots are replaced by newer ones</li>
+ *   <li>at the maximum, queued typing/presence events are evicted to make
+ *       room; when there are none, the slow-consumer policy applies: either
+ *       further messages are dropped and the client gets one
+ *       {@code resync_needed} event once it is back under the low watermark,
+ *       or the client is disconnected</li>
+ * </ul>
+ * Replies to the client's own actions (acks, errors, confirmations) are
+ * never dropped.
+ */
+@Component
+public class OutboundFlowControl {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboundFlowControl.class);
+
+    public enum Priority {
+        // Replies to the client's own actions
+        CONTROL,
+        // Chat messages
+        MESSAGE,
+        // Typing and presence; first to go
+        LOW
+    }
+
+    public enum SlowConsumerPolicy {
+        RESYNC,
+        DISCONNECT
+    }
+
+    @Value("${chat.backpressure.high-watermark:64}")
+    private int highWatermark;
+
+    @Value("${chat.backpressure.low-watermark:16}")
+    private int lowWatermark;
+
+    @Value("${chat.backpressure.max-queue:256}")
+    private int maxQueue;
+
+    @Value("${chat.backpressure.policy:RESYNC}")
+    private SlowConsumerPolicy policy;
+
+    @Value("${chat.backpressure.drain-interval-ms:20}")
+    private long drainIntervalMs;
+
+    // Only clients that have fallen behind have an outbox
+    private final Map<UUID, Outbox> outboxes = new ConcurrentHashMap<>();
+
+    private final LongAdder droppedLowEvents = new LongAdder();
+
+    private final LongAdder droppedMessages = new LongAdder();
+
+    private final LongAdder slowConsumerDisconnects = new LongAdder();
+
+    private ScheduledExecutorService drainer;
+
+    @PostConstruct
+    public void start() {
+        // Its own thread, so database work on the shared @Scheduled one cannot hold up delivery
+        drainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbound-drain");
+            thread.setDaemon(true);
+            return thread;
+        });
+        drainer.scheduleWithFixedDelay(() -> {
+            try {
+                drain();
+            } catch (RuntimeException e) {
+                // Keep draining; an exception would cancel the schedule
+                log.warn("Outbox drain failed: {}", e.getMessage());
+            }
+        }, drainIntervalMs, drainIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        drainer.shutdownNow();
+    }
+
+    /**
+     * Send a reply to the client's own action
+     */
+    public void send(SocketIOClient client, String event, Object payload) {
+        send(client, new Pending(event, payload, Priority.CONTROL, null, false));
+    }
+
+    /**
+     * Send a room event to one client
+     */
+    public void send(SocketIOClient client, String event, Object payload, Priority priority, Long roomId) {
+        send(client, new Pending(event, payload, priority, roomId, false));
+    }
+
+    /**
+     * Send a room's latest state; a queued older state of the same room is replaced
+     */
+    public void sendSnapshot(SocketIOClient client, String event, Object payload, Long roomId) {
+        send(client, new Pending(event, payload, Priority.LOW, roomId, true));
+    }
+
+    /**
+     * Send a room event to every client of the room connected to this node
+     */
+    public void sendToRoom(BroadcastOperations roomOps, String event, Object payload, Priority priority, Long roomId) {
+        for (SocketIOClient client : roomOps.getClients()) {
+            send(client, event, payload, priority, roomId);
+        }
+    }
+
+    /**
+     * Forget a disconnected client's outbox
+     */
+    public void remove(SocketIOClient client) {
+        Outbox outbox = outboxes.remove(client.getSessionId());
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    /**
+     * Push queued events to clients whose transport has caught up
+     */
+    public void drain() {
+        for (Map.Entry<UUID, Outbox> entry : outboxes.entrySet()) {
+            Outbox outbox = entry.getValue();
+            if (outbox.drain()) {
+                outboxes.remove(entry.getKey(), outbox);
+            }
+        }
+    }
+
+    /**
+     * Events queued for a client, 0 if it is keeping up
+     */
+    public int getQueueDepth(UUID sessionId) {
+        Outbox outbox = outboxes.get(sessionId);
+        return outbox != null ? outbox.size() : 0;
+    }
+
+    /**
+     * Events queued for all clients that have fallen behind
+     */
+    public long getQueuedEventCount() {
+        long queued = 0;
+        for (Outbox outbox : outboxes.values()) {
+            queued += outbox.size();
+        }
+        return queued;
+    }
+
+    /**
+     * Deepest queue of any one client
+     */
+    public int getMaxQueueDepth() {
+        int max = 0;
+        for (Outbox outbox : outboxes.values()) {
+            max = Math.max(max, outbox.size());
+        }
+        return max;
+    }
+
+    public int getSlowClientCount() {
+        return outboxes.size();
+    }
+
+    public long getDroppedLowEventCount() {
+        return droppedLowEvents.sum();
+    }
+
+    public long getDroppedMessageCount() {
+        return droppedMessages.sum();
+    }
+
+    public long getSlowConsumerDisconnectCount() {
+        return slowConsumerDisconnects.sum();
+    }
+
+    private void send(SocketIOClient client, Pending pending) {
+        UUID sessionId = client.getSessionId();
+        while (client.isChannelOpen()) {
+            Outbox outbox = outboxes.get(sessionId);
+            if (outbox == null) {
+                if (client.isWritable()) {
+                    pending.sendTo(client);
+                    return;
+                }
+                outbox = outboxes.computeIfAbsent(sessionId, id -> new Outbox(client));
+            }
+            if (outbox.offer(pending)) {
+                return;
+            }
+            // The outbox was closed after draining - drop it and look again
+            outboxes.remove(sessionId, outbox);
+        }
+    }
+
+    /**
+     * Events waiting for one client's transport
+     */
+    private final class Outbox {
+        private final SocketIOClient client;
+        private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+        // Rooms whose messages were dropped while over the maximum
+        private final Set<Long> resyncRooms = new LinkedHashSet<>();
+        private boolean overflowing;
+        private boolean closed;
+
+        Outbox(SocketIOClient client) {
+            this.client = client;
+        }
+
+        /**
+         * @return false if the outbox is closed and the event was not taken
+         */
+        synchronized boolean offer(Pending pending) {
+            if (closed) {
+                return false;
+            }
+
+            if (pending.priority == Priority.LOW) {
+                if (pending.snapshot && replaceSnapshot(pending)) {
+                    return true;
+                }
+                if (queue.size() >= highWatermark) {
+                    droppedLowEvents.increment();
+                    return true;
+                }
+            }
+
+            if (pending.priority == Priority.MESSAGE) {
+                if (overflowing) {
+                    dropMessage(pending);
+                    return true;
+                }
+                if (queue.size() >= maxQueue && !evictLowEvent()) {
+                    if (policy == SlowConsumerPolicy.DISCONNECT) {
+                        disconnect();
+                        return true;
+                    }
+                    overflowing = true;
+                    dropMessage(pending);
+                    return true;
+                }
+            }
+
+            queue.addLast(pending);
+            return true;
+        }
+
+        /**
+         * Send while the transport accepts more
+         *
+         * @return true if the outbox is empty and has been closed
+         */
+        synchronized boolean drain() {
+            if (closed) {
+                return true;
+            }
+            if (!client.isChannelOpen()) {
+                close();
+                return true;
+            }
+            while (!queue.isEmpty() && client.isWritable()) {
+                queue.pollFirst().sendTo(client);
+            }
+
+            // Back under the low watermark - tell the client what it missed
+            if (overflowing && queue.size() <= lowWatermark) {
+                overflowing = false;
+                queue.addLast(new Pending("resync_needed", Map.of("roomIds", Set.copyOf(resyncRooms)),
+                        Priority.CONTROL, null, false));
+                resyncRooms.clear();
+                return drain();
+            }
+
+            if (queue.isEmpty() && client.isWritable()) {
+                closed = true;
+            }
+            return closed;
+        }
+
+        synchronized int size() {
+            return queue.size();
+        }
+
+        synchronized void close() {
+            closed = true;
+            queue.clear();
+        }
+
+        private boolean replaceSnapshot(Pending pending) {
+            for (Pending queued : queue) {
+                if (queued.snapshot && queued.event.equals(pending.event) && pending.roomId.equals(queued.roomId)) {
+                    queued.payload = pending.payload;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean evictLowEvent() {
+            Iterator<Pending> iterator = queue.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().priority == Priority.LOW) {
+                    iterator.remove();
+                    droppedLowEvents.increment();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void dropMessage(Pending pending) {
+            droppedMessages.increment();
+            if (pending.roomId != null) {
+                resyncRooms.add(pending.roomId);
+            }
+        }
+
+        private void disconnect() {
+            closed = true;
+            queue.clear();
+            slowConsumerDisconnects.increment();
+            log.warn("Disconnecting slow client {} (more than {} queued events)", client.getSessionId(), maxQueue);
+            client.disconnect();
+        }
+    }
+
+    private static final class Pending {
+        private final String event;
+        private Object payload;
+        private final Priority priority;
+        private final Long roomId;
+        private final boolean snapshot;
+
+        private Pending(String event, Object payload, Priority priority, Long roomId, boolean snapshot) {
+            this.event = event;
+            this.payload = payload;
+            this.priority = priority;
+            this.roomId = roomId;
+            this.snapshot = snapshot;
+        }
+
+        void sendTo(SocketIOClient client) {
+            client.sendEvent(event, payload);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.yapitup.chat.websocket;
+
+import com.yapitup.chat.dto.MessageDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Batches message_received broadcasts in rooms busy enough for per-frame
+ * overhead to dominate.
+ * Each room's message rate is measured over a short window. A room above
+ * {@code chat.batching.hot-rate} messages per second collects its messages
+ * and hands them over as one batch after a window that grows with the rate,
+ * from {@code min-window-ms} at the threshold up to {@code max-window-ms};
+ * a full batch goes out at once. A room that drops below half the threshold
+ * goes back to immediate delivery. Quiet rooms are never delayed.
+ */
+@Component
+public class RoomMessageBatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(RoomMessageBatcher.class);
+
+    @Value("${chat.batching.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.batching.hot-rate:20}")
+    private double hotRate;
+
+    @Value("${chat.batching.rate-window-ms:500}")
+    private long rateWindowMs;
+
+    @Value("${chat.batching.min-window-ms:5}")
+    private long minWindowMs;
+
+    @Value("${chat.batching.max-window-ms:40}")
+    private long maxWindowMs;
+
+    @Value("${chat.batching.max-batch:100}")
+    private int maxBatch;
+
+    private final Map<Long, RoomBatch> rooms = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    // Delivers a room's batch, in the order the messages arrived
+    private volatile BiConsumer<Long, List<MessageDTO>> flushHandler;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "room-message-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        rooms.values().forEach(RoomBatch::flush);
+    }
+
+    public void setFlushHandler(BiConsumer<Long, List<MessageDTO>> flushHandler) {
+        this.flushHandler = flushHandler;
+    }
+
+    /**
+     * Take a message for later delivery if its room is hot
+     *
+     * @return false if the caller should deliver it immediately
+     */
+    public boolean offer(MessageDTO message) {
+        if (!enabled || flushHandler == null) {
+            return false;
+        }
+        return rooms.computeIfAbsent(message.getRoomId(), RoomBatch::new)
+                .offer(message, System.currentTimeMillis());
+    }
+
+    public boolean isHot(Long roomId) {
+        RoomBatch room = rooms.get(roomId);
+        return room != null && room.isHot();
+    }
+
+    /**
+     * Rooms currently batching message_received
+     */
+    public int getHotRoomCount() {
+        int hot = 0;
+        for (RoomBatch room : rooms.values()) {
+            if (room.isHot()) {
+                hot++;
+            }
+        }
+        return hot;
+    }
+
+    /**
+     * Message rate of one room, the sampling window in progress included
+     */
+    private final class RoomBatch {
+        private final Long roomId;
+        private long windowStart = System.currentTimeMillis();
+        private int windowCount;
+        // Messages per second over the last completed window
+        private double rate;
+        private boolean hot;
+        private List<MessageDTO> pending = new ArrayList<>();
+        // A taken batch is on its way to the flush handler
+        private boolean delivering;
+        // Held while handing a batch over, so batches go out in the order they were taken
+        private final ReentrantLock delivery = new ReentrantLock();
+
+        RoomBatch(Long roomId) {
+            this.roomId = roomId;
+        }
+
+        boolean offer(MessageDTO message, long now) {
+            boolean flushNow;
+            synchronized (this) {
+                recordArrival(now);
+
+                // A batch still waiting or being delivered keeps the room batched until it is out, so order holds
+                if (!hot && pending.isEmpty() && !delivering) {
+                    return false;
+                }
+
+                pending.add(message);
+                flushNow = pending.size() >= maxBatch;
+                if (!flushNow && pending.size() == 1) {
+                    try {
+                        scheduler.schedule(this::flush, windowMs(), TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e) {
+                        // Shutting down
+                        flushNow = true;
+                    }
+                }
+            }
+            if (flushNow) {
+                flush();
+            }
+            return true;
+        }
+
+        /**
+         * Hand the waiting messages to the flush handler; the fan-out runs
+         * without the room's monitor, so offers to the room do not wait for it
+         */
+        void flush() {
+            delivery.lock();
+            try {
+                List<MessageDTO> batch;
+                synchronized (this) {
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    batch = pending;
+                    pending = new ArrayList<>();
+                    delivering = true;
+                }
+                try {
+                    flushHandler.accept(roomId, batch);
+                } catch (RuntimeException e) {
+                    log.warn("Failed to deliver batch of {} message(s) to room {}: {}",
+                            batch.size(), roomId, e.getMessage());
+                } finally {
+                    synchronized (this) {
+                        delivering = false;
+                    }
+                }
+            } finally {
+                delivery.unlock();
+            }
+        }
+
+        synchronized boolean isHot() {
+            return hot;
+        }
+
+        private void recordArrival(long now) {
+            long elapsed = now - windowStart;
+            if (elapsed >= rateWindowMs) {
+                rate = windowCount * 1000.0 / elapsed;
+                windowStart = now;
+                windowCount = 0;
+                if (hot && rate < hotRate / 2) {
+                    hot = false;
+                    log.info("Room {} back to immediate delivery ({} msg/s)", roomId, Math.round(rate));
+                }
+            }
+            windowCount++;
+
+            // Over the threshold already within this window - no need to wait for it to end
+            if (!hot && Math.max(rate, windowCount * 1000.0 / rateWindowMs) >= hotRate) {
+                hot = true;
+                log.info("Room {} is hot, batching message_received ({} msg/s)",
+                        roomId, Math.round(Math.max(rate, windowCount * 1000.0 / rateWindowMs)));
+            }
+        }
+
+        /**
+         * The busier the room, the longer the window, so batches stay worth sending
+         */
+        private long windowMs() {
+            double currentRate = Math.max(rate, windowCount * 1000.0 / rateWindowMs);
+            long window = Math.round(minWindowMs * currentRate / hotRate);
+            return Math.max(minWindowMs, Math.min(maxWindowMs, window));
+        }
+    }
+}
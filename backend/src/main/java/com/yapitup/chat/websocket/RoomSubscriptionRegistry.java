@@ -0,0 +1,113 @@
+package com.yapitup.chat.websocket;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe index of which Socket.IO sessions are subscribed to which rooms.
+ * Keeps both directions (session -> rooms and room -> sessions) so that
+ * disconnect cleanup and per-room member counts never walk every client.
+ * Updates are per-key atomic; there is no global lock.
+ */
+@Component
+public class RoomSubscriptionRegistry {
+
+    // sessionId -> rooms the session is in
+    private final Map<UUID, Set<Long>> sessionRooms = new ConcurrentHashMap<>();
+
+    // roomId -> sessions in the room (only non-empty rooms are kept)
+    private final Map<Long, Set<UUID>> roomSessions = new ConcurrentHashMap<>();
+
+    /**
+     * Subscribe a session to a room
+     *
+     * @return true if the session was not already in the room
+     */
+    public boolean join(UUID sessionId, long roomId) {
+        boolean added = sessionRooms
+                .computeIfAbsent(sessionId, id -> ConcurrentHashMap.newKeySet())
+                .add(roomId);
+
+        roomSessions.compute(roomId, (id, sessions) -> {
+            if (sessions == null) {
+                sessions = ConcurrentHashMap.newKeySet();
+            }
+            sessions.add(sessionId);
+            return sessions;
+        });
+        return added;
+    }
+
+    /**
+     * Unsubscribe a session from a room
+     *
+     * @return true if the session was in the room
+     */
+    public boolean leave(UUID sessionId, long roomId) {
+        boolean removed = false;
+        Set<Long> rooms = sessionRooms.get(sessionId);
+        if (rooms != null) {
+            removed = rooms.remove(roomId);
+        }
+        removeFromRoom(sessionId, roomId);
+        return removed;
+    }
+
+    /**
+     * Drop a session from every room it is in
+     *
+     * @return the rooms the session was in
+     */
+    public Set<Long> removeSession(UUID sessionId) {
+        Set<Long> rooms = sessionRooms.remove(sessionId);
+        if (rooms == null) {
+            return Collections.emptySet();
+        }
+        for (Long roomId : rooms) {
+            removeFromRoom(sessionId, roomId);
+        }
+        return rooms;
+    }
+
+    public Set<Long> getRooms(UUID sessionId) {
+        Set<Long> rooms = sessionRooms.get(sessionId);
+        return rooms != null ? Collections.unmodifiableSet(rooms) : Collections.emptySet();
+    }
+
+    public Set<UUID> getSessions(long roomId) {
+        Set<UUID> sessions = roomSessions.get(roomId);
+        return sessions != null ? Collections.unmodifiableSet(sessions) : Collections.emptySet();
+    }
+
+    public boolean isInRoom(UUID sessionId, long roomId) {
+        Set<Long> rooms = sessionRooms.get(sessionId);
+        return rooms != null && rooms.contains(roomId);
+    }
+
+    /**
+     * Number of sessions in a room
+     */
+    public int getMemberCount(long roomId) {
+        Set<UUID> sessions = roomSessions.get(roomId);
+        return sessions != null ? sessions.size() : 0;
+    }
+
+    /**
+     * Number of rooms with at least one session
+     */
+    public int getActiveRoomCount() {
+        return roomSessions.size();
+    }
+
+    private void removeFromRoom(UUID sessionId, long roomId) {
+        roomSessions.computeIfPresent(roomId, (id, sessions) -> {
+            sessions.remove(sessionId);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+}
@@ -0,0 +1,196 @@
+package com.yapitup.chat.websocket;
+
+import com.corundumstudio.socketio.SocketIOClient;
+import com.yapitup.chat.metrics.ChatMetrics;
+import com.yapitup.chat.metrics.DbTime;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moves Socket.IO event handling off netty-socketio's worker threads onto
+ * virtual threads, so a slow database call cannot stall every socket that
+ * shares the event loop.
+ * Events of one connection still run one at a time and in arrival order.
+ * Handlers that use the database run at most as many at a time as the
+ * connection pool has connections; handlers that only touch memory (typing)
+ * take no permit, so a burst of sends cannot hold them up.
+ * Each event's wait, total latency and database time are recorded in
+ * {@link ChatMetrics} under the event's name.
+ */
+@Component
+public class SocketEventDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(SocketEventDispatcher.class);
+
+    @Autowired
+    private ChatMetrics chatMetrics;
+
+    @Value("${chat.dispatch.max-concurrency:${spring.datasource.hikari.maximum-pool-size:10}}")
+    private int maxConcurrency;
+
+    private ExecutorService executor;
+
+    private Semaphore permits;
+
+    // sessionId -> that connection's pending events
+    private final Map<UUID, SerialQueue> queues = new ConcurrentHashMap<>();
+
+    // Time spent on the event loop handing events over (not the handlers, which run elsewhere)
+    private final LongAdder handoffNanos = new LongAdder();
+
+    private final LongAdder dispatchedEvents = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        permits = new Semaphore(maxConcurrency);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queue an event of this connection whose handler uses the database to
+     * run on a virtual thread, once a permit is free
+     *
+     * @param event the event's name, for metrics and logs
+     */
+    public void dispatch(SocketIOClient client, String event, Runnable task) {
+        dispatch(client, event, true, task);
+    }
+
+    /**
+     * Queue an event of this connection whose handler only touches memory to
+     * run on a virtual thread, without waiting for a permit
+     *
+     * @param event the event's name, for metrics and logs
+     */
+    public void dispatchInMemory(SocketIOClient client, String event, Runnable task) {
+        dispatch(client, event, false, task);
+    }
+
+    /**
+     * Queue a connection's last event and forget the connection once it has run
+     */
+    public void dispatchLast(SocketIOClient client, String event, Runnable task) {
+        UUID sessionId = client.getSessionId();
+        dispatch(client, event, () -> {
+            try {
+                task.run();
+            } finally {
+                queues.remove(sessionId);
+            }
+        });
+    }
+
+    /**
+     * Total time the event loop spent handing events over, in nanoseconds
+     */
+    public long getHandoffNanos() {
+        return handoffNanos.sum();
+    }
+
+    public long getDispatchedEventCount() {
+        return dispatchedEvents.sum();
+    }
+
+    /**
+     * Connections with events waiting or running
+     */
+    public int getActiveQueueCount() {
+        return queues.size();
+    }
+
+    private void dispatch(SocketIOClient client, String event, boolean usesDatabase, Runnable task) {
+        long start = System.nanoTime();
+        queues.computeIfAbsent(client.getSessionId(), id -> new SerialQueue())
+                .submit(new Event(event, start, usesDatabase, task));
+        dispatchedEvents.increment();
+        handoffNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Runs one connection's events one after another
+     */
+    private final class SerialQueue {
+        private final Queue<Event> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void submit(Event task) {
+            tasks.add(task);
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Event task;
+                while ((task = tasks.poll()) != null) {
+                    run(task);
+                }
+                scheduled.set(false);
+
+                // A task may have arrived after the last poll but before the flag was cleared
+                if (tasks.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+
+        private void run(Event event) {
+            if (event.usesDatabase) {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            long startedAt = System.nanoTime();
+            DbTime.start();
+            try {
+                event.task.run();
+            } catch (Exception e) {
+                log.error("Socket event handler failed: {}", event.name, e);
+            } finally {
+                long dbNanos = DbTime.stop();
+                if (event.usesDatabase) {
+                    permits.release();
+                }
+                chatMetrics.recordEvent(event.name, startedAt - event.arrivedAt,
+                        System.nanoTime() - event.arrivedAt, dbNanos);
+            }
+        }
+    }
+
+    /**
+     * A queued event, when it arrived and whether it needs a permit
+     */
+    private record Event(String name, long arrivedAt, boolean usesDatabase, Runnable task) {
+    }
+}
@@ -5,22 +5,31 @@ import com.corundumstudio.socketio.SocketIOServer;
 import com.corundumstudio.socketio.annotation.OnConnect;
 import com.corundumstudio.socketio.annotation.OnDisconnect;
 import com.corundumstudio.socketio.annotation.OnEvent;
+import com.corundumstudio.socketio.namespace.Namespace;
+import com.yapitup.chat.cluster.ClusterRoomDirectory;
 import com.yapitup.chat.dto.MessageDTO;
-import com.yapitup.chat.model.ChatRoom;
-import com.yapitup.chat.model.Message;
-import com.yapitup.chat.model.User;
-import com.yapitup.chat.repository.ChatRoomRepository;
-import com.yapitup.chat.repository.MessageRepository;
-import com.yapitup.chat.repository.UserRepository;
+import com.yapitup.chat.metrics.ChatMetrics;
+import com.yapitup.chat.search.MessageSearchIndex;
+import com.yapitup.chat.service.ChatCacheService;
+import com.yapitup.chat.service.MessageWriteBehindService;
+import com.yapitup.chat.service.PresenceService;
+import com.yapitup.chat.service.RoomHistoryCache;
+import com.yapitup.chat.service.RoomMembershipService;
+import com.yapitup.chat.util.JwtPrincipal;
 import com.yapitup.chat.util.JwtUtil;
+import com.yapitup.chat.util.LogSampler;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Socket.IO Event Handler Handles real-time events like joining rooms, sending
@@ -29,34 +38,79 @@ import java.util.Optional;
 @Component
 public class SocketIOEventHandler {
 
+    private static final Logger log = LoggerFactory.getLogger(SocketIOEventHandler.class);
+
     @Autowired
     private SocketIOServer socketIOServer;
 
     @Autowired
-    private MessageRepository messageRepository;
+    private MessageWriteBehindService messageWriteBehindService;
+
+    @Autowired
+    private ChatCacheService chatCacheService;
+
+    @Autowired
+    private RoomHistoryCache roomHistoryCache;
 
     @Autowired
-    private ChatRoomRepository chatRoomRepository;
+    private MessageSearchIndex messageSearchIndex;
 
     @Autowired
-    private UserRepository userRepository;
+    private PresenceService presenceService;
 
     @Autowired
     private JwtUtil jwtUtil;
 
-    // Store user's current room
-    private Map<String, Long> userRooms = new HashMap<>();
+    @Autowired
+    private TypingStateTracker typingStateTracker;
+
+    // Who may join and post to each room, checked in memory
+    @Autowired
+    private RoomMembershipService roomMembershipService;
+
+    // Which rooms each session is in (a session can be in several)
+    @Autowired
+    private RoomSubscriptionRegistry roomSubscriptionRegistry;
+
+    // Runs handlers on virtual threads, in order per connection
+    @Autowired
+    private SocketEventDispatcher socketEventDispatcher;
+
+    // Room members connected to other nodes
+    @Autowired
+    private ClusterRoomDirectory clusterRoomDirectory;
+
+    @Autowired
+    private MessageBroadcaster messageBroadcaster;
+
+    // Per-client outboxes for clients that fall behind
+    @Autowired
+    private OutboundFlowControl outboundFlowControl;
+
+    @Autowired
+    private ChatMetrics chatMetrics;
+
+    // Log one in this many connects, joins, leaves and messages (message content is never logged)
+    @Value("${chat.logging.sample-every:100}")
+    private int logSampleEvery;
+
+    private LogSampler logSampler;
 
     @PostConstruct
     public void start() {
+        logSampler = new LogSampler(logSampleEvery);
         socketIOServer.start();
-        System.out.println("🚀 Socket.IO server started on port " + socketIOServer.getConfiguration().getPort());
+        log.info("Socket.IO server started on port {}", socketIOServer.getConfiguration().getPort());
     }
 
     @PreDestroy
     public void stop() {
         socketIOServer.stop();
-        System.out.println("Socket.IO server stopped");
+        // Let events already handed to virtual threads finish first
+        socketEventDispatcher.stop();
+        // Nothing new can arrive now - make sure queued messages reach the database
+        messageWriteBehindService.shutdown();
+        log.info("Socket.IO server stopped");
     }
 
     /**
@@ -64,26 +118,36 @@ public class SocketIOEventHandler {
      */
     @OnConnect
     public void onConnect(SocketIOClient client) {
+        // netty-socketio calls this twice for Engine.IO v4 clients (handshake, then the CONNECT packet)
+        if (client.has("connected")) {
+            return;
+        }
+        client.set("connected", true);
+
         String token = client.getHandshakeData().getSingleUrlParam("token");
-        if (token != null && jwtUtil.validateToken(token)) {
-            Long userId = jwtUtil.extractUserId(token);
-            String username = jwtUtil.extractUsername(token);
+        Optional<JwtPrincipal> principal = token != null ? jwtUtil.verify(token) : Optional.empty();
+        if (principal.isPresent()) {
+            Long userId = principal.get().getUserId();
+            String username = principal.get().getUsername();
 
             // Store user info in client session
             client.set("userId", userId);
             client.set("username", username);
+            chatCacheService.putUser(userId, username);
 
-            // Update user online status
-            Optional<User> userOpt = userRepository.findById(userId);
-            if (userOpt.isPresent()) {
-                User user = userOpt.get();
-                user.setIsOnline(true);
-                userRepository.save(user);
-            }
+            // JSON by default, MessagePack if the client asked for it
+            messageBroadcaster.register(client);
 
-            System.out.println("Client connected: " + username + " (ID: " + userId + ")");
+            // Update user online status (written to the database in batches)
+            presenceService.sessionOpened(userId);
+
+            chatMetrics.connected(true);
+            if (logSampler.sample()) {
+                log.atInfo().setMessage("Client connected").addKeyValue("userId", userId).log();
+            }
         } else {
-            System.out.println("Client connected without valid token");
+            chatMetrics.connected(false);
+            log.debug("Client connected without valid token");
         }
     }
 
@@ -92,27 +156,33 @@ public class SocketIOEventHandler {
      */
     @OnDisconnect
     public void onDisconnect(SocketIOClient client) {
+        // Read session data now, before the client is torn down
         Long userId = client.get("userId");
+        chatMetrics.disconnected();
+        messageBroadcaster.unregister(client);
+        outboundFlowControl.remove(client);
+        socketEventDispatcher.dispatchLast(client, "disconnect", () -> handleDisconnect(client, userId));
+    }
+
+    private void handleDisconnect(SocketIOClient client, Long userId) {
         if (userId != null) {
-            // Update user online status
-            Optional<User> userOpt = userRepository.findById(userId);
-            if (userOpt.isPresent()) {
-                User user = userOpt.get();
-                user.setIsOnline(false);
-                userRepository.save(user);
-            }
+            // Update user online status - offline only once their last session closes
+            presenceService.sessionClosed(userId);
 
             // Remove from room tracking
-            String sessionId = client.getSessionId().toString();
-            Long roomId = userRooms.remove(sessionId);
+            Set<Long> roomIds = roomSubscriptionRegistry.removeSession(client.getSessionId());
+
+            for (Long roomId : roomIds) {
+                typingStateTracker.stop(roomId, userId);
 
-            if (roomId != null) {
                 // Notify others in the room that user left
-                client.getNamespace().getRoomOperations(String.valueOf(roomId))
-                        .sendEvent("user_left_room", Map.of("userId", userId));
+                messageBroadcaster.broadcastRoomEvent(roomId, "user_left_room", Map.of("userId", userId));
             }
 
-            System.out.println("Client disconnected: " + userId);
+            if (logSampler.sample()) {
+                log.atInfo().setMessage("Client disconnected").addKeyValue("userId", userId)
+                        .addKeyValue("rooms", roomIds.size()).log();
+            }
         }
     }
 
@@ -121,48 +191,50 @@ public class SocketIOEventHandler {
      */
     @OnEvent("join_room")
     public void onJoinRoom(SocketIOClient client, Map<String, Object> data) {
+        socketEventDispatcher.dispatch(client, "join_room", () -> handleJoinRoom(client, data));
+    }
+
+    private void handleJoinRoom(SocketIOClient client, Map<String, Object> data) {
         Long userId = client.get("userId");
         if (userId == null) {
-            client.sendEvent("error", Map.of("message", "Unauthorized"));
+            outboundFlowControl.send(client, "error", Map.of("message", "Unauthorized"));
             return;
         }
 
         Long roomId = Long.valueOf(data.get("roomId").toString());
-        Optional<ChatRoom> roomOpt = chatRoomRepository.findById(roomId);
 
-        if (roomOpt.isEmpty()) {
-            client.sendEvent("error", Map.of("message", "Room not found"));
+        if (!chatCacheService.roomExists(roomId)) {
+            outboundFlowControl.send(client, "error", Map.of("message", "Room not found"));
             return;
         }
 
-        // Leave previous room if any
-        String sessionId = client.getSessionId().toString();
-        Long previousRoomId = userRooms.get(sessionId);
-        if (previousRoomId != null && !previousRoomId.equals(roomId)) {
-            client.leaveRoom(String.valueOf(previousRoomId));
+        if (!roomMembershipService.isAllowed(roomId, userId)) {
+            outboundFlowControl.send(client, "error", Map.of("message", "Not a member of this room"));
+            return;
         }
 
-        // Join new room
+        // Join new room (rooms joined earlier stay joined until leave_room)
         client.joinRoom(String.valueOf(roomId));
-        userRooms.put(sessionId, roomId);
+        roomSubscriptionRegistry.join(client.getSessionId(), roomId);
 
         // Get user info
-        Optional<User> userOpt = userRepository.findById(userId);
-        if (userOpt.isPresent()) {
-            User user = userOpt.get();
+        Optional<String> usernameOpt = chatCacheService.getUsername(userId);
+        if (usernameOpt.isPresent()) {
             Map<String, Object> userInfo = Map.of(
-                    "userId", user.getId(),
-                    "username", user.getUsername()
+                    "userId", userId,
+                    "username", usernameOpt.get()
             );
 
             // Notify others in the room
-            client.getNamespace().getRoomOperations(String.valueOf(roomId))
-                    .sendEvent("user_joined_room", userInfo);
+            messageBroadcaster.broadcastRoomEvent(roomId, "user_joined_room", userInfo);
 
             // Confirm to client
-            client.sendEvent("room_joined", Map.of("roomId", roomId, "message", "Joined room successfully"));
+            outboundFlowControl.send(client, "room_joined", Map.of("roomId", roomId, "message", "Joined room successfully"));
 
-            System.out.println("User " + user.getUsername() + " joined room " + roomId);
+            if (logSampler.sample()) {
+                log.atInfo().setMessage("User joined room").addKeyValue("userId", userId)
+                        .addKeyValue("roomId", roomId).log();
+            }
         }
     }
 
@@ -171,31 +243,36 @@ public class SocketIOEventHandler {
      */
     @OnEvent("leave_room")
     public void onLeaveRoom(SocketIOClient client, Map<String, Object> data) {
+        socketEventDispatcher.dispatch(client, "leave_room", () -> handleLeaveRoom(client, data));
+    }
+
+    private void handleLeaveRoom(SocketIOClient client, Map<String, Object> data) {
         Long userId = client.get("userId");
         if (userId == null) {
-            client.sendEvent("error", Map.of("message", "Unauthorized"));
+            outboundFlowControl.send(client, "error", Map.of("message", "Unauthorized"));
             return;
         }
 
         Long roomId = Long.valueOf(data.get("roomId").toString());
-        String sessionId = client.getSessionId().toString();
 
         client.leaveRoom(String.valueOf(roomId));
-        userRooms.remove(sessionId);
+        roomSubscriptionRegistry.leave(client.getSessionId(), roomId);
+        typingStateTracker.stop(roomId, userId);
 
-        Optional<User> userOpt = userRepository.findById(userId);
-        String username = userOpt.map(User::getUsername).orElse("User");
+        String username = chatCacheService.getUsername(userId).orElse("User");
 
         // Notify others in the room
-        client.getNamespace().getRoomOperations(String.valueOf(roomId))
-                .sendEvent("user_left_room", Map.of(
-                        "userId", userId,
-                        "username", username
-                ));
+        messageBroadcaster.broadcastRoomEvent(roomId, "user_left_room", Map.of(
+                "userId", userId,
+                "username", username
+        ));
 
-        client.sendEvent("room_left", Map.of("roomId", roomId, "message", "Left room successfully"));
+        outboundFlowControl.send(client, "room_left", Map.of("roomId", roomId, "message", "Left room successfully"));
 
-        System.out.println("User " + userId + " left room " + roomId);
+        if (logSampler.sample()) {
+            log.atInfo().setMessage("User left room").addKeyValue("userId", userId)
+                    .addKeyValue("roomId", roomId).log();
+        }
     }
 
     /**
@@ -203,63 +280,84 @@ public class SocketIOEventHandler {
      */
     @OnEvent("send_message")
     public void onSendMessage(SocketIOClient client, Map<String, Object> data) {
+        socketEventDispatcher.dispatch(client, "send_message", () -> handleSendMessage(client, data));
+    }
+
+    private void handleSendMessage(SocketIOClient client, Map<String, Object> data) {
         Long userId = client.get("userId");
         if (userId == null) {
-            client.sendEvent("error", Map.of("message", "Unauthorized"));
+            outboundFlowControl.send(client, "error", Map.of("message", "Unauthorized"));
             return;
         }
 
         Long roomId = Long.valueOf(data.get("roomId").toString());
         String content = data.get("content").toString();
+        if (!MessageWriteBehindService.fits(content)) {
+            outboundFlowControl.send(client, "error", Map.of("message", "Message is too long"));
+            return;
+        }
 
-        Optional<ChatRoom> roomOpt = chatRoomRepository.findById(roomId);
-        Optional<User> userOpt = userRepository.findById(userId);
+        Optional<String> usernameOpt = chatCacheService.getUsername(userId);
 
-        if (roomOpt.isEmpty() || userOpt.isEmpty()) {
-            client.sendEvent("error", Map.of("message", "Room or user not found"));
+        if (usernameOpt.isEmpty() || !chatCacheService.roomExists(roomId)) {
+            outboundFlowControl.send(client, "error", Map.of("message", "Room or user not found"));
+            return;
+        }
+
+        if (!roomMembershipService.isAllowed(roomId, userId)) {
+            outboundFlowControl.send(client, "error", Map.of("message", "Not a member of this room"));
             return;
         }
 
         // Ensure client is in the room (join if not already)
         String roomIdStr = String.valueOf(roomId);
-        if (!client.getAllRooms().contains(roomIdStr)) {
+        if (roomSubscriptionRegistry.join(client.getSessionId(), roomId)) {
             client.joinRoom(roomIdStr);
-            System.out.println("Auto-joined user " + userId + " to room " + roomId);
+            log.debug("Auto-joined user {} to room {}", userId, roomId);
         }
 
-        // Save message to database
-        Message message = new Message();
-        message.setRoom(roomOpt.get());
-        message.setUser(userOpt.get());
-        message.setContent(content);
-        Message savedMessage = messageRepository.save(message);
-
-        // Convert to DTO
-        MessageDTO messageDTO = new MessageDTO();
-        messageDTO.setId(savedMessage.getId());
-        messageDTO.setRoomId(savedMessage.getRoom().getId());
-        messageDTO.setUserId(savedMessage.getUser().getId());
-        messageDTO.setUsername(savedMessage.getUser().getUsername());
-        messageDTO.setContent(savedMessage.getContent());
-        if (savedMessage.getCreatedAt() != null) {
-            messageDTO.setCreatedAt(savedMessage.getCreatedAt().toString());
+        // Sequence the message and queue it for a batched write; the sender
+        // gets message_persisted (or message_failed) once the row is committed
+        Object clientMessageId = data.get("clientMessageId");
+        MessageDTO messageDTO = messageWriteBehindService.enqueue(
+                roomId, userId, usernameOpt.get(), content,
+                (messageId, persisted) -> {
+                    Map<String, Object> ack = new HashMap<>();
+                    ack.put("id", messageId);
+                    ack.put("roomId", roomId);
+                    if (clientMessageId != null) {
+                        ack.put("clientMessageId", clientMessageId);
+                    }
+                    if (!persisted) {
+                        roomHistoryCache.remove(roomId, messageId);
+                    }
+                    outboundFlowControl.send(client, persisted ? "message_persisted" : "message_failed", ack);
+                });
+
+        if (messageDTO == null) {
+            outboundFlowControl.send(client, "error", Map.of("message", "Server is busy, please try again"));
+            return;
         }
+        roomHistoryCache.append(messageDTO);
+        messageSearchIndex.index(messageDTO);
+
+        // Sending ends the sender's typing, even if their typing_stop never arrives
+        typingStateTracker.stop(roomId, userId);
 
         // Get room operations for broadcasting
         var roomOps = client.getNamespace().getRoomOperations(roomIdStr);
 
-        // Get number of clients in the room for debugging
-        int clientsInRoom = roomOps.getClients().size();
-        System.out.println("📢 Broadcasting message to room " + roomId + " - Clients in room: " + clientsInRoom);
-        System.out.println("Message content: " + content);
-        System.out.println("Message from user: " + userOpt.get().getUsername() + " (ID: " + userId + ")");
-
-        // Broadcast to all clients in the room (including sender)
-        roomOps.sendEvent("message_received", messageDTO);
+        // Broadcast to all clients in the room (including sender), encoded once
+        messageBroadcaster.broadcast(roomOps, MessageBroadcaster.MESSAGE_RECEIVED, messageDTO);
 
-        System.out.println("✅ Message event sent to " + clientsInRoom + " client(s) in room " + roomId);
-
-        System.out.println("✅ Message broadcasted to room " + roomId + " by user " + userId);
+        if (logSampler.sample()) {
+            // Clients in the room on every node
+            int clientsInRoom = roomSubscriptionRegistry.getMemberCount(roomId)
+                    + clusterRoomDirectory.getRemoteSessionCount(Namespace.DEFAULT_NAME, roomIdStr);
+            log.atInfo().setMessage("Message broadcast").addKeyValue("messageId", messageDTO.getId())
+                    .addKeyValue("roomId", roomId).addKeyValue("userId", userId)
+                    .addKeyValue("clientsInRoom", clientsInRoom).log();
+        }
     }
 
     /**
@@ -267,24 +365,21 @@ public class SocketIOEventHandler {
      */
     @OnEvent("typing_start")
     public void onTypingStart(SocketIOClient client, Map<String, Object> data) {
+        // The username was cached from the token on connect, so no database permit is needed
+        socketEventDispatcher.dispatchInMemory(client, "typing_start", () -> handleTypingStart(client, data));
+    }
+
+    private void handleTypingStart(SocketIOClient client, Map<String, Object> data) {
         Long userId = client.get("userId");
         if (userId == null) {
             return;
         }
 
         Long roomId = Long.valueOf(data.get("roomId").toString());
-        Optional<User> userOpt = userRepository.findById(userId);
+        Optional<String> usernameOpt = chatCacheService.getUsername(userId);
 
-        if (userOpt.isPresent()) {
-            Map<String, Object> typingInfo = Map.of(
-                    "userId", userId,
-                    "username", userOpt.get().getUsername()
-            );
-
-            // Notify others in the room (except sender)
-            client.getNamespace().getRoomOperations(String.valueOf(roomId))
-                    .sendEvent("user_typing", typingInfo);
-        }
+        // Coalesced into the room's next typing_state broadcast
+        usernameOpt.ifPresent(username -> typingStateTracker.start(roomId, userId, username));
     }
 
     /**
@@ -292,6 +387,10 @@ public class SocketIOEventHandler {
      */
     @OnEvent("typing_stop")
     public void onTypingStop(SocketIOClient client, Map<String, Object> data) {
+        socketEventDispatcher.dispatchInMemory(client, "typing_stop", () -> handleTypingStop(client, data));
+    }
+
+    private void handleTypingStop(SocketIOClient client, Map<String, Object> data) {
         Long userId = client.get("userId");
         if (userId == null) {
             return;
@@ -299,8 +398,7 @@ public class SocketIOEventHandler {
 
         Long roomId = Long.valueOf(data.get("roomId").toString());
 
-        // Notify others in the room
-        client.getNamespace().getRoomOperations(String.valueOf(roomId))
-                .sendEvent("user_stopped_typing", Map.of("userId", userId));
+        // Coalesced into the room's next typing_state broadcast
+        typingStateTracker.stop(roomId, userId);
     }
 }
@@ -0,0 +1,222 @@
+package com.yapitup.chat.websocket;
+
+import com.corundumstudio.socketio.SocketIOClient;
+import com.corundumstudio.socketio.SocketIOServer;
+import com.corundumstudio.socketio.namespace.Namespace;
+import com.yapitup.chat.cluster.ClusterMessage;
+import com.yapitup.chat.cluster.ClusterNode;
+import com.yapitup.chat.cluster.ClusterRoomDirectory;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks who is typing in each room and coalesces typing_start/typing_stop
+ * into one typing_state snapshot per room per broadcast interval.
+ * Typists expire after a TTL, so a lost typing_stop does not leave a user
+ * typing forever.
+ * In a cluster, starts and stops are relayed to nodes with members in the
+ * room; every node then holds the whole room's state and sends snapshots to
+ * its own clients only.
+ */
+@Component
+public class TypingStateTracker {
+
+    private static final String CLUSTER_TOPIC = "chat.typing";
+
+    @Autowired
+    private SocketIOServer socketIOServer;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    @Autowired
+    private ClusterRoomDirectory clusterRoomDirectory;
+
+    @Autowired
+    private OutboundFlowControl outboundFlowControl;
+
+    @Value("${chat.typing.ttl-ms:6000}")
+    private long ttlMs;
+
+    private final Map<Long, RoomTyping> rooms = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        clusterNode.subscribe(CLUSTER_TOPIC, TypingMessage.class, message -> {
+            if (message.typing) {
+                startLocal(message.roomId, message.userId, message.username);
+            } else {
+                stopLocal(message.roomId, message.userId);
+            }
+        });
+    }
+
+    /**
+     * Mark a user as typing (or refresh their TTL)
+     */
+    public void start(Long roomId, Long userId, String username) {
+        if (startLocal(roomId, userId, username)) {
+            relay(roomId, new TypingMessage(roomId, userId, username, true));
+        }
+    }
+
+    /**
+     * Mark a user as no longer typing
+     */
+    public void stop(Long roomId, Long userId) {
+        if (stopLocal(roomId, userId)) {
+            relay(roomId, new TypingMessage(roomId, userId, null, false));
+        }
+    }
+
+    /**
+     * Broadcast a snapshot for every room whose typing state changed since the
+     * last tick, after expiring stale typists
+     */
+    @Scheduled(fixedRateString = "${chat.typing.broadcast-interval-ms:300}")
+    public void broadcastChanges() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, RoomTyping> entry : rooms.entrySet()) {
+            Long roomId = entry.getKey();
+            RoomTyping room = entry.getValue();
+
+            List<Map<String, Object>> snapshot = room.takeSnapshotIfChanged(now);
+            if (snapshot != null) {
+                send(roomId, Map.of("roomId", roomId, "users", snapshot));
+            }
+
+            // Nobody left typing and nothing pending - drop the room
+            if (room.isIdle()) {
+                rooms.remove(roomId, room);
+            }
+        }
+    }
+
+    private boolean startLocal(Long roomId, Long userId, String username) {
+        return rooms.computeIfAbsent(roomId, id -> new RoomTyping())
+                .start(userId, username, System.currentTimeMillis(), ttlMs);
+    }
+
+    private boolean stopLocal(Long roomId, Long userId) {
+        RoomTyping room = rooms.get(roomId);
+        return room != null && room.stop(userId);
+    }
+
+    private void relay(Long roomId, TypingMessage message) {
+        if (clusterNode.isEnabled()
+                && clusterRoomDirectory.hasRemoteSessions(Namespace.DEFAULT_NAME, String.valueOf(roomId))) {
+            clusterNode.publish(CLUSTER_TOPIC, message);
+        }
+    }
+
+    /**
+     * Every node sends its own snapshot to its own clients. A newer snapshot
+     * replaces one still queued for a slow client.
+     */
+    private void send(Long roomId, Map<String, Object> snapshot) {
+        for (SocketIOClient client : socketIOServer.getRoomOperations(String.valueOf(roomId)).getClients()) {
+            outboundFlowControl.sendSnapshot(client, "typing_state", snapshot, roomId);
+        }
+    }
+
+    /**
+     * Typing state of one room
+     */
+    private static final class RoomTyping {
+        // userId -> typist, in the order they started typing
+        private final Map<Long, Typist> typists = new LinkedHashMap<>();
+        private boolean changed;
+
+        /**
+         * @return true if other nodes should hear about it: the typist is new,
+         * or their copy is at least half a TTL old
+         */
+        synchronized boolean start(Long userId, String username, long now, long ttlMs) {
+            Typist existing = typists.get(userId);
+            if (existing != null) {
+                existing.expiresAt = now + ttlMs;
+                if (now - existing.relayedAt < ttlMs / 2) {
+                    return false;
+                }
+                existing.relayedAt = now;
+                return true;
+            }
+            typists.put(userId, new Typist(userId, username, now + ttlMs, now));
+            changed = true;
+            return true;
+        }
+
+        synchronized boolean stop(Long userId) {
+            if (typists.remove(userId) != null) {
+                changed = true;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized List<Map<String, Object>> takeSnapshotIfChanged(long now) {
+            Iterator<Typist> iterator = typists.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().expiresAt < now) {
+                    iterator.remove();
+                    changed = true;
+                }
+            }
+
+            if (!changed) {
+                return null;
+            }
+            changed = false;
+
+            List<Map<String, Object>> snapshot = new ArrayList<>(typists.size());
+            for (Typist typist : typists.values()) {
+                snapshot.add(Map.of("userId", typist.userId, "username", typist.username));
+            }
+            return snapshot;
+        }
+
+        synchronized boolean isIdle() {
+            return typists.isEmpty() && !changed;
+        }
+    }
+
+    private static final class Typist {
+        private final Long userId;
+        private final String username;
+        private long expiresAt;
+        private long relayedAt;
+
+        private Typist(Long userId, String username, long expiresAt, long relayedAt) {
+            this.userId = userId;
+            this.username = username;
+            this.expiresAt = expiresAt;
+            this.relayedAt = relayedAt;
+        }
+    }
+
+    private static final class TypingMessage extends ClusterMessage {
+        private static final long serialVersionUID = 1L;
+
+        private final Long roomId;
+        private final Long userId;
+        private final String username;
+        private final boolean typing;
+
+        private TypingMessage(Long roomId, Long userId, String username, boolean typing) {
+            this.roomId = roomId;
+            this.userId = userId;
+            this.username = username;
+            this.typing = typing;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.yapitup.chat.cluster;
+
+import com.corundumstudio.socketio.Configuration;
+import com.corundumstudio.socketio.SocketIOClient;
+import com.corundumstudio.socketio.SocketIOServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two Socket.IO servers sharing rooms over one {@link LoopbackClusterHub},
+ * wired the way SocketIOConfig wires a clustered node.
+ * The nodes are shared by the tests (a server takes seconds to stop), so each
+ * test uses rooms of its own.
+ */
+class LoopbackClusterTest {
+
+    private static final String NAMESPACE = "";
+
+    private static final long TIMEOUT_MS = 5_000;
+
+    // Long enough for a delivery that should not happen to have happened
+    private static final long QUIET_MS = 300;
+
+    private static Node nodeA;
+
+    private static Node nodeB;
+
+    private final List<TestSocketClient> clients = new ArrayList<>();
+
+    @BeforeAll
+    static void startNodes() throws IOException {
+        nodeA = new Node("loopback-cluster-test");
+        nodeB = new Node("loopback-cluster-test");
+        nodeA.start();
+        nodeB.start();
+    }
+
+    @AfterAll
+    static void stopNodes() {
+        nodeB.stop();
+        nodeA.stop();
+    }
+
+    @AfterEach
+    void closeClients() {
+        clients.forEach(TestSocketClient::close);
+    }
+
+    @Test
+    void roomBroadcastReachesMembersOnBothNodes() throws Exception {
+        TestSocketClient onA = connect(nodeA, "broadcast");
+        TestSocketClient onB = connect(nodeB, "broadcast");
+        await(() -> nodeA.directory.hasRemoteSessions(NAMESPACE, "broadcast"));
+
+        nodeA.server.getRoomOperations("broadcast").sendEvent("message", "hello from A");
+
+        assertEquals("[\"message\",\"hello from A\"]", onA.nextEvent(TIMEOUT_MS));
+        assertEquals("[\"message\",\"hello from A\"]", onB.nextEvent(TIMEOUT_MS));
+    }
+
+    @Test
+    void joinAndLeaveOnOneNodeAreSeenByTheOther() throws Exception {
+        TestSocketClient onA = connect(nodeA, "lobby");
+        TestSocketClient onB = connect(nodeB, "other");
+        SocketIOClient sessionOnB = nodeB.server.getRoomOperations("other").getClients().iterator().next();
+        assertEquals(0, nodeA.directory.getRemoteSessionCount(NAMESPACE, "lobby"));
+
+        sessionOnB.joinRoom("lobby");
+        await(() -> nodeA.directory.getRemoteSessionCount(NAMESPACE, "lobby") == 1);
+        nodeA.server.getRoomOperations("lobby").sendEvent("message", "joined");
+        assertEquals("[\"message\",\"joined\"]", onB.nextEvent(TIMEOUT_MS));
+
+        sessionOnB.leaveRoom("lobby");
+        await(() -> !nodeA.directory.hasRemoteSessions(NAMESPACE, "lobby"));
+        nodeA.server.getRoomOperations("lobby").sendEvent("message", "left");
+        assertEquals("[\"message\",\"joined\"]", onA.nextEvent(TIMEOUT_MS));
+        assertEquals("[\"message\",\"left\"]", onA.nextEvent(TIMEOUT_MS));
+        assertNull(onB.nextEvent(QUIET_MS));
+    }
+
+    @Test
+    void broadcastToRoomWithOnlyLocalMembersStaysOnTheNode() throws Exception {
+        TestSocketClient onA = connect(nodeA, "local");
+        TestSocketClient onB = connect(nodeB, "elsewhere");
+        await(() -> nodeA.directory.hasRemoteSessions(NAMESPACE, "elsewhere"));
+
+        AtomicInteger published = new AtomicInteger();
+        ClusterTransport.Subscription dispatches = nodeB.node.getTransport()
+                .subscribe("socketio.DISPATCH", message -> published.incrementAndGet());
+
+        nodeA.server.getRoomOperations("local").sendEvent("message", "just here");
+
+        assertEquals("[\"message\",\"just here\"]", onA.nextEvent(TIMEOUT_MS));
+        assertNull(onB.nextEvent(QUIET_MS));
+        assertEquals(0, published.get());
+        dispatches.cancel();
+    }
+
+    private TestSocketClient connect(Node node, String room) throws Exception {
+        TestSocketClient client = TestSocketClient.connect(node.port, "room=" + room);
+        clients.add(client);
+        return client;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Cluster state did not settle");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * One backend node: its cluster membership and Socket.IO server, which
+     * puts each client in the room named in its handshake
+     */
+    private static final class Node {
+        private final ClusterNode node = new ClusterNode();
+        private final ClusterRoomDirectory directory = new ClusterRoomDirectory();
+        private final SocketIOServer server;
+        private final int port;
+
+        private Node(String hub) throws IOException {
+            ReflectionTestUtils.setField(node, "enabled", true);
+            ReflectionTestUtils.setField(node, "transportType", "loopback");
+            ReflectionTestUtils.setField(node, "loopbackHub", hub);
+            node.start();
+
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            Configuration config = new Configuration();
+            config.setHostname("localhost");
+            config.setPort(port);
+            config.setStoreFactory(new ClusterStoreFactory(node, directory));
+            server = new SocketIOServer(config);
+            server.addConnectListener(client -> client.joinRoom(client.getHandshakeData().getSingleUrlParam("room")));
+        }
+
+        private void start() {
+            server.start();
+            node.announce();
+        }
+
+        private void stop() {
+            server.stop();
+            node.stop();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.yapitup.chat.cluster;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Socket.IO client just big enough for the cluster tests: Engine.IO v4 over a
+ * websocket, default namespace, events kept as their raw JSON arrays
+ */
+final class TestSocketClient implements WebSocket.Listener {
+
+    private static final HttpClient HTTP = HttpClient.newHttpClient();
+
+    private final CountDownLatch connected = new CountDownLatch(1);
+
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+    private final StringBuilder partial = new StringBuilder();
+
+    // Tail of the outgoing frames; a websocket allows one send in flight
+    private CompletableFuture<WebSocket> sending;
+
+    private TestSocketClient() {
+    }
+
+    /**
+     * Connect and wait until the namespace accepts the connection
+     *
+     * @param query handshake parameters, e.g. "room=lobby"
+     */
+    static TestSocketClient connect(int port, String query) throws Exception {
+        TestSocketClient client = new TestSocketClient();
+        URI uri = URI.create("ws://localhost:" + port + "/socket.io/?EIO=4&transport=websocket&" + query);
+        synchronized (client) {
+            client.sending = HTTP.newWebSocketBuilder().buildAsync(uri, client);
+        }
+        client.sending.get(5, TimeUnit.SECONDS);
+        if (!client.connected.await(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Not connected to port " + port);
+        }
+        return client;
+    }
+
+    /**
+     * The next event received, as its JSON array, or null if none came in time
+     */
+    String nextEvent(long timeoutMs) throws InterruptedException {
+        return events.poll(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void close() {
+        sending = sending.thenCompose(webSocket -> webSocket.sendClose(WebSocket.NORMAL_CLOSURE, ""));
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        partial.append(data);
+        if (last) {
+            String packet = partial.toString();
+            partial.setLength(0);
+            onPacket(packet);
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    private void onPacket(String packet) {
+        if (packet.startsWith("0")) {
+            send("40");    // Engine.IO open: connect to the default namespace
+        } else if (packet.equals("2")) {
+            send("3");     // ping
+        } else if (packet.startsWith("40")) {
+            connected.countDown();
+        } else if (packet.startsWith("42")) {
+            events.add(packet.substring(2));
+        }
+    }
+
+    private synchronized void send(String text) {
+        sending = sending.thenCompose(webSocket -> webSocket.sendText(text, true));
+    }
+}
@@ -0,0 +1,186 @@
+package com.yapitup.chat.datasource;
+
+import com.yapitup.chat.dto.ChatRoomDTO;
+import com.yapitup.chat.dto.MessageDTO;
+import com.yapitup.chat.dto.UserSummary;
+import com.yapitup.chat.service.ChatRoomService;
+import com.yapitup.chat.service.MessageService;
+import com.yapitup.chat.service.RoomDirectoryCache;
+import com.yapitup.chat.service.RoomMembershipService;
+import com.yapitup.chat.service.UserService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The application's reads against two embedded databases holding different
+ * rows under the same IDs, so each result tells which database answered.
+ * "Replication" is copying the heartbeat row; the read-your-writes window
+ * is left behind by moving {@link ReplicaReads}' clock.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=" + ReplicaRoutingIntegrationTest.PRIMARY_URL,
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.sql.init.mode=never",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "chat.replica.enabled=true",
+        "chat.replica.urls=" + ReplicaRoutingIntegrationTest.REPLICA_URL,
+        "chat.replica.max-lag-ms=60000",
+        // Checked by the tests, apart from the first check at startup
+        "chat.replica.check-interval-ms=3600000",
+        "chat.search.enabled=false",
+        "socketio.port=0",
+        "logging.level.root=WARN"
+})
+class ReplicaRoutingIntegrationTest {
+
+    static final String PRIMARY_URL = "jdbc:h2:mem:routing-primary;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    static final String REPLICA_URL = "jdbc:h2:mem:routing-replica;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+    private static final long ROOM_ID = 1;
+    private static final long ALICE = 1;
+    private static final long BOB = 2;
+    private static final String BEFORE_EVERYTHING = String.valueOf(Long.MAX_VALUE);
+
+    // Longer than the read-your-writes window: max-lag-ms plus check-interval-ms
+    private static final Duration PAST_THE_WINDOW = Duration.ofHours(2);
+
+    // Shared by the tests, so one test's writes are never in another's future
+    private static final TestClock clock = new TestClock();
+
+    private static boolean seeded;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ReplicaReads replicaReads;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ChatRoomService chatRoomService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private RoomDirectoryCache roomDirectoryCache;
+
+    @Autowired
+    private RoomMembershipService roomMembershipService;
+
+    private final JdbcTemplate onReplica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        JdbcTemplate onPrimary = new JdbcTemplate(dataSource);
+        if (!seeded) {
+            // Same schema on the replica as Hibernate created on the primary
+            for (String statement : onPrimary.queryForList("SCRIPT NODATA", String.class)) {
+                onReplica.execute(statement);
+            }
+            seed(onPrimary, "primary");
+            seed(onReplica, "replica");
+            roomMembershipService.join(ROOM_ID, ALICE);
+            seeded = true;
+        }
+
+        ReplicaSet replicaSet = dataSource.unwrap(ReplicaRoutingDataSource.class).getReplicaSet();
+        replicaSet.checkLag();
+        Long beat = onPrimary.queryForObject("SELECT beat_at FROM replica_heartbeat", Long.class);
+        onReplica.execute("CREATE TABLE IF NOT EXISTS replica_heartbeat (id INT PRIMARY KEY, beat_at BIGINT NOT NULL)");
+        onReplica.update("DELETE FROM replica_heartbeat");
+        onReplica.update("INSERT INTO replica_heartbeat (id, beat_at) VALUES (1, ?)", beat);
+        replicaSet.checkLag();
+        assertEquals(1, replicaSet.getUsableCount());
+
+        // Start with an empty room directory and every earlier write out of the window
+        replicaReads.setClock(clock);
+        roomDirectoryCache.invalidate();
+        clock.advance(PAST_THE_WINDOW);
+    }
+
+    @Test
+    void historyIsReadFromReplica() {
+        assertEquals(List.of("on replica"), history(BOB));
+    }
+
+    @Test
+    void senderReadsOwnRecentMessagesFromPrimary() {
+        messageService.sendMessage(ROOM_ID, ALICE, "just sent");
+
+        assertTrue(history(ALICE).containsAll(List.of("just sent", "on primary")));
+        assertEquals(List.of("on replica"), history(BOB));
+
+        clock.advance(PAST_THE_WINDOW);
+        assertEquals(List.of("on replica"), history(ALICE));
+    }
+
+    @Test
+    void roomListIsReadFromReplica() {
+        assertEquals(List.of("replica room"), roomNames());
+        assertEquals("replica room", chatRoomService.getRoomById(ROOM_ID).map(ChatRoomDTO::getName).orElse(null));
+    }
+
+    @Test
+    void roomChangeSendsNextReadsToPrimary() {
+        roomDirectoryCache.invalidate();
+
+        assertEquals(List.of("primary room"), roomNames());
+        assertEquals("primary room", chatRoomService.getRoomById(ROOM_ID).map(ChatRoomDTO::getName).orElse(null));
+
+        clock.advance(PAST_THE_WINDOW);
+        assertEquals("replica room", chatRoomService.getRoomById(ROOM_ID).map(ChatRoomDTO::getName).orElse(null));
+    }
+
+    @Test
+    void userListIsReadFromReplica() {
+        assertEquals(List.of("replica-alice", "replica-bob"), usernames());
+    }
+
+    @Test
+    void userChangeSendsNextReadsToPrimary() {
+        replicaReads.changed(ReplicaReads.USERS);
+
+        assertEquals(List.of("primary-alice", "primary-bob"), usernames());
+    }
+
+    private static void seed(JdbcTemplate jdbc, String name) {
+        jdbc.update("INSERT INTO users (id, username, email, password, is_online) VALUES (?, ?, ?, 'x', FALSE)",
+                ALICE, name + "-alice", name + "-alice@example.com");
+        jdbc.update("INSERT INTO users (id, username, email, password, is_online) VALUES (?, ?, ?, 'x', FALSE)",
+                BOB, name + "-bob", name + "-bob@example.com");
+        jdbc.update("INSERT INTO chat_rooms (id, name, created_by) VALUES (?, ?, ?)", ROOM_ID, name + " room", ALICE);
+        jdbc.update("INSERT INTO messages (id, room_id, user_id, content, created_at) VALUES (100, ?, ?, ?, CURRENT_TIMESTAMP)",
+                ROOM_ID, BOB, "on " + name);
+    }
+
+    private List<String> history(long userId) {
+        return messageService.getMessageHistory(ROOM_ID, userId, BEFORE_EVERYTHING, null, 10)
+                .getMessages().stream().map(MessageDTO::getContent).toList();
+    }
+
+    private List<String> roomNames() {
+        return chatRoomService.getAllRooms().stream().map(ChatRoomDTO::getName).toList();
+    }
+
+    private List<String> usernames() {
+        return userService.getUserPage(null, 10).getUsers().stream().map(UserSummary::getUsername).toList();
+    }
+}
@@ -0,0 +1,156 @@
+package com.yapitup.chat.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Routing and lag checks against two in-memory databases, one playing the
+ * primary and one the replica; "replication" is copying the heartbeat row.
+ */
+class ReplicaSetTest {
+
+    private static final long MAX_LAG_MS = 200;
+
+    private HikariDataSource primary;
+
+    private HikariDataSource replica;
+
+    private final TestClock clock = new TestClock();
+
+    private ReplicaSet replicaSet;
+
+    @BeforeEach
+    void setUp() {
+        String name = UUID.randomUUID().toString();
+        primary = pool("jdbc:h2:mem:primary-" + name);
+        replica = pool("jdbc:h2:mem:replica-" + name);
+        // Checks are run by the tests themselves, apart from the first one
+        replicaSet = new ReplicaSet(primary, List.of(replica), MAX_LAG_MS, 3_600_000, clock);
+    }
+
+    @AfterEach
+    void tearDown() {
+        replicaSet.close();
+        primary.close();
+    }
+
+    @Test
+    void replicaTakesReplicaReadsOnceCaughtUp() throws Exception {
+        replicaSet.checkLag();
+        replicate();
+        replicaSet.checkLag();
+
+        assertEquals(1, replicaSet.getUsableCount());
+        assertEquals(replica.getJdbcUrl(), ReadRouting.fromReplica(this::connectedTo));
+    }
+
+    @Test
+    void otherReadsStayOnPrimary() throws Exception {
+        replicaSet.checkLag();
+        replicate();
+        replicaSet.checkLag();
+
+        assertEquals(primary.getJdbcUrl(), connectedTo());
+    }
+
+    @Test
+    void replicaWithoutHeartbeatIsSkipped() throws Exception {
+        replicaSet.checkLag();
+
+        assertEquals(0, replicaSet.getUsableCount());
+        assertEquals(primary.getJdbcUrl(), ReadRouting.fromReplica(this::connectedTo));
+    }
+
+    @Test
+    void stalledReplicaIsSkippedWithoutAnyWrites() throws Exception {
+        replicaSet.checkLag();
+        replicate();
+        replicaSet.checkLag();
+        assertEquals(1, replicaSet.getUsableCount());
+
+        // Replication stops; only the heartbeat moves on
+        clock.advance(Duration.ofMillis(MAX_LAG_MS + 1));
+        replicaSet.checkLag();
+
+        assertEquals(0, replicaSet.getUsableCount());
+        assertEquals(primary.getJdbcUrl(), ReadRouting.fromReplica(this::connectedTo));
+    }
+
+    @Test
+    void replicaAtTheLagLimitStillTakesReads() throws Exception {
+        replicaSet.checkLag();
+        replicate();
+        clock.advance(Duration.ofMillis(MAX_LAG_MS));
+        replicaSet.checkLag();
+
+        assertEquals(1, replicaSet.getUsableCount());
+    }
+
+    @Test
+    void replicaTakesReadsAgainAfterCatchingUp() throws Exception {
+        replicaSet.checkLag();
+        replicate();
+        clock.advance(Duration.ofMillis(MAX_LAG_MS + 1));
+        replicaSet.checkLag();
+        assertEquals(0, replicaSet.getUsableCount());
+
+        replicate();
+        replicaSet.checkLag();
+
+        assertEquals(1, replicaSet.getUsableCount());
+    }
+
+    @Test
+    void unreachableReplicaIsSkipped() throws Exception {
+        replicaSet.checkLag();
+        replicate();
+        replicaSet.checkLag();
+
+        replica.close();
+        replicaSet.checkLag();
+
+        assertEquals(0, replicaSet.getUsableCount());
+        assertEquals(primary.getJdbcUrl(), ReadRouting.fromReplica(this::connectedTo));
+    }
+
+    private static HikariDataSource pool(String url) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(url);
+        dataSource.setMaximumPoolSize(2);
+        dataSource.setConnectionTimeout(1000);
+        return dataSource;
+    }
+
+    /**
+     * Copies the primary's heartbeat to the replica, as replication would
+     */
+    private void replicate() {
+        Long beat = new JdbcTemplate(primary).queryForObject("SELECT beat_at FROM replica_heartbeat", Long.class);
+        JdbcTemplate onReplica = new JdbcTemplate(replica);
+        onReplica.execute("CREATE TABLE IF NOT EXISTS replica_heartbeat (id INT PRIMARY KEY, beat_at BIGINT NOT NULL)");
+        onReplica.update("DELETE FROM replica_heartbeat");
+        onReplica.update("INSERT INTO replica_heartbeat (id, beat_at) VALUES (1, ?)", beat);
+    }
+
+    /**
+     * URL of the database a read-only connection from the replica set goes to
+     */
+    private String connectedTo() {
+        try (Connection connection = replicaSet.getConnection()) {
+            return connection.getMetaData().getURL();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
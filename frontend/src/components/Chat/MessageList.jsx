@@ -30,10 +30,11 @@ const MessageList = ({ roomId, onNewMessage }) => {
     const socket = getSocket();
     if (socket) {
       socket.off("message_received");
-      socket.off("user_typing");
-      socket.off("user_stopped_typing");
+      socket.off("messages_received");
+      socket.off("typing_state");
       socket.off("user_joined_room");
       socket.off("user_left_room");
+      socket.off("resync_needed");
     }
   };
 
@@ -127,21 +128,16 @@ const MessageList = ({ roomId, onNewMessage }) => {
       }
     };
 
-    const handleUserTyping = (data) => {
-      if (data.userId !== user?.userId) {
-        setTypingUsers((prevUsers) => {
-          const userExists = prevUsers.find((u) => u.userId === data.userId);
-          if (!userExists) {
-            return [...prevUsers, data];
-          }
-          return prevUsers;
-        });
-      }
+    // Busy rooms get their messages in batches, oldest first
+    const handleMessagesReceived = (batch) => {
+      (batch || []).forEach(handleMessageReceived);
     };
 
-    const handleUserStoppedTyping = (data) => {
-      setTypingUsers((prevUsers) =>
-        prevUsers.filter((u) => u.userId !== data.userId)
+    // Server sends the full list of typists for the room, at most a few times a second
+    const handleTypingState = (data) => {
+      if (Number(data.roomId) !== Number(roomId)) return;
+      setTypingUsers(
+        (data.users || []).filter((u) => u.userId !== user?.userId)
       );
     };
 
@@ -156,11 +152,20 @@ const MessageList = ({ roomId, onNewMessage }) => {
       addSystemMessage(`${displayName} left the room`);
     };
 
+    // Server dropped messages while this client was too slow to take them
+    const handleResyncNeeded = (data) => {
+      const roomIds = (data.roomIds || []).map(Number);
+      if (roomIds.includes(Number(roomId))) {
+        loadMessages();
+      }
+    };
+
     socket.on("message_received", handleMessageReceived);
-    socket.on("user_typing", handleUserTyping);
-    socket.on("user_stopped_typing", handleUserStoppedTyping);
+    socket.on("messages_received", handleMessagesReceived);
+    socket.on("typing_state", handleTypingState);
     socket.on("user_joined_room", handleUserJoined);
     socket.on("user_left_room", handleUserLeft);
+    socket.on("resync_needed", handleResyncNeeded);
 
     console.log("✅ Socket listeners registered for room:", roomId);
     console.log("Listeners will receive messages for room:", roomId);